@@ -1,6 +1,7 @@
 package com.reelyactive.blescanner;
 
 import android.content.Context;
+import android.support.v4.util.LongSparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -8,16 +9,16 @@ import android.widget.BaseAdapter;
 import android.widget.TextView;
 
 import com.reelyactive.blesdk.support.ble.ScanResult;
-
-import java.util.HashMap;
+import com.reelyactive.blesdk.support.ble.util.MacAddresses;
 
 public class BleScanResultAdapter extends BaseAdapter {
 
     private final Context mContext;
-    private HashMap<String, ScanResult> items;
+    // Keyed by packed device address, so that positions can be resolved without copying the keys.
+    private final LongSparseArray<ScanResult> items;
 
     public BleScanResultAdapter(Context context) {
-        items = new HashMap<String, ScanResult>();
+        items = new LongSparseArray<ScanResult>();
         mContext = context;
     }
 
@@ -28,7 +29,7 @@ public class BleScanResultAdapter extends BaseAdapter {
 
     @Override
     public ScanResult getItem(int position) {
-        return items.get(items.keySet().toArray()[position]);
+        return items.valueAt(position);
     }
 
     @Override
@@ -49,15 +50,17 @@ public class BleScanResultAdapter extends BaseAdapter {
     }
 
     public void addItem(ScanResult result) {
-        if (!items.containsKey(result.getDevice().getAddress())) {
-            items.put(result.getDevice().getAddress(), result);
+        long address = MacAddresses.pack(result.getDevice().getAddress());
+        if (items.indexOfKey(address) < 0) {
+            items.put(address, result);
             notifyDataSetChanged();
         }
     }
 
     public void removeItem(ScanResult result) {
-        if (items.containsKey(result.getDevice().getAddress())) {
-            items.remove(result.getDevice().getAddress());
+        int index = items.indexOfKey(MacAddresses.pack(result.getDevice().getAddress()));
+        if (index >= 0) {
+            items.removeAt(index);
             notifyDataSetChanged();
         }
     }
@@ -0,0 +1,235 @@
+package com.reelyactive.blesdk.advertise;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes the reports uploaded by {@link DummyBleAdvertiser} in {@link ReportFormat#BINARY}.
+ * <p>
+ * Identifiers are returned as in the JSON reports: the address and the UUID of the phone as
+ * lowercase hex digits, the system ids of the beacons as returned by
+ * {@link com.reelyactive.blesdk.support.ble.ScanResultParser#getSystemId}, and the RSSIs in dBm.
+ */
+public final class BinaryReportDecoder {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final byte[] data;
+    private final int end;
+    private int position;
+
+    private BinaryReportDecoder(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Returns true if the data starts like a binary report.
+     */
+    public static boolean isBinaryReport(byte[] data, int offset, int length) {
+        return length >= 2 && data[offset] == BinaryReportEncoder.MAGIC;
+    }
+
+    /**
+     * Decode a report.
+     *
+     * @throws IllegalArgumentException If the data is not a report of a known version, or is
+     *                                  truncated.
+     */
+    public static Report decode(byte[] data, int offset, int length) {
+        if (!isBinaryReport(data, offset, length)) {
+            throw new IllegalArgumentException("not a binary report");
+        }
+        return new BinaryReportDecoder(data, offset + 1, length - 1).readReport();
+    }
+
+    private Report readReport() {
+        int version = readByte();
+        if (version != BinaryReportEncoder.VERSION) {
+            throw new IllegalArgumentException("unknown report version " + version);
+        }
+        long timestampMillis = readVarint();
+        String address = toHex(readBytes(6), false);
+        int flags = readByte();
+        byte[] uuidBytes = readBytes(readLength());
+        String uuid;
+        if ((flags & BinaryReportEncoder.FLAG_HEX_UUID) != 0) {
+            uuid = toHex(uuidBytes, false);
+        } else {
+            try {
+                uuid = new String(uuidBytes, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+        String addressType = (flags & BinaryReportEncoder.FLAG_RANDOM_ADDRESS) != 0 ? "random" : "public";
+        int count = readLength();
+        List<Decoding> decodings = new ArrayList<Decoding>(Math.min(count, end - position));
+        for (int i = 0; i < count; i++) {
+            int decodingFlags = readByte();
+            String systemId = null;
+            if ((decodingFlags & BinaryReportEncoder.FLAG_SYSTEM_ID) != 0) {
+                systemId = toHex(readBytes(readLength()), true);
+            }
+            int rssi = (byte) readByte();
+            int minRssi = (byte) readByte();
+            int maxRssi = (byte) readByte();
+            long sightings = readVarint();
+            long age = readVarint();
+            decodings.add(new Decoding(systemId, rssi, minRssi, maxRssi, sightings,
+                    timestampMillis - age));
+        }
+        if (position != end) {
+            throw new IllegalArgumentException("trailing data in report");
+        }
+        return new Report(address, addressType, uuid, timestampMillis,
+                Collections.unmodifiableList(decodings));
+    }
+
+    private int readByte() {
+        if (position >= end) {
+            throw new IllegalArgumentException("truncated report");
+        }
+        return data[position++] & 0xFF;
+    }
+
+    private byte[] readBytes(int length) {
+        if (length > end - position) {
+            throw new IllegalArgumentException("truncated report");
+        }
+        byte[] bytes = new byte[length];
+        System.arraycopy(data, position, bytes, 0, length);
+        position += length;
+        return bytes;
+    }
+
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    private int readLength() {
+        long length = readVarint();
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("malformed length " + length);
+        }
+        return (int) length;
+    }
+
+    private static String toHex(byte[] bytes, boolean reversed) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[reversed ? bytes.length - 1 - i : i] & 0xFF;
+            chars[2 * i] = HEX_DIGITS[b >>> 4];
+            chars[2 * i + 1] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * A decoded report.
+     */
+    public static final class Report {
+        private final String address;
+        private final String addressType;
+        private final String uuid;
+        private final long timestampMillis;
+        private final List<Decoding> decodings;
+
+        Report(String address, String addressType, String uuid, long timestampMillis,
+               List<Decoding> decodings) {
+            this.address = address;
+            this.addressType = addressType;
+            this.uuid = uuid;
+            this.timestampMillis = timestampMillis;
+            this.decodings = decodings;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * Returns the type of address of the phone, "public" or "random".
+         */
+        public String getAddressType() {
+            return addressType;
+        }
+
+        public String getUuid() {
+            return uuid;
+        }
+
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+
+        public List<Decoding> getDecodings() {
+            return decodings;
+        }
+    }
+
+    /**
+     * The coalesced sightings of a beacon.
+     */
+    public static final class Decoding {
+        private final String systemId;
+        private final int rssi;
+        private final int minRssi;
+        private final int maxRssi;
+        private final long count;
+        private final long lastSeenMillis;
+
+        Decoding(String systemId, int rssi, int minRssi, int maxRssi, long count,
+                 long lastSeenMillis) {
+            this.systemId = systemId;
+            this.rssi = rssi;
+            this.minRssi = minRssi;
+            this.maxRssi = maxRssi;
+            this.count = count;
+            this.lastSeenMillis = lastSeenMillis;
+        }
+
+        /**
+         * Returns the system id of the beacon, or null.
+         */
+        public String getSystemId() {
+            return systemId;
+        }
+
+        /**
+         * Returns the last RSSI of the beacon.
+         */
+        public int getRssi() {
+            return rssi;
+        }
+
+        public int getMinRssi() {
+            return minRssi;
+        }
+
+        public int getMaxRssi() {
+            return maxRssi;
+        }
+
+        /**
+         * Returns the number of sightings coalesced in the decoding.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getLastSeenMillis() {
+            return lastSeenMillis;
+        }
+    }
+}
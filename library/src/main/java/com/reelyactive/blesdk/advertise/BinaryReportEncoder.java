@@ -0,0 +1,135 @@
+package com.reelyactive.blesdk.advertise;
+
+import com.reelyactive.blesdk.support.ble.util.MacAddresses;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Encodes the reports uploaded by {@link DummyBleAdvertiser} in a compact binary format, with the
+ * same content as {@link TiraidEncoder}, several times smaller.
+ * <p>
+ * Numbers are unsigned LEB128 varints, RSSIs signed bytes in dBm:
+ * <pre>
+ * report   := MAGIC VERSION timestamp:varint address:6 flags:1 uuidLength:varint uuid
+ *             decodingCount:varint decoding*
+ * decoding := flags:1 [systemIdLength:varint systemId] rssi:1 minRssi:1 maxRssi:1
+ *             count:varint age:varint
+ * </pre>
+ * The timestamp is in milliseconds since the epoch, the age of a decoding the time between its
+ * last sighting and the timestamp, in milliseconds. The address is the 48 bit address of the phone,
+ * flagged {@link #FLAG_RANDOM_ADDRESS}, and the UUID its 16 bytes, flagged {@link #FLAG_HEX_UUID},
+ * or UTF-8 if it is not hexadecimal. The system id of a beacon, flagged
+ * {@link #FLAG_SYSTEM_ID}, is in the byte order of its service data.
+ *
+ * @see BinaryReportDecoder
+ */
+final class BinaryReportEncoder extends ReportEncoder {
+    static final byte MAGIC = (byte) 0xB1;
+    static final byte VERSION = 1;
+    static final int FLAG_RANDOM_ADDRESS = 0x01;
+    static final int FLAG_HEX_UUID = 0x02;
+    static final int FLAG_SYSTEM_ID = 0x01;
+    private static final int VARINT_MAX_BYTES = 10;
+    private static final int REPORT_MAX_BYTES = 2 + VARINT_MAX_BYTES + 6 + 1 + VARINT_MAX_BYTES + 64
+            + VARINT_MAX_BYTES;
+
+    private long address = -1;
+    private int flags;
+    private byte[] uuid;
+
+    @Override
+    void setIdentity(String macAddress, String addressType, String uuid) {
+        this.address = MacAddresses.pack(macAddress);
+        this.flags = "random".equals(addressType) ? FLAG_RANDOM_ADDRESS : 0;
+        String hex = uuid.replaceAll("[\\W.]", "").toLowerCase(Locale.US);
+        byte[] bytes = parseHex(hex);
+        if (bytes != null) {
+            this.flags |= FLAG_HEX_UUID;
+            this.uuid = bytes;
+        } else {
+            try {
+                this.uuid = hex.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    @Override
+    boolean hasIdentity() {
+        return address >= 0;
+    }
+
+    @Override
+    int reportMaxBytes() {
+        return REPORT_MAX_BYTES;
+    }
+
+    @Override
+    int decodingMaxBytes(byte[] systemId) {
+        int size = 1 + 3 + 2 * VARINT_MAX_BYTES;
+        if (systemId != null && systemId.length > 0) {
+            size += VARINT_MAX_BYTES + systemId.length;
+        }
+        return size;
+    }
+
+    @Override
+    void encode(long timeMillis, List<SightingBatch.Sighting> decodings) {
+        size = 0;
+        write(MAGIC);
+        write(VERSION);
+        writeVarint(timeMillis);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            write((byte) (address >>> shift));
+        }
+        write((byte) flags);
+        writeVarint(uuid.length);
+        write(uuid);
+        writeVarint(decodings.size());
+        for (int i = 0; i < decodings.size(); i++) {
+            SightingBatch.Sighting sighting = decodings.get(i);
+            byte[] systemId = sighting.systemId;
+            if (systemId != null && systemId.length > 0) {
+                write((byte) FLAG_SYSTEM_ID);
+                writeVarint(systemId.length);
+                write(systemId);
+            } else {
+                write((byte) 0);
+            }
+            write((byte) sighting.lastRssi);
+            write((byte) sighting.minRssi);
+            write((byte) sighting.maxRssi);
+            writeVarint(sighting.count);
+            writeVarint(Math.max(0, timeMillis - sighting.lastSeenMillis));
+        }
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(VARINT_MAX_BYTES);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    // Returns the bytes of an even number of hex digits, or null.
+    private static byte[] parseHex(String hex) {
+        if (hex.isEmpty() || hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+}
@@ -8,6 +8,13 @@ import java.util.List;
  * Created by saiimons on 15-03-09.
  */
 public abstract class BleAdvertiser {
+    /**
+     * Start advertising, along with the beacons nearby.
+     *
+     * @param closestBeacon The beacons nearby, such as returned by
+     *                      {@link com.reelyactive.blesdk.service.BleService#getNearestResults(int, List)},
+     *                      in any order: the advertiser reports them nearest first.
+     */
     public abstract void startAdvertising(String uuid, List<ScanResult> closestBeacon, String fallbackUrl);
 
     public abstract void stopAdvertising();
@@ -20,6 +27,9 @@ public abstract class BleAdvertiser {
         startAdvertising(uuid, closestBeacon, "http://www.hyperlocalcontext.com/events");
     }
 
+    /**
+     * Update the beacons nearby, in any order.
+     */
     public void updateBeacons(List<ScanResult> closestBeacon){
 
     }
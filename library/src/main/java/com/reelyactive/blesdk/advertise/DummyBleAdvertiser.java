@@ -6,40 +6,58 @@ import android.os.HandlerThread;
 import android.os.Looper;
 
 import com.reelyactive.blesdk.support.ble.ScanResult;
-import com.reelyactive.blesdk.support.ble.ScanResultParser;
 import com.reelyactive.blesdk.support.ble.util.BluetoothInterface;
+import com.reelyactive.blesdk.support.ble.util.SystemClock;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.text.SimpleDateFormat;
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.TimeZone;
 
 /**
  * Created by saiimons on 15-03-09.
  */
 public class DummyBleAdvertiser extends BleAdvertiser {
+    public static final long DEFAULT_SAMPLE_INTERVAL_MILLIS = 5 * 1000;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 60 * 1000;
+    public static final int DEFAULT_MAX_PAYLOAD_BYTES = 16 * 1024;
+    private static final String QUEUE_DIRECTORY = "advertiser-uploads";
+    // Queued uploads replayed per sample, so a long outage is not sent back all at once.
+    private static final int MAX_REPLAYED_UPLOADS = 4;
+
     private final Context context;
     private final Worker worker;
     private final AdvertisingRunnable runnable;
+    // Only used on the worker thread.
+    private ReportEncoder encoder = new TiraidEncoder();
+    private ReportFormat encoderFormat = ReportFormat.JSON;
+    private final SightingBatch batch = new SightingBatch(encoder);
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!batch.isEmpty()) {
+                flush(System.currentTimeMillis());
+            }
+        }
+    };
+    private final UploadQueue.Sender replaySender = new UploadQueue.Sender() {
+        @Override
+        public boolean send(byte[] data, int length) {
+            return upload(data, length);
+        }
+    };
+    private final HttpTransport transport = new HttpTransport(new SystemClock());
+    private UploadQueue queue;
+    private BluetoothInterface.MacAddress macAddress;
+    private String encodedUuid;
     private String uuid;
     private List<ScanResult> closestBeacon;
     private boolean advertising = false;
     private String url;
+    private volatile long sampleIntervalMillis = DEFAULT_SAMPLE_INTERVAL_MILLIS;
+    private volatile long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private volatile int maxPayloadBytes = DEFAULT_MAX_PAYLOAD_BYTES;
+    private volatile boolean gzipUploads;
+    private volatile ReportFormat reportFormat = ReportFormat.JSON;
 
     public DummyBleAdvertiser(Context context) {
         this.context = context;
@@ -49,49 +67,54 @@ public class DummyBleAdvertiser extends BleAdvertiser {
         runnable = new AdvertisingRunnable();
     }
 
-    private JSONObject getJsonBase() {
-        try {
-            return new JSONObject(
-                    "        {" +
-                            "    \"event\": \"appearance\"," +
-                            "    \"tiraid\":{" +
-                            "        \"identifier\":{" +
-                            "            \"type\":\"ADVA-48\"," +
-                            "            \"value\":\"<MAC_ADDR>\"," +
-                            "            \"advHeader\": {" +
-                            "              \"txAdd\": \"public\"" +
-                            "            }," +
-                            "            \"advData\":{" +
-                            "                \"complete128BitUUIDs\":\"<UUID>\"" +
-                            "            }" +
-                            "        }," +
-                            "        \"timestamp\":\"<DATE>\"," +
-                            "        \"radioDecodings\":[" +
-                            "        ]" +
-                            "    }" +
-                            "}"
-            );
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        return null;
+    /**
+     * Set how often the beacons nearby are sampled into the next upload.
+     */
+    public void setSampleIntervalMillis(long sampleIntervalMillis) {
+        if (sampleIntervalMillis <= 0) {
+            throw new IllegalArgumentException("sample interval must be > 0");
+        }
+        this.sampleIntervalMillis = sampleIntervalMillis;
     }
 
-    private JSONObject getRadioDecodingBase() {
-        try {
-            return new JSONObject(
-                    "            {" +
-                            "                \"rssi\":0," +
-                            "                \"identifier\":{" +
-                            "                    \"type\": \"EUI-64\"," +
-                            "                    \"value\": \"<ID_DU_BEACON>\"" +
-                            "                }" +
-                            "            }"
-            );
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        return null;
+    /**
+     * Set how long sightings are accumulated before they are uploaded. The sightings of a beacon
+     * seen several times in the meantime are coalesced.
+     */
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        if (flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("flush interval must be >= 0");
+        }
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Set the size of an upload, in bytes. Sightings are uploaded early rather than growing an
+     * upload over this size, unless a single sample does.
+     */
+    public void setMaxPayloadBytes(int maxPayloadBytes) {
+        if (maxPayloadBytes <= 0) {
+            throw new IllegalArgumentException("max payload must be > 0");
+        }
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    /**
+     * Gzip the uploads. The server must accept gzipped request bodies.
+     */
+    public void setGzipUploads(boolean gzipUploads) {
+        this.gzipUploads = gzipUploads;
+    }
+
+    /**
+     * Set the format of the uploads, {@link ReportFormat#JSON} by default. The server must accept
+     * the format.
+     */
+    public void setReportFormat(ReportFormat reportFormat) {
+        if (reportFormat == null) {
+            throw new IllegalArgumentException("report format is null");
+        }
+        this.reportFormat = reportFormat;
     }
 
     @Override
@@ -116,6 +139,7 @@ public class DummyBleAdvertiser extends BleAdvertiser {
             throw new RuntimeException("Do not try to run from outside the main thread !");
         }
         advertising = false;
+        worker.getHandler().post(flushRunnable);
     }
 
     @Override
@@ -134,69 +158,67 @@ public class DummyBleAdvertiser extends BleAdvertiser {
                 return;
             }
         }
-        if (url == null || results.size() == 0) {
+        if (url == null) {
             return;
         }
-        Collections.sort(results, new Comparator<ScanResult>() {
-            @Override
-            public int compare(ScanResult lhs, ScanResult rhs) {
-                return rhs.getRssi() - lhs.getRssi();
-            }
-        });
-        URL url;
-        OutputStream os = null;
-        BufferedReader is = null;
-        try {
-            url = new URL(this.url);
-            URLConnection conn = url.openConnection();
-            conn.setDoInput(true);
-            conn.setDoOutput(true);
-            conn.setRequestProperty("Content-Type", "application/json");
-            JSONObject jsonObject = getJsonBase();
-            BluetoothInterface.MacAddress macAddress = BluetoothInterface.getMacAddress(context);
-            jsonObject.getJSONObject("tiraid").getJSONObject("identifier").put("value", macAddress.address.replace(":", "").toLowerCase(Locale.US));
-            jsonObject.getJSONObject("tiraid").getJSONObject("identifier").getJSONObject("advHeader").put("txAdd", macAddress.type);
-            jsonObject.getJSONObject("tiraid").getJSONObject("identifier").getJSONObject("advData").put("complete128BitUUIDs", uuid.replaceAll("[\\W.]", "").toLowerCase(Locale.US));
-            JSONArray decodings = jsonObject.getJSONObject("tiraid").getJSONArray("radioDecodings");
-            for (ScanResult result : results) {
-                JSONObject decoding = getRadioDecodingBase();
-                decoding.getJSONObject("identifier").put("value", ScanResultParser.getSystemId(result));
-                decoding.put("rssi", 127 + result.getRssi());
-                decodings.put(decoding);
-            }
-            SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
-            df.setTimeZone(TimeZone.getTimeZone("Z"));
-            jsonObject.getJSONObject("tiraid").put("timestamp", df.format(new Date(System.currentTimeMillis())));
-            String content = jsonObject.toString(4);
-            conn.setRequestProperty("Content-Length", String.valueOf(content.getBytes().length));
-            os = conn.getOutputStream();
-            os.write(content.getBytes());
-            is = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            while (null != is.readLine()) {
-            }
-            is.close();
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (JSONException e) {
-            e.printStackTrace();
-        } finally {
-            if (os != null) {
-                try {
-                    os.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+        if (!getQueue().isEmpty()) {
+            getQueue().replay(replaySender, MAX_REPLAYED_UPLOADS);
+        }
+        ReportFormat reportFormat = this.reportFormat;
+        if (reportFormat != encoderFormat) {
+            encoder = reportFormat.newEncoder();
+            encoderFormat = reportFormat;
+            batch.setEncoder(encoder);
+        }
+        long now = System.currentTimeMillis();
+        int maxPayloadBytes = this.maxPayloadBytes;
+        if (!batch.isEmpty() && batch.wouldExceed(results, maxPayloadBytes)) {
+            flush(now);
+        }
+        batch.add(results, now);
+        if (!batch.isEmpty() && (now - batch.getStartMillis() >= flushIntervalMillis
+                || batch.getEncodedMaxBytes() >= maxPayloadBytes)) {
+            flush(now);
+        }
+    }
+
+    private void flush(long now) {
+        String uuid = this.uuid;
+        if (macAddress == null) {
+            macAddress = BluetoothInterface.getMacAddress(context);
+        }
+        if (!encoder.hasIdentity() || !uuid.equals(encodedUuid)) {
+            encoder.setIdentity(macAddress.address, macAddress.type, uuid);
+            encodedUuid = uuid;
+        }
+        encoder.encode(now, batch.getSightings());
+        batch.clear();
+        // Keep the uploads in order: while some are queued, the new one goes after them.
+        if (getQueue().isEmpty() && upload(encoder.getBuffer(), encoder.size())) {
+            return;
+        }
+        getQueue().append(encoder.getBuffer(), encoder.size());
+    }
+
+    private UploadQueue getQueue() {
+        if (queue == null) {
+            queue = new UploadQueue(new File(context.getFilesDir(), QUEUE_DIRECTORY));
+        }
+        return queue;
+    }
+
+    /**
+     * Returns true if the upload is done with: accepted by the server, or rejected as invalid
+     * with a 4xx status other than 408 and 429, so that it does not block the queue.
+     */
+    private boolean upload(byte[] data, int length) {
+        String url = this.url;
+        if (url == null) {
+            return false;
         }
+        transport.setGzip(gzipUploads);
+        // Queued uploads keep their format, even if it changed since.
+        return transport.post(url, ReportFormat.forReport(data, length).getContentType(), data, length);
     }
 
     static class Worker extends HandlerThread {
@@ -221,7 +243,7 @@ public class DummyBleAdvertiser extends BleAdvertiser {
         public void run() {
             if (advertising) {
                 advertise();
-                worker.getHandler().postDelayed(runnable, 5 * 1000);
+                worker.getHandler().postDelayed(runnable, sampleIntervalMillis);
             }
         }
     }
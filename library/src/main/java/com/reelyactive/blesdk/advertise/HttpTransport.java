@@ -0,0 +1,223 @@
+package com.reelyactive.blesdk.advertise;
+
+import com.reelyactive.blesdk.support.ble.util.Clock;
+import com.reelyactive.blesdk.support.ble.util.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Posts the uploads of {@link DummyBleAdvertiser} to the server.
+ * <p>
+ * Responses are drained into a scratch buffer and their streams closed, so that
+ * {@link HttpURLConnection} keeps the connection alive for the next upload. Request bodies can
+ * be gzipped, with a deflater and buffers reused from one upload to the next.
+ * <p>
+ * After a failure, uploads are refused without a connection until a delay elapsed, doubling
+ * with each consecutive failure up to a maximum, with a random jitter so that phones of a venue
+ * do not retry together. After {@link #FAILURES_TO_OPEN} consecutive failures the circuit opens:
+ * uploads are refused for {@link #OPEN_MILLIS}, then a single upload probes the server, closing
+ * the circuit if it succeeds and opening it again otherwise.
+ * <p>
+ * This class is not thread safe.
+ */
+final class HttpTransport {
+    static final long BASE_BACKOFF_MILLIS = 5 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 2 * 60 * 1000;
+    static final int FAILURES_TO_OPEN = 5;
+    static final long OPEN_MILLIS = 5 * 60 * 1000;
+    private static final int TIMEOUT_MILLIS = 15 * 1000;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final Clock clock;
+    private final Random random;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] drainBuffer = new byte[1024];
+    private byte[] gzipBuffer = new byte[1024];
+    private String spec;
+    private URL url;
+    private boolean gzip;
+    private int failures;
+    private long nextAttemptMillis;
+
+    HttpTransport(Clock clock) {
+        this(clock, new Random());
+    }
+
+    HttpTransport(Clock clock, Random random) {
+        this.clock = clock;
+        this.random = random;
+    }
+
+    /**
+     * Gzip the request bodies, if the server accepts them.
+     */
+    void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Returns true if uploads are refused until the server is reachable again.
+     */
+    boolean isBackingOff() {
+        return failures > 0 && clock.currentTimeMillis() < nextAttemptMillis;
+    }
+
+    /**
+     * Post an upload of {@code contentType} to {@code spec}.
+     *
+     * @return True if the upload is done with: accepted by the server, or rejected by it as
+     * invalid, in which case sending it again would not help. False if it must be sent again
+     * later, including while backing off.
+     */
+    boolean post(String spec, String contentType, byte[] data, int length) {
+        if (isBackingOff()) {
+            return false;
+        }
+        URL url = getUrl(spec);
+        if (url == null) {
+            return false;
+        }
+        HttpURLConnection conn = null;
+        try {
+            URLConnection connection = url.openConnection();
+            if (!(connection instanceof HttpURLConnection)) {
+                Logger.logError("Can't upload to " + spec);
+                return false;
+            }
+            conn = (HttpURLConnection) connection;
+            conn.setConnectTimeout(TIMEOUT_MILLIS);
+            conn.setReadTimeout(TIMEOUT_MILLIS);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", contentType);
+            byte[] body = data;
+            int bodyLength = length;
+            if (gzip) {
+                bodyLength = gzip(data, length);
+                body = gzipBuffer;
+                conn.setRequestProperty("Content-Encoding", "gzip");
+            }
+            conn.setFixedLengthStreamingMode(bodyLength);
+            OutputStream os = conn.getOutputStream();
+            try {
+                os.write(body, 0, bodyLength);
+            } finally {
+                os.close();
+            }
+            int code = conn.getResponseCode();
+            drain(code < 400 ? conn.getInputStream() : conn.getErrorStream());
+            if (code >= 200 && code < 300) {
+                onSuccess();
+                return true;
+            }
+            if (code >= 400 && code < 500 && code != 408 && code != 429) {
+                Logger.logWarning("Upload rejected by the server: " + code);
+                onSuccess();
+                return true;
+            }
+            Logger.logInfo("Upload failed: " + code);
+        } catch (IOException e) {
+            Logger.logInfo("Upload failed: " + e);
+            if (conn != null) {
+                // Don't reuse a connection in an unknown state.
+                conn.disconnect();
+            }
+        }
+        onFailure();
+        return false;
+    }
+
+    private URL getUrl(String spec) {
+        if (!spec.equals(this.spec)) {
+            this.spec = spec;
+            try {
+                url = new URL(spec);
+            } catch (MalformedURLException e) {
+                Logger.logError("Invalid upload url " + spec, e);
+                url = null;
+            }
+        }
+        return url;
+    }
+
+    private void onSuccess() {
+        if (failures >= FAILURES_TO_OPEN) {
+            Logger.logInfo("Upload circuit closed");
+        }
+        failures = 0;
+    }
+
+    private void onFailure() {
+        failures++;
+        long delay;
+        if (failures >= FAILURES_TO_OPEN) {
+            if (failures == FAILURES_TO_OPEN) {
+                Logger.logWarning("Upload circuit open after " + failures + " failures");
+            }
+            delay = OPEN_MILLIS;
+        } else {
+            // "Equal jitter": half the delay is fixed, the other half random.
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (failures - 1));
+            delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+        }
+        nextAttemptMillis = clock.currentTimeMillis() + delay;
+    }
+
+    // Read and drop the response, so the connection can be reused.
+    private void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try {
+            while (in.read(drainBuffer) >= 0) {
+                // Discard.
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    // Gzip the data into gzipBuffer, returns the length of the gzipped data.
+    private int gzip(byte[] data, int length) {
+        // Deflated data can be slightly larger than the original, plus the header and trailer.
+        int maxLength = GZIP_HEADER.length + length + length / 1000 + 64 + 8;
+        if (gzipBuffer.length < maxLength) {
+            gzipBuffer = new byte[maxLength];
+        }
+        System.arraycopy(GZIP_HEADER, 0, gzipBuffer, 0, GZIP_HEADER.length);
+        int size = GZIP_HEADER.length;
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (size == gzipBuffer.length - 8) {
+                byte[] grown = new byte[gzipBuffer.length * 2];
+                System.arraycopy(gzipBuffer, 0, grown, 0, size);
+                gzipBuffer = grown;
+            }
+            size += deflater.deflate(gzipBuffer, size, gzipBuffer.length - 8 - size);
+        }
+        crc.reset();
+        crc.update(data, 0, length);
+        size = writeIntLe(gzipBuffer, size, (int) crc.getValue());
+        return writeIntLe(gzipBuffer, size, length);
+    }
+
+    private static int writeIntLe(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+        return offset + 4;
+    }
+}
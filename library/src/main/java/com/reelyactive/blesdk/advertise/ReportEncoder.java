@@ -0,0 +1,81 @@
+package com.reelyactive.blesdk.advertise;
+
+import java.util.List;
+
+/**
+ * Encodes the reports uploaded by {@link DummyBleAdvertiser}, straight into a byte buffer reused
+ * from one report to the next.
+ * <p>
+ * A report holds the identity of the phone, the time of the report and a radio decoding for each
+ * beacon nearby, with its coalesced sightings.
+ * <p>
+ * This class is not thread safe.
+ */
+abstract class ReportEncoder {
+    byte[] buffer = new byte[1024];
+    int size;
+
+    /**
+     * Set the identity of the phone.
+     *
+     * @param macAddress  The address of the phone, such as "00:11:22:AA:BB:CC".
+     * @param addressType The type of address, "public" or "random".
+     * @param uuid        The UUID advertised by the phone.
+     */
+    abstract void setIdentity(String macAddress, String addressType, String uuid);
+
+    abstract boolean hasIdentity();
+
+    /**
+     * Returns an upper bound of the size of a report without radio decodings, for an address,
+     * address type and UUID of usual lengths.
+     */
+    abstract int reportMaxBytes();
+
+    /**
+     * Returns an upper bound of the size of the radio decoding of a beacon with {@code systemId}.
+     */
+    abstract int decodingMaxBytes(byte[] systemId);
+
+    /**
+     * Encode a report, replacing the previous one.
+     *
+     * @param timeMillis The time of the report, in milliseconds since the epoch.
+     * @param decodings  The coalesced sightings of the beacons nearby, nearest first. They are
+     *                   written in this order.
+     */
+    abstract void encode(long timeMillis, List<SightingBatch.Sighting> decodings);
+
+    /**
+     * Returns the length of the encoded report, in bytes.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the buffer holding the encoded report, valid until the next report is encoded.
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    void write(byte b) {
+        ensureCapacity(1);
+        buffer[size++] = b;
+    }
+
+    void write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, size + extra)];
+            System.arraycopy(buffer, 0, grown, 0, size);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.reelyactive.blesdk.advertise;
+
+/**
+ * The formats of the reports uploaded by {@link DummyBleAdvertiser}.
+ */
+public enum ReportFormat {
+    /**
+     * The tiraid JSON report.
+     */
+    JSON("application/json"),
+    /**
+     * The same content, in the compact binary format read by {@link BinaryReportDecoder}.
+     */
+    BINARY("application/octet-stream");
+
+    private final String contentType;
+
+    ReportFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    ReportEncoder newEncoder() {
+        return this == BINARY ? new BinaryReportEncoder() : new TiraidEncoder();
+    }
+
+    /**
+     * Returns the format of an encoded report, such as one replayed from the upload queue.
+     */
+    static ReportFormat forReport(byte[] data, int length) {
+        return BinaryReportDecoder.isBinaryReport(data, 0, length) ? BINARY : JSON;
+    }
+}
@@ -0,0 +1,145 @@
+package com.reelyactive.blesdk.advertise;
+
+import com.reelyactive.blesdk.support.ble.ScanResult;
+import com.reelyactive.blesdk.support.ble.ScanResultParser;
+import com.reelyactive.blesdk.support.ble.util.LongObjectHashMap;
+import com.reelyactive.blesdk.support.ble.util.MacAddresses;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The sightings of the beacons nearby accumulated between two uploads, one per device: repeated
+ * sightings of a device are coalesced into a count and its minimum, maximum and last RSSI.
+ * <p>
+ * The batch keeps an upper bound of the size of its encoded report, so it can be flushed before
+ * it grows over the payload size of an upload.
+ * <p>
+ * This class is not thread safe.
+ */
+final class SightingBatch {
+    // Strongest last RSSI first, as the radio decodings are read nearest first.
+    private static final Comparator<Sighting> STRONGEST_FIRST = new Comparator<Sighting>() {
+        @Override
+        public int compare(Sighting lhs, Sighting rhs) {
+            return rhs.lastRssi - lhs.lastRssi;
+        }
+    };
+
+    // The sightings, by packed device address.
+    private final LongObjectHashMap<Sighting> byAddress = new LongObjectHashMap<Sighting>();
+    private final List<Sighting> sightings = new ArrayList<Sighting>();
+    private long startMillis;
+    private ReportEncoder encoder;
+    private int encodedSize;
+
+    SightingBatch(ReportEncoder encoder) {
+        setEncoder(encoder);
+    }
+
+    /**
+     * Set the encoder of the report, which bounds its size.
+     */
+    void setEncoder(ReportEncoder encoder) {
+        this.encoder = encoder;
+        encodedSize = encoder.reportMaxBytes();
+        for (int i = 0; i < sightings.size(); i++) {
+            encodedSize += encoder.decodingMaxBytes(sightings.get(i).systemId);
+        }
+    }
+
+    /**
+     * Returns true if adding the sightings in {@code results} would grow the encoded report over
+     * {@code maxBytes}.
+     */
+    boolean wouldExceed(List<ScanResult> results, int maxBytes) {
+        int size = encodedSize;
+        for (int i = 0; i < results.size(); i++) {
+            ScanResult result = results.get(i);
+            if (!byAddress.containsKey(MacAddresses.pack(result.getDevice().getAddress()))) {
+                size += encoder.decodingMaxBytes(ScanResultParser.getSystemIdBytes(result));
+            }
+        }
+        return size > maxBytes;
+    }
+
+    /**
+     * Add the sightings of the beacons nearby at {@code timeMillis}.
+     */
+    void add(List<ScanResult> results, long timeMillis) {
+        if (sightings.isEmpty()) {
+            startMillis = timeMillis;
+        }
+        for (int i = 0; i < results.size(); i++) {
+            ScanResult result = results.get(i);
+            long address = MacAddresses.pack(result.getDevice().getAddress());
+            Sighting sighting = byAddress.get(address);
+            if (sighting == null) {
+                sighting = new Sighting(ScanResultParser.getSystemIdBytes(result));
+                byAddress.put(address, sighting);
+                sightings.add(sighting);
+                encodedSize += encoder.decodingMaxBytes(sighting.systemId);
+            }
+            sighting.add(result.getRssi(), timeMillis);
+        }
+    }
+
+    /**
+     * Returns the time of the first sightings of the batch, in milliseconds since the epoch.
+     */
+    long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Returns an upper bound of the size of the encoded report.
+     */
+    int getEncodedMaxBytes() {
+        return encodedSize;
+    }
+
+    boolean isEmpty() {
+        return sightings.isEmpty();
+    }
+
+    /**
+     * Returns the sightings, strongest last RSSI first. Sightings of the same RSSI stay in the
+     * order the devices were first seen.
+     */
+    List<Sighting> getSightings() {
+        Collections.sort(sightings, STRONGEST_FIRST);
+        return sightings;
+    }
+
+    void clear() {
+        byAddress.clear();
+        sightings.clear();
+        encodedSize = encoder.reportMaxBytes();
+    }
+
+    /**
+     * The coalesced sightings of a device.
+     */
+    static final class Sighting {
+        final byte[] systemId;
+        int count;
+        int minRssi = Integer.MAX_VALUE;
+        int maxRssi = Integer.MIN_VALUE;
+        int lastRssi;
+        long lastSeenMillis;
+
+        Sighting(byte[] systemId) {
+            this.systemId = systemId;
+        }
+
+        void add(int rssi, long timeMillis) {
+            count++;
+            minRssi = Math.min(minRssi, rssi);
+            maxRssi = Math.max(maxRssi, rssi);
+            lastRssi = rssi;
+            lastSeenMillis = timeMillis;
+        }
+    }
+}
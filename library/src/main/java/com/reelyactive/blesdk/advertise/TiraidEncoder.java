@@ -0,0 +1,196 @@
+package com.reelyactive.blesdk.advertise;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Encodes the reports uploaded by {@link DummyBleAdvertiser} as "appearance" tiraid events, in
+ * compact JSON.
+ * <p>
+ * The identity of the phone is encoded once when it is set, the timestamp and the radio
+ * decodings are written without intermediate objects or strings. Each radio decoding holds the
+ * last RSSI of a beacon, along with the minimum and maximum RSSI and the number of sightings
+ * coalesced in the report.
+ */
+final class TiraidEncoder extends ReportEncoder {
+    private static final byte[] HEX_DIGITS = ascii("0123456789abcdef");
+    private static final byte[] REPORT_START = ascii("{\"event\":\"appearance\",\"tiraid\":{\"identifier\":{\"type\":\"ADVA-48\",\"value\":");
+    private static final byte[] ADV_HEADER = ascii(",\"advHeader\":{\"txAdd\":");
+    private static final byte[] ADV_DATA = ascii("},\"advData\":{\"complete128BitUUIDs\":");
+    private static final byte[] TIMESTAMP = ascii("}},\"timestamp\":\"");
+    private static final byte[] DECODINGS = ascii("\",\"radioDecodings\":[");
+    private static final byte[] DECODING_START = ascii("{\"rssi\":");
+    private static final byte[] DECODING_MIN = ascii(",\"rssiMin\":");
+    private static final byte[] DECODING_MAX = ascii(",\"rssiMax\":");
+    private static final byte[] DECODING_COUNT = ascii(",\"count\":");
+    private static final byte[] DECODING_IDENTIFIER = ascii(",\"identifier\":{\"type\":\"EUI-64\"");
+    private static final byte[] DECODING_VALUE = ascii(",\"value\":\"");
+    private static final byte[] REPORT_END = ascii("]}}");
+    // Upper bound of an offset RSSI and of a count, in digits.
+    private static final int RSSI_MAX_DIGITS = 3;
+    private static final int COUNT_MAX_DIGITS = 10;
+    private static final int REPORT_MAX_BYTES = 512;
+
+    // The identity of the phone, as quoted JSON strings.
+    private byte[] address;
+    private byte[] addressType;
+    private byte[] uuid;
+
+    @Override
+    void setIdentity(String macAddress, String addressType, String uuid) {
+        this.address = quote(macAddress.replace(":", "").toLowerCase(Locale.US));
+        this.addressType = quote(addressType);
+        this.uuid = quote(uuid.replaceAll("[\\W.]", "").toLowerCase(Locale.US));
+    }
+
+    @Override
+    boolean hasIdentity() {
+        return address != null;
+    }
+
+    @Override
+    int reportMaxBytes() {
+        return REPORT_MAX_BYTES;
+    }
+
+    @Override
+    int decodingMaxBytes(byte[] systemId) {
+        int size = 1 + DECODING_START.length + DECODING_MIN.length + DECODING_MAX.length
+                + 3 * RSSI_MAX_DIGITS + DECODING_COUNT.length + COUNT_MAX_DIGITS
+                + DECODING_IDENTIFIER.length + 2;
+        if (systemId != null && systemId.length > 0) {
+            size += DECODING_VALUE.length + 2 * systemId.length + 1;
+        }
+        return size;
+    }
+
+    @Override
+    void encode(long timeMillis, List<SightingBatch.Sighting> decodings) {
+        size = 0;
+        write(REPORT_START);
+        write(address);
+        write(ADV_HEADER);
+        write(addressType);
+        write(ADV_DATA);
+        write(uuid);
+        write(TIMESTAMP);
+        writeTimestamp(timeMillis);
+        write(DECODINGS);
+        for (int i = 0; i < decodings.size(); i++) {
+            SightingBatch.Sighting sighting = decodings.get(i);
+            if (i > 0) {
+                write((byte) ',');
+            }
+            write(DECODING_START);
+            writeInt(127 + sighting.lastRssi);
+            write(DECODING_MIN);
+            writeInt(127 + sighting.minRssi);
+            write(DECODING_MAX);
+            writeInt(127 + sighting.maxRssi);
+            write(DECODING_COUNT);
+            writeInt(sighting.count);
+            write(DECODING_IDENTIFIER);
+            byte[] systemId = sighting.systemId;
+            // As in ScanResultParser.getSystemId(), starting with the last byte.
+            if (systemId != null && systemId.length > 0) {
+                write(DECODING_VALUE);
+                for (int j = systemId.length - 1; j >= 0; j--) {
+                    write(HEX_DIGITS[(systemId[j] >> 4) & 0xF]);
+                    write(HEX_DIGITS[systemId[j] & 0xF]);
+                }
+                write((byte) '"');
+            }
+            write((byte) '}');
+            write((byte) '}');
+        }
+        write(REPORT_END);
+    }
+
+    // Write yyyy-MM-dd'T'HH:mm:ss.SSS'Z' in UTC.
+    private void writeTimestamp(long timeMillis) {
+        long days = floorDiv(timeMillis, 86400000L);
+        int millisOfDay = (int) (timeMillis - days * 86400000L);
+        // Civil date from days since the epoch, in the proleptic Gregorian calendar.
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        writeDigits((int) year, 4);
+        write((byte) '-');
+        writeDigits(month, 2);
+        write((byte) '-');
+        writeDigits(day, 2);
+        write((byte) 'T');
+        writeDigits(millisOfDay / 3600000, 2);
+        write((byte) ':');
+        writeDigits(millisOfDay / 60000 % 60, 2);
+        write((byte) ':');
+        writeDigits(millisOfDay / 1000 % 60, 2);
+        write((byte) '.');
+        writeDigits(millisOfDay % 1000, 3);
+        write((byte) 'Z');
+    }
+
+    private void writeDigits(int value, int digits) {
+        ensureCapacity(digits);
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[size + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    private void writeInt(int value) {
+        if (value < 0) {
+            write((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        writeDigits(value, digits);
+    }
+
+    private static long floorDiv(long a, long b) {
+        long quotient = a / b;
+        return (a % b != 0 && (a < 0) != (b < 0)) ? quotient - 1 : quotient;
+    }
+
+    // Returns the value as a JSON string, quotes included, in UTF-8.
+    private static byte[] quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+        try {
+            return sb.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        try {
+            return value.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.reelyactive.blesdk.advertise;
+
+import com.reelyactive.blesdk.support.ble.util.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * An on-disk queue of the uploads which could not be sent, replayed in order once the server is
+ * reachable again.
+ * <p>
+ * Uploads are appended as frames to segment files named after an increasing sequence number. A
+ * frame is the length of the upload, its CRC32 and the upload itself, so a frame torn by a crash
+ * is detected and ignored, along with the rest of its segment. A new process never appends to the
+ * segments of the previous one.
+ * <p>
+ * Segments are deleted once all their frames are sent, and the oldest segments are dropped when
+ * the queue grows over its size. The position in the oldest segment is only kept in memory: after
+ * a crash, the frames sent from that segment are sent again.
+ * <p>
+ * This class is not thread safe.
+ */
+final class UploadQueue {
+    static final int DEFAULT_MAX_SEGMENT_BYTES = 256 * 1024;
+    static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int FRAME_HEADER_BYTES = 8;
+
+    /**
+     * Sends the uploads replayed from the queue.
+     */
+    interface Sender {
+        /**
+         * Returns true if the upload is done with, sent or rejected by the server as invalid,
+         * false to stop the replay and keep the upload. An upload the server will never accept
+         * must not be kept, or it would block the uploads queued after it.
+         */
+        boolean send(byte[] data, int length);
+    }
+
+    private final File directory;
+    private final int maxSegmentBytes;
+    private final long maxBytes;
+    private final ArrayDeque<File> segments = new ArrayDeque<File>();
+    private final byte[] header = new byte[FRAME_HEADER_BYTES];
+    private final CRC32 crc = new CRC32();
+    private boolean opened;
+    private long nextSequence;
+    private long totalBytes;
+    // The position of the next frame in the oldest segment.
+    private long headOffset;
+    // The segment uploads are appended to, created by this process.
+    private File tail;
+    private FileOutputStream tailStream;
+    private long tailBytes;
+    private byte[] readBuffer = new byte[4096];
+
+    UploadQueue(File directory) {
+        this(directory, DEFAULT_MAX_SEGMENT_BYTES, DEFAULT_MAX_BYTES);
+    }
+
+    UploadQueue(File directory, int maxSegmentBytes, long maxBytes) {
+        if (maxSegmentBytes <= FRAME_HEADER_BYTES || maxBytes < maxSegmentBytes) {
+            throw new IllegalArgumentException("invalid queue size " + maxSegmentBytes + "/" + maxBytes);
+        }
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    boolean isEmpty() {
+        open();
+        return segments.isEmpty();
+    }
+
+    /**
+     * Append an upload to the queue, dropping the oldest uploads if the queue is full.
+     */
+    void append(byte[] data, int length) {
+        open();
+        long frameBytes = FRAME_HEADER_BYTES + length;
+        if (frameBytes > maxSegmentBytes) {
+            Logger.logWarning("Dropping an upload of " + length + " bytes, over the segment size");
+            return;
+        }
+        try {
+            if (tail == null || tailBytes + frameBytes > maxSegmentBytes) {
+                startSegment();
+            }
+            while (totalBytes + frameBytes > maxBytes && segments.size() > 1) {
+                dropSegment();
+            }
+            crc.reset();
+            crc.update(data, 0, length);
+            writeInt(header, 0, length);
+            writeInt(header, 4, (int) crc.getValue());
+            tailStream.write(header);
+            tailStream.write(data, 0, length);
+            tailBytes += frameBytes;
+            totalBytes += frameBytes;
+        } catch (IOException e) {
+            Logger.logError("Can't queue an upload", e);
+            closeTail();
+        }
+    }
+
+    /**
+     * Send the queued uploads in order, until the sender fails or {@code maxUploads} are sent.
+     *
+     * @return The number of uploads sent.
+     */
+    int replay(Sender sender, int maxUploads) {
+        open();
+        int sent = 0;
+        while (sent < maxUploads && !segments.isEmpty()) {
+            File head = segments.peekFirst();
+            int length;
+            try {
+                length = readFrame(head);
+            } catch (IOException e) {
+                Logger.logError("Can't read queued uploads", e);
+                length = -1;
+            }
+            if (length < 0) {
+                // End of the segment, or the rest of it is unreadable.
+                if (head != tail) {
+                    removeHead();
+                    continue;
+                }
+                if (length == -1) {
+                    // Everything is sent, the next upload starts a new segment.
+                    closeTail();
+                }
+                break;
+            }
+            if (!sender.send(readBuffer, length)) {
+                break;
+            }
+            headOffset += FRAME_HEADER_BYTES + length;
+            sent++;
+        }
+        return sent;
+    }
+
+    /**
+     * Read the frame at {@code headOffset} of {@code segment} into the read buffer.
+     *
+     * @return The length of the frame, -1 at the end of the segment or -2 if the frame is torn or
+     * corrupt.
+     */
+    private int readFrame(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            long available = file.length() - headOffset;
+            if (available == 0) {
+                return -1;
+            }
+            if (available < FRAME_HEADER_BYTES) {
+                return -2;
+            }
+            file.seek(headOffset);
+            file.readFully(header);
+            int length = readInt(header, 0);
+            if (length < 0 || length > available - FRAME_HEADER_BYTES) {
+                return -2;
+            }
+            if (readBuffer.length < length) {
+                readBuffer = new byte[Math.max(length, readBuffer.length * 2)];
+            }
+            file.readFully(readBuffer, 0, length);
+            crc.reset();
+            crc.update(readBuffer, 0, length);
+            return (int) crc.getValue() == readInt(header, 4) ? length : -2;
+        } finally {
+            file.close();
+        }
+    }
+
+    private void open() {
+        if (opened) {
+            return;
+        }
+        opened = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Logger.logError("Can't create the upload queue in " + directory);
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            long sequence = parseSequence(file.getName());
+            if (sequence < 0) {
+                continue;
+            }
+            segments.addLast(file);
+            totalBytes += file.length();
+            nextSequence = sequence + 1;
+        }
+        if (!segments.isEmpty()) {
+            Logger.logInfo("Replaying " + segments.size() + " segments of queued uploads");
+        }
+    }
+
+    private void startSegment() throws IOException {
+        closeTail();
+        File segment = new File(directory,
+                String.format(Locale.US, "%016d%s", nextSequence++, SEGMENT_SUFFIX));
+        tailStream = new FileOutputStream(segment);
+        tail = segment;
+        tailBytes = 0;
+        segments.addLast(segment);
+    }
+
+    private void closeTail() {
+        if (tailStream != null) {
+            try {
+                tailStream.close();
+            } catch (IOException e) {
+                Logger.logError("Can't close queued uploads", e);
+            }
+        }
+        if (tail != null && tail == segments.peekFirst() && headOffset >= tailBytes) {
+            // Nothing left to send in it.
+            removeHead();
+        }
+        tailStream = null;
+        tail = null;
+        tailBytes = 0;
+    }
+
+    private void dropSegment() {
+        Logger.logWarning("Upload queue full, dropping " + segments.peekFirst().getName());
+        removeHead();
+    }
+
+    private void removeHead() {
+        File head = segments.pollFirst();
+        totalBytes -= head.length();
+        headOffset = 0;
+        if (!head.delete()) {
+            Logger.logError("Can't delete queued uploads " + head);
+        }
+    }
+
+    private static long parseSequence(String name) {
+        if (!name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+}
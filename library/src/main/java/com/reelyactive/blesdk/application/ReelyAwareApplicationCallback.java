@@ -9,7 +9,9 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.ParcelUuid;
 import android.support.v4.content.ContextCompat;
 
@@ -38,8 +40,9 @@ public abstract class ReelyAwareApplicationCallback implements Application.Activ
     private final Context context;
     private final ServiceConnection serviceConnection;
     private final AtomicInteger activityCount = new AtomicInteger();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private boolean bound = false;
-    private Activity current;
+    private volatile Activity current;
     private BleService service;
 
     /**
@@ -179,40 +182,57 @@ public abstract class ReelyAwareApplicationCallback implements Application.Activ
     /**
      * This method is called when a {@link BleService.Event} is received.<br/>
      * Its default behaviour is to notify the currently running {@link ReelyAwareActivity} (if any).<br/>
-     * Override this and you can customize the behaviour of the application.
+     * Override this and you can customize the behaviour of the application.<br/>
+     * Scan events are received on a background thread; the activity is notified on the main thread.
      *
      * @param event The {@link BleService.Event} received from the {@link BleService}.
      * @return true if the event was processed, false otherwise;
      */
     @Override
-    public boolean onBleEvent(BleService.Event event, Object data) {
-        boolean processed = isReelyAware(getCurrentActivity());
+    public boolean onBleEvent(final BleService.Event event, final Object data) {
+        final Activity activity = getCurrentActivity();
+        if (!isReelyAware(activity)) {
+            return false;
+        }
         switch (event) {
             case IN_REGION:
-                if (processed) {
-                    ((ReelyAwareActivity) getCurrentActivity()).onEnterRegion((ScanResult) data);
+            case OUT_REGION:
+            case SCAN_STARTED:
+            case SCAN_STOPPED:
+                break;
+            default:
+                return false;
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            notifyActivity((ReelyAwareActivity) activity, event, data);
+        } else {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    notifyActivity((ReelyAwareActivity) activity, event, data);
                 }
+            });
+        }
+        return true;
+    }
+
+    private static void notifyActivity(ReelyAwareActivity activity, BleService.Event event, Object data) {
+        switch (event) {
+            case IN_REGION:
+                activity.onEnterRegion((ScanResult) data);
                 break;
             case OUT_REGION:
-                if (processed) {
-                    ((ReelyAwareActivity) getCurrentActivity()).onLeaveRegion((ScanResult) data);
-                }
+                activity.onLeaveRegion((ScanResult) data);
                 break;
             case SCAN_STARTED:
-                if (processed) {
-                    ((ReelyAwareActivity) getCurrentActivity()).onScanStarted();
-                }
+                activity.onScanStarted();
                 break;
             case SCAN_STOPPED:
-                if (processed) {
-                    ((ReelyAwareActivity) getCurrentActivity()).onScanStopped();
-                }
+                activity.onScanStopped();
                 break;
             default:
-                processed = false;
                 break;
         }
-        return processed;
     }
 
     /**
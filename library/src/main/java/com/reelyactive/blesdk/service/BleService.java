@@ -8,25 +8,36 @@ import android.os.Parcelable;
 
 import com.reelyactive.blesdk.support.ble.BluetoothLeScannerCompat;
 import com.reelyactive.blesdk.support.ble.BluetoothLeScannerCompatProvider;
+import com.reelyactive.blesdk.support.ble.DeviceState;
 import com.reelyactive.blesdk.support.ble.ScanFilter;
 import com.reelyactive.blesdk.support.ble.ScanResult;
 import com.reelyactive.blesdk.support.ble.ScanSettings;
+import com.reelyactive.blesdk.support.ble.util.MacAddresses;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class BleService extends Service {
     public static final String KEY_FILTER = "filter";
     public static final String KEY_EVENT_DATA = "event_data";
     final ScanCallback callback = new ScanCallback();
+    // The scan is shared by the sessions: a device first matching the filters of one session may
+    // match those of another one with a later payload, such as another Eddystone frame. Payload
+    // changes are therefore reported, and each session only reports a device in region once.
+    // Lost devices are reported with ALL_MATCHES as well.
     final ScanSettings lowPowerScan = new ScanSettings.Builder() //
-            .setCallbackType(ScanSettings.CALLBACK_TYPE_FIRST_MATCH | ScanSettings.CALLBACK_TYPE_MATCH_LOST) //
+            .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES) //
+            .setReportPayloadChanges(true) //
             .setScanMode(ScanSettings.SCAN_MODE_BALANCED) //
             .setScanResultType(ScanSettings.SCAN_RESULT_TYPE_FULL) //
             .build();
     final ScanSettings higPowerScan = new ScanSettings.Builder() //
-            .setCallbackType(ScanSettings.CALLBACK_TYPE_FIRST_MATCH | ScanSettings.CALLBACK_TYPE_MATCH_LOST) //
+            .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES) //
+            .setReportPayloadChanges(true) //
             .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY) //
             .setScanResultType(ScanSettings.SCAN_RESULT_TYPE_FULL) //
             .build();
@@ -34,11 +45,18 @@ public class BleService extends Service {
     /**
      * Keeps track of all current registered clients.
      */
-    ArrayList<BleServiceCallback> mClients = new ArrayList<BleServiceCallback>();
+    List<BleServiceCallback> mClients = new CopyOnWriteArrayList<BleServiceCallback>();
+    /**
+     * The open scan sessions, merged into a single scan.
+     */
+    private final List<ScanSession> sessions = new CopyOnWriteArrayList<ScanSession>();
     private BluetoothLeScannerCompat scanner;
-    private ScanSettings currentSettings;
-    private ScanSettings nextSettings;
-    private ScanFilter currentFilter;
+    // The merged configuration the scanner is running with, null when not scanning.
+    private List<ScanFilter> scannerFilters;
+    private ScanSettings scannerSettings;
+    // The session of startScan(), reporting to all registered clients.
+    private ScanSession defaultSession;
+    private ScanType nextScanType;
     private ScanFilter nextFilter;
 
     @Override
@@ -68,44 +86,152 @@ public class BleService extends Service {
         mClients.remove(client);
     }
 
-    public void startScan() {
-        nextSettings = nextSettings == null ? lowPowerScan : nextSettings;
-        nextFilter = nextFilter == null ? (currentFilter == null ? new ScanFilter.Builder().build() : currentFilter) : nextFilter;
-        if (currentSettings != nextSettings || nextFilter != currentFilter) {
-            stopScan();
+    /**
+     * Start scanning with the filter and scan type last set, on behalf of all the registered
+     * clients. Calling it again while scanning applies the new filter and scan type without
+     * restarting the scan.
+     */
+    public synchronized void startScan() {
+        nextScanType = nextScanType == null ? ScanType.LOW_POWER : nextScanType;
+        nextFilter = nextFilter == null ? new ScanFilter.Builder().build() : nextFilter;
+        List<ScanFilter> filters = Collections.singletonList(nextFilter);
+        if (defaultSession == null) {
             notifyEvent(Event.SCAN_STARTED);
-            scanner.startScan(Collections.singletonList(nextFilter), nextSettings, callback); // TODO make it possible to scan using more filters
+            defaultSession = openSession(filters, nextScanType, new BleServiceCallback() {
+                @Override
+                public boolean onBleEvent(Event event, Object data) {
+                    notifyEvent(event, (ScanResult) data);
+                    return true;
+                }
+            });
+        } else if (defaultSession.getScanType() != nextScanType
+                || !defaultSession.getFilters().equals(filters)) {
+            defaultSession.update(filters, nextScanType);
         }
-        currentSettings = nextSettings;
-        currentFilter = nextFilter;
     }
 
-    public void stopScan() {
-        currentFilter = null;
-        currentSettings = null;
-        scanner.stopScan(callback);
+    /**
+     * Stop the scan started by {@link #startScan()}. Open sessions keep scanning.
+     */
+    public synchronized void stopScan() {
+        if (defaultSession != null) {
+            defaultSession.close();
+            defaultSession = null;
+        }
         notifyEvent(Event.SCAN_STOPPED);
     }
 
     public void setScanType(ScanType scanType) {
-        nextSettings = ScanType.ACTIVE == scanType ? higPowerScan : lowPowerScan;
+        nextScanType = scanType;
     }
 
     public void setScanFilter(ScanFilter scanFilter) {
         nextFilter = scanFilter;
     }
 
+    /**
+     * Open a scan session for a component which needs its own filters and power profile. All open
+     * sessions share a single scan: its filters are the union of the session filters, and it
+     * runs in the most active scan type requested. Each session is only notified of the devices
+     * matching its own filters.
+     *
+     * @param filters  The filters, a device matching any of them is in region. All devices match
+     *                 an empty list.
+     * @param scanType The power profile of the session.
+     * @param callback Notified of the events of the session, on a background thread.
+     * @return The session, to be closed when the component no longer needs to scan.
+     */
+    public ScanSession openSession(List<ScanFilter> filters, ScanType scanType,
+                                   BleServiceCallback callback) {
+        ScanSession session = new ScanSession(this, filters, scanType, callback);
+        sessions.add(session);
+        updateScanner();
+        reportRecentResults(session);
+        return session;
+    }
+
+    void onSessionUpdated(ScanSession session) {
+        updateScanner();
+        session.removeUnmatched();
+        reportRecentResults(session);
+    }
+
+    void onSessionClosed(ScanSession session) {
+        sessions.remove(session);
+        updateScanner();
+    }
+
+    /**
+     * Make the scanner registration match the union of the open sessions.
+     */
+    private synchronized void updateScanner() {
+        if (sessions.isEmpty()) {
+            if (scannerSettings != null) {
+                scanner.stopScan(callback);
+                scannerFilters = null;
+                scannerSettings = null;
+            }
+            return;
+        }
+        Set<ScanFilter> union = new LinkedHashSet<ScanFilter>();
+        ScanSettings settings = lowPowerScan;
+        for (ScanSession session : sessions) {
+            union.addAll(session.getFilters());
+            if (session.getScanType() == ScanType.ACTIVE) {
+                settings = higPowerScan;
+            }
+        }
+        List<ScanFilter> filters = new ArrayList<ScanFilter>(union);
+        if (scannerSettings == null) {
+            // Scan results are processed on the shared background thread, away from the UI.
+            scanner.startScan(filters, settings, callback,
+                    BluetoothLeScannerCompat.getBackgroundExecutor());
+        } else if (scannerSettings != settings || !scannerFilters.equals(filters)) {
+            // Devices already reported which still match are not reported again, and the OS
+            // scan is not restarted unless it has to.
+            scanner.updateScan(callback, filters, settings);
+        }
+        scannerFilters = filters;
+        scannerSettings = settings;
+    }
+
+    /**
+     * Report the recently seen devices matching the session, as the scanner only reports a device
+     * again for all the sessions when its payload changes. They are recorded as reported to the
+     * scan of the service, so that the session is notified when they are lost.
+     */
+    private void reportRecentResults(ScanSession session) {
+        for (ScanResult result : scanner.getMatchingRecords(callback, session.getFilters())) {
+            session.onDeviceSeen(MacAddresses.pack(result.getDevice().getAddress()), result);
+        }
+    }
+
     public List<ScanResult> getMatchingRecentResults(List<ScanFilter> filters) {
         return scanner.getMatchingRecords(filters);
     }
 
+    /**
+     * Returns the latest results of the {@code count} recently seen devices matching
+     * {@code filters} with the strongest smoothed RSSI, nearest first.
+     */
+    public List<ScanResult> getNearestResults(int count, List<ScanFilter> filters) {
+        List<DeviceState> states = scanner.getNearest(count, filters);
+        List<ScanResult> results = new ArrayList<ScanResult>(states.size());
+        for (DeviceState state : states) {
+            results.add(state.getLastResult());
+        }
+        return results;
+    }
+
     private void notifyEvent(Event event, Parcelable... data) {
         ScanResult result = null;
         if (data != null && data.length == 1) {
             result = (ScanResult) data[0];
         }
-        for (int i = mClients.size() - 1; i >= 0; i--) {
-            mClients.get(i).onBleEvent(event, result);
+        // Scan events arrive on a background thread while clients (un)register on the main thread.
+        BleServiceCallback[] clients = mClients.toArray(new BleServiceCallback[0]);
+        for (int i = clients.length - 1; i >= 0; i--) {
+            clients[i].onBleEvent(event, result);
         }
     }
 
@@ -153,12 +279,21 @@ public class BleService extends Service {
     class ScanCallback extends com.reelyactive.blesdk.support.ble.ScanCallback {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
-            notifyEvent(callbackType != ScanSettings.CALLBACK_TYPE_MATCH_LOST ? Event.IN_REGION : Event.OUT_REGION, result);
+            long address = MacAddresses.pack(result.getDevice().getAddress());
+            for (ScanSession session : sessions) {
+                if (callbackType != ScanSettings.CALLBACK_TYPE_MATCH_LOST) {
+                    session.onDeviceSeen(address, result);
+                } else {
+                    session.onDeviceLost(address, result);
+                }
+            }
         }
 
         @Override
         public void onScanCycleCompleted() {
-            notifyEvent(Event.CYCLE_COMPLETED);
+            for (ScanSession session : sessions) {
+                session.onCycleCompleted();
+            }
         }
     }
-}
\ No newline at end of file
+}
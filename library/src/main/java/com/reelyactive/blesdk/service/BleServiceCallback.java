@@ -4,5 +4,8 @@ package com.reelyactive.blesdk.service;
  * Created by saiimons on 15-03-30.
  */
 public interface BleServiceCallback {
+    /**
+     * Called for each {@link BleService.Event}. Scan events are delivered on a background thread.
+     */
     public boolean onBleEvent(BleService.Event event, Object data);
 }
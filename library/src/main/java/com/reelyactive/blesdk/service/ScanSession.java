@@ -0,0 +1,156 @@
+package com.reelyactive.blesdk.service;
+
+import com.reelyactive.blesdk.support.ble.ScanFilter;
+import com.reelyactive.blesdk.support.ble.ScanResult;
+import com.reelyactive.blesdk.support.ble.util.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A scan opened by one component through {@link BleService#openSession(List, BleService.ScanType, BleServiceCallback)}.
+ * <p>
+ * The {@link BleService} merges the filters and scan types of all open sessions into a single
+ * scan, and routes the results back to each session: a session is notified of
+ * {@link BleService.Event#IN_REGION} when a device first matches its filters,
+ * {@link BleService.Event#OUT_REGION} when that device is lost or no longer matches, and
+ * {@link BleService.Event#CYCLE_COMPLETED} after each scan cycle.
+ * <p>
+ * Events are delivered on a background thread.
+ */
+public final class ScanSession {
+    private static final ScanFilter MATCH_ALL = new ScanFilter.Builder().build();
+
+    private final BleService service;
+    private final BleServiceCallback callback;
+    private List<ScanFilter> filters;
+    private BleService.ScanType scanType;
+    private boolean closed;
+    // The devices reported in region, by packed address.
+    private final LongObjectHashMap<ScanResult> devices = new LongObjectHashMap<ScanResult>();
+
+    ScanSession(BleService service, List<ScanFilter> filters, BleService.ScanType scanType,
+                BleServiceCallback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback is null");
+        }
+        this.service = service;
+        this.callback = callback;
+        this.filters = normalize(filters);
+        this.scanType = scanType == null ? BleService.ScanType.LOW_POWER : scanType;
+    }
+
+    /**
+     * Change the filters and scan type of the session. Devices which no longer match are reported
+     * out of region, recently seen devices which now match are reported in region.
+     *
+     * @param filters  The filters, a device matching any of them is in region. All devices match
+     *                 an empty list.
+     * @param scanType The power profile of the session.
+     */
+    public void update(List<ScanFilter> filters, BleService.ScanType scanType) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            this.filters = normalize(filters);
+            this.scanType = scanType == null ? BleService.ScanType.LOW_POWER : scanType;
+        }
+        service.onSessionUpdated(this);
+    }
+
+    /**
+     * Close the session. No event is delivered once this method returns.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            devices.clear();
+        }
+        service.onSessionClosed(this);
+    }
+
+    public synchronized List<ScanFilter> getFilters() {
+        return filters;
+    }
+
+    public synchronized BleService.ScanType getScanType() {
+        return scanType;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Report the result in region if it matches and was not reported yet.
+     */
+    void onDeviceSeen(long address, ScanResult result) {
+        synchronized (this) {
+            if (closed || !matches(result)) {
+                return;
+            }
+            if (devices.put(address, result) != null) {
+                return;
+            }
+        }
+        callback.onBleEvent(BleService.Event.IN_REGION, result);
+    }
+
+    /**
+     * Report the device out of region if it was in region.
+     */
+    void onDeviceLost(long address, ScanResult result) {
+        synchronized (this) {
+            if (closed || devices.remove(address) == null) {
+                return;
+            }
+        }
+        callback.onBleEvent(BleService.Event.OUT_REGION, result);
+    }
+
+    /**
+     * Report the devices which no longer match the filters out of region.
+     */
+    void removeUnmatched() {
+        List<ScanResult> unmatched = new ArrayList<ScanResult>();
+        synchronized (this) {
+            for (long address : devices.keys()) {
+                ScanResult result = devices.get(address);
+                if (!matches(result)) {
+                    devices.remove(address);
+                    unmatched.add(result);
+                }
+            }
+        }
+        for (ScanResult result : unmatched) {
+            callback.onBleEvent(BleService.Event.OUT_REGION, result);
+        }
+    }
+
+    void onCycleCompleted() {
+        if (!isClosed()) {
+            callback.onBleEvent(BleService.Event.CYCLE_COMPLETED, null);
+        }
+    }
+
+    private boolean matches(ScanResult result) {
+        for (ScanFilter filter : filters) {
+            if (filter.matches(result)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<ScanFilter> normalize(List<ScanFilter> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return Collections.singletonList(MATCH_ALL);
+        }
+        return Collections.unmodifiableList(new ArrayList<ScanFilter>(filters));
+    }
+}
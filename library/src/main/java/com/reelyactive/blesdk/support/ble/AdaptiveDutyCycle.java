@@ -0,0 +1,65 @@
+package com.reelyactive.blesdk.support.ble;
+
+/**
+ * Chooses the idle time of the scan cycles of {@link ScanSettings#SCAN_MODE_ADAPTIVE} scans from
+ * the rate at which devices appear and disappear.
+ * <p>
+ * The rate of new and lost devices is smoothed over the last cycles, and the cycle is sized so
+ * that about {@link #TARGET_EVENTS_PER_CYCLE} such events happen per cycle: a busy environment
+ * narrows the idle time towards the lower bound, and each quiet cycle at most doubles it, up to
+ * the upper bound.
+ * <p>
+ * This class is thread safe.
+ */
+final class AdaptiveDutyCycle {
+
+    private static final double TARGET_EVENTS_PER_CYCLE = 2;
+    // Weight of the last cycle in the smoothed rate.
+    private static final double RATE_SMOOTHING = 0.5;
+
+    private int minIdleMillis = BluetoothLeScannerCompat.LOW_LATENCY_IDLE_MILLIS;
+    private int maxIdleMillis = BluetoothLeScannerCompat.LOW_POWER_IDLE_MILLIS;
+    private int idleMillis = BluetoothLeScannerCompat.BALANCED_IDLE_MILLIS;
+    // Smoothed number of new and lost devices per millisecond.
+    private double eventsPerMilli = -1;
+
+    /**
+     * Set the range of the idle time, in milliseconds.
+     */
+    synchronized void setBounds(int minIdleMillis, int maxIdleMillis) {
+        this.minIdleMillis = minIdleMillis;
+        this.maxIdleMillis = Math.max(minIdleMillis, maxIdleMillis);
+        idleMillis = clamp(idleMillis);
+    }
+
+    /**
+     * Account for a completed scan cycle.
+     *
+     * @param cycleMillis  The duration of the cycle.
+     * @param activeMillis The duration of the active part of the next cycle.
+     * @param newDevices   The number of devices first seen during the cycle.
+     * @param lostDevices  The number of devices lost during the cycle.
+     */
+    synchronized void onCycleCompleted(long cycleMillis, int activeMillis, int newDevices,
+                                       int lostDevices) {
+        if (cycleMillis <= 0) {
+            return;
+        }
+        double rate = (double) (newDevices + lostDevices) / cycleMillis;
+        eventsPerMilli = eventsPerMilli < 0
+                ? rate : RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * eventsPerMilli;
+        double targetIdleMillis = eventsPerMilli == 0
+                ? Double.MAX_VALUE : TARGET_EVENTS_PER_CYCLE / eventsPerMilli - activeMillis;
+        // Widen progressively, so that a single quiet cycle does not jump to the upper bound.
+        targetIdleMillis = Math.min(targetIdleMillis, 2.0 * idleMillis);
+        idleMillis = clamp((int) targetIdleMillis);
+    }
+
+    synchronized int getIdleMillis() {
+        return idleMillis;
+    }
+
+    private int clamp(int millis) {
+        return Math.max(minIdleMillis, Math.min(maxIdleMillis, millis));
+    }
+}
@@ -10,6 +10,9 @@ import android.content.IntentFilter;
 import android.os.AsyncTask;
 import android.util.Log;
 
+import com.reelyactive.blesdk.support.ble.util.LongHashSet;
+import com.reelyactive.blesdk.support.ble.util.MacAddresses;
+
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -17,8 +20,6 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * This class provides relief for Android Bug 67272.  This bug in the Bluedroid stack causes crashes
@@ -61,7 +62,8 @@ public class BluetoothCrashResolver {
 
     private Context context = null;
     private UpdateNotifier updateNotifier;
-    private Set<String> distinctBluetoothAddresses = new HashSet<String>();
+    // Packed with MacAddresses, as this is updated for every sighting.
+    private final LongHashSet distinctBluetoothAddresses = new LongHashSet();
     private DiscoveryCanceller discoveryCanceller = new DiscoveryCanceller();
     /**
      * // It is very likely a crash if Bluetooth turns off and comes
@@ -170,7 +172,9 @@ public class BluetoothCrashResolver {
 
         if (isDebugEnabled()) oldSize = distinctBluetoothAddresses.size();
 
-        distinctBluetoothAddresses.add(device.getAddress());
+        synchronized (distinctBluetoothAddresses) {
+            distinctBluetoothAddresses.add(MacAddresses.pack(device.getAddress()));
+        }
         if (isDebugEnabled()) {
             newSize = distinctBluetoothAddresses.size();
             if (oldSize != newSize && newSize % 100 == 0) {
@@ -307,7 +311,9 @@ public class BluetoothCrashResolver {
 
     private void finishRecovery() {
         Log.w(TAG, "Recovery attempt finished");
-        distinctBluetoothAddresses.clear();
+        synchronized (distinctBluetoothAddresses) {
+            distinctBluetoothAddresses.clear();
+        }
         recoveryInProgress = false;
     }
 
@@ -377,8 +383,8 @@ public class BluetoothCrashResolver {
             writer.write(recoveryAttemptCount + "\n");
             writer.write(lastRecoverySucceeded ? "1\n" : "0\n");
             synchronized (distinctBluetoothAddresses) {
-                for (String mac : distinctBluetoothAddresses) {
-                    writer.write(mac);
+                for (long mac : distinctBluetoothAddresses.toArray()) {
+                    writer.write(MacAddresses.unpack(mac));
                     writer.write("\n");
                 }
             }
@@ -427,7 +433,11 @@ public class BluetoothCrashResolver {
 
             String mac;
             while ((mac = reader.readLine()) != null) {
-                distinctBluetoothAddresses.add(mac);
+                try {
+                    distinctBluetoothAddresses.add(MacAddresses.pack(mac));
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Ignoring invalid mac " + mac);
+                }
             }
 
         } catch (IOException e) {
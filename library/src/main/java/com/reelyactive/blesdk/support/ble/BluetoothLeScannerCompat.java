@@ -22,17 +22,39 @@ package com.reelyactive.blesdk.support.ble;/*
 //   Remove implementations
 //   Define setCustomScanTiming for ULR
 //   Slight updates to javadoc
+//   Drive the scan cycles from a dedicated thread
+//   Allow results to be delivered through an Executor
+//   Add an adaptive scan mode
+//   Track OS scan starts to avoid the Android 7.0 scan throttling
+//   Allow the filters and settings of a scan to be updated in place
+//   Persist the recent sightings across process restarts
+//   Bound the number of recent sightings kept in memory
+//   Expose the smoothed RSSI of the recently sighted devices
+//   Keep the recently sighted devices ordered by smoothed RSSI
+//   Query the recently sighted devices through indexes
 
 import android.app.AlarmManager;
 import android.app.PendingIntent;
+import android.content.Context;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.PowerManager;
 
 import com.reelyactive.blesdk.support.ble.util.Clock;
+import com.reelyactive.blesdk.support.ble.util.HandlerExecutor;
 import com.reelyactive.blesdk.support.ble.util.Logger;
+import com.reelyactive.blesdk.support.ble.util.MacAddresses;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents the public entry into the Bluetooth LE compatibility scanner that efficiently captures
@@ -68,10 +90,19 @@ public abstract class BluetoothLeScannerCompat {
     // Low Latency: 1.67 second period with 1.5 seconds active (90% duty cycle)
   /* @VisibleForTesting */ static final int LOW_LATENCY_IDLE_MILLIS = 167;
     /* @VisibleForTesting */ static final int LOW_LATENCY_ACTIVE_MILLIS = 1500;
+    // Idle times above which the scan timing is closest to BALANCED and LOW_POWER respectively
+    // (geometric means of the idle times of consecutive modes).
+    private static final int BALANCED_IDLE_THRESHOLD_MILLIS = 1500;
+    private static final int LOW_POWER_IDLE_THRESHOLD_MILLIS = 44800;
+    // Upper bound of the time taken to start or stop the radio.
+    private static final long RADIO_TRANSITION_TIMEOUT_MILLIS = 1000;
+    // Minimum time between two snapshots of the recent sightings while scanning.
+    private static final long SIGHTINGS_SNAPSHOT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
     // Alarm Scan variables
     private final Clock clock;
     private final AlarmManager alarmManager;
     private final PendingIntent alarmIntent;
+    private final ScanStartGovernor startGovernor;
     // Milliseconds to wait before considering a device lost. If set to a negative number
     // SCAN_LOST_CYCLES is used to determine when to inform clients about lost events.
     protected long scanLostOverrideMillis = -1;
@@ -81,23 +112,39 @@ public abstract class BluetoothLeScannerCompat {
     // Override values for scan window
     private int overrideScanActiveMillis = -1;
     private int overrideScanIdleMillis;
+    // Idle time of the SCAN_MODE_ADAPTIVE clients.
+    private final AdaptiveDutyCycle adaptiveDutyCycle = new AdaptiveDutyCycle();
+    private long lastCycleEndMillis;
+    // Scan cycle engine: the active window of each cycle is opened and closed by events on a
+    // dedicated thread, so that no thread is parked for the duration of the window.
+    private final Object scanCycleLock = new Object();
+    private Handler scanCycleHandler;
+    private PowerManager.WakeLock scanWindowWakeLock;
+    // Only accessed on the scan cycle thread.
+    private boolean scanWindowOpen;
+    // Clock time at which the active window in progress ends, or 0.
+    private volatile long scanWindowEndMillis;
+    private volatile RecentSightingsStore sightingsStore;
+    // Only accessed on the scan cycle thread.
+    private long lastSightingsSnapshotMillis;
+    private final Runnable closeScanWindowTask = new Runnable() {
+        @Override
+        public void run() {
+            closeScanWindow();
+        }
+    };
+    private final Runnable saveSightingsTask = new Runnable() {
+        @Override
+        public void run() {
+            saveSightings();
+        }
+    };
 
     protected BluetoothLeScannerCompat(Clock clock, AlarmManager alarmManager, PendingIntent alarmIntent) {
         this.clock = clock;
         this.alarmManager = alarmManager;
         this.alarmIntent = alarmIntent;
-    }
-
-    protected static boolean matchesAnyFilter(List<ScanFilter> filters, ScanResult result) {
-        if (filters == null || filters.isEmpty()) {
-            return true;
-        }
-        for (ScanFilter filter : filters) {
-            if (filter.matches(result)) {
-                return true;
-            }
-        }
-        return false;
+        this.startGovernor = new ScanStartGovernor(clock);
     }
 
     /**
@@ -138,10 +185,68 @@ public abstract class BluetoothLeScannerCompat {
      * Requires BLUETOOTH_ADMIN permission.
      * <p/>
      *
-     * @return true if the scan starts successfully, false otherwise.
+     * Results are delivered on the main thread.
+     * <p/>
+     * The scan may be started with the radio after this method returns. If it then fails to
+     * start, the failure is reported through {@link ScanCallback#onScanFailed(int)}.
+     *
+     * @return true if the scan request was accepted, false otherwise.
+     */
+    public boolean startScan(List<ScanFilter> filters, ScanSettings settings,
+                             ScanCallback callback) {
+        return startScan(filters, settings, callback, new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * Starts a scan for Bluetooth LE devices, delivering the results on the thread of
+     * {@code handler}.
+     * <p/>
+     * This is an extension of the "L" Platform API.
+     *
+     * @return true if the scan request was accepted, false otherwise.
+     * @see #startScan(List, ScanSettings, ScanCallback)
+     */
+    public boolean startScan(List<ScanFilter> filters, ScanSettings settings,
+                             ScanCallback callback, Handler handler) {
+        return startScan(filters, settings, callback, new HandlerExecutor(handler));
+    }
+
+    /**
+     * Starts a scan for Bluetooth LE devices, delivering the results through {@code executor}.
+     * Callbacks are submitted in the order of the events, so a serial executor such as
+     * {@link #getBackgroundExecutor()} delivers them in order.
+     * <p/>
+     * This is an extension of the "L" Platform API.
+     *
+     * @return true if the scan request was accepted, false otherwise.
+     * @throws IllegalArgumentException If {@code executor} is null.
+     * @see #startScan(List, ScanSettings, ScanCallback)
      */
     public abstract boolean startScan(List<ScanFilter> filters, ScanSettings settings,
-                                      ScanCallback callback);
+                                      ScanCallback callback, Executor executor);
+
+    /**
+     * Replaces the filters and settings of the scan started with {@code callback}, keeping it
+     * running. Devices the callback was notified of and which still match are not reported again,
+     * devices which no longer match are reported lost if {@code settings} asks for
+     * {@link ScanSettings#CALLBACK_TYPE_MATCH_LOST}, and recently sighted devices which now match
+     * are reported found. The radio is only reconfigured if the scan it needs changed.
+     * <p/>
+     * This is an extension of the "L" Platform API.
+     *
+     * @return true if the scan was updated, false if no scan was started with {@code callback}.
+     * @see #startScan(List, ScanSettings, ScanCallback)
+     */
+    public abstract boolean updateScan(ScanCallback callback, List<ScanFilter> filters,
+                                       ScanSettings settings);
+
+    /**
+     * Returns an executor running scan callbacks in order on a shared background thread, for
+     * consumers which do not update the UI.
+     */
+    public static Executor getBackgroundExecutor() {
+        return BackgroundExecutorHolder.EXECUTOR;
+    }
 
     /**
      * Stops an ongoing Bluetooth LE device scan.
@@ -153,6 +258,83 @@ public abstract class BluetoothLeScannerCompat {
      */
     public abstract void stopScan(ScanCallback callback);
 
+    /**
+     * Returns the state of a recently sighted device, including its smoothed RSSI.
+     * <p/>
+     * This is an extension of the "L" Platform API.
+     *
+     * @param address The address of the device, such as "00:11:22:AA:BB:CC".
+     * @return The state of the device, or null if it was not sighted recently.
+     * @throws IllegalArgumentException If {@code address} is not a valid address.
+     */
+    public DeviceState getDeviceState(String address) {
+        DeviceTable table = getDeviceTable();
+        return table == null ? null : table.getState(MacAddresses.pack(address));
+    }
+
+    /**
+     * Returns the state of the recently sighted devices matching {@code filters}, least recently
+     * seen first.
+     * <p/>
+     * This is an extension of the "L" Platform API.
+     *
+     * @see #getMatchingRecords(List)
+     */
+    public List<DeviceState> getDeviceStates(List<ScanFilter> filters) {
+        DeviceTable table = getDeviceTable();
+        if (table == null) {
+            return new ArrayList<DeviceState>();
+        }
+        return table.getStates(CompiledFilterSet.compile(filters));
+    }
+
+    /**
+     * Returns the state of the {@code count} recently sighted devices matching {@code filters}
+     * with the strongest smoothed RSSI, nearest first. The devices are kept ordered by smoothed
+     * RSSI to the dBm as they are sighted, so this neither sorts nor goes through all the
+     * devices.
+     * <p/>
+     * This is an extension of the "L" Platform API.
+     *
+     * @see DeviceState#getAverageRssi()
+     */
+    public List<DeviceState> getNearest(int count, List<ScanFilter> filters) {
+        DeviceTable table = getDeviceTable();
+        if (table == null || count <= 0) {
+            return new ArrayList<DeviceState>();
+        }
+        return table.getNearest(count, CompiledFilterSet.compile(filters));
+    }
+
+    /**
+     * Limits the recently sighted devices kept by the scanner, by number and by an estimate of the
+     * memory they use. When a new device exceeds the budget, the least recently seen devices are
+     * evicted and reported lost to the clients which were notified of them.
+     * <p/>
+     * This is an extension of the "L" Platform API.
+     *
+     * @param maxDevices The maximum number of devices.
+     * @param maxBytes   The maximum estimated memory used by the devices, in bytes.
+     * @throws IllegalArgumentException If a bound is not positive.
+     */
+    public void setDeviceBudget(int maxDevices, long maxBytes) {
+        DeviceTable table = getDeviceTable();
+        if (table != null) {
+            table.setBudget(maxDevices, maxBytes);
+        } else if (maxDevices <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("invalid budget " + maxDevices + ", " + maxBytes);
+        }
+    }
+
+    /**
+     * Returns the number of devices evicted because the budget set with
+     * {@link #setDeviceBudget(int, long)} was exceeded, since the scanner was created.
+     */
+    public long getEvictedDeviceCount() {
+        DeviceTable table = getDeviceTable();
+        return table == null ? 0 : table.getEvictedCount();
+    }
+
     /**
      * Request matching records in the scanner's list.
      *
@@ -160,15 +342,59 @@ public abstract class BluetoothLeScannerCompat {
      * @return The list of matching {@link ScanResult}
      */
     public List<ScanResult> getMatchingRecords(List<ScanFilter> filters) {
+        CompiledFilterSet compiledFilters = CompiledFilterSet.compile(filters);
+        DeviceTable table = getDeviceTable();
+        if (table != null) {
+            return table.values(compiledFilters);
+        }
         ArrayList<ScanResult> results = new ArrayList<ScanResult>();
-        for (Object res : getRecentScanResults().toArray()) {
-            if (matchesAnyFilter(filters, (ScanResult) res)) {
-                results.add((ScanResult) res);
+        for (ScanResult result : getRecentScanResults()) {
+            if (compiledFilters.matches(result)) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Request matching records in the scanner's list, on behalf of the scan started with
+     * {@code callback}: they are recorded as reported to it, so that it is called back when they
+     * are lost, as for the devices it was notified of. This lets a client which shares its scan
+     * between several consumers replay the recent devices to a new one.
+     * <p/>
+     * This is an extension of the "L" Platform API.
+     *
+     * @param callback The callback of a started scan.
+     * @param filters  Filters which will apply
+     * @return The list of matching {@link ScanResult}
+     * @see #getMatchingRecords(List)
+     */
+    public List<ScanResult> getMatchingRecords(ScanCallback callback, List<ScanFilter> filters) {
+        List<ScanResult> results = getMatchingRecords(filters);
+        DeviceTable table = getDeviceTable();
+        int slot = getClientSlot(callback);
+        if (table != null && slot >= 0) {
+            for (ScanResult result : results) {
+                table.markNotified(MacAddresses.pack(result.getDevice().getAddress()), slot);
             }
         }
         return results;
     }
 
+    /**
+     * Returns the state of the recently sighted devices selected by {@code query}. Only the
+     * selected devices are copied.
+     * <p/>
+     * This is an extension of the "L" Platform API.
+     */
+    public List<DeviceState> query(DeviceQuery query) {
+        DeviceTable table = getDeviceTable();
+        if (table == null) {
+            return new ArrayList<DeviceState>();
+        }
+        return table.query(query);
+    }
+
     /**
      * Sets the Bluetooth LE scan cycle overriding values set on individual scans from
      * {@link ScanSettings}.
@@ -247,13 +473,18 @@ public abstract class BluetoothLeScannerCompat {
      */
     protected void updateRepeatingAlarm() {
         // Apply Scan Mode (Cycle Parameters)
-        setScanMode(getMaxPriorityScanMode());
+        updateScanTiming();
         if (!hasClients()) {
             // No listeners.  Remove the repeating alarm, if there is one.
             getAlarmManager().cancel(getAlarmIntent());
             Logger.logInfo("Scan : No clients left, canceling alarm.");
         } else {
             long alarmIntervalMillis = getScanIdleMillis();
+            long windowEndMillis = scanWindowEndMillis;
+            if (windowEndMillis > 0) {
+                // Let the active window in progress run to its end.
+                alarmIntervalMillis += Math.max(0, windowEndMillis - getClock().currentTimeMillis());
+            }
             // Specifies an alarm at the scanPeriod, starting immediately.
             if (Build.VERSION.SDK_INT > 22) {
                 getAlarmManager().setExact(
@@ -277,6 +508,150 @@ public abstract class BluetoothLeScannerCompat {
         }
     }
 
+    /**
+     * Keep the device awake with a partial wake lock for the active windows, for backends whose
+     * scan stops when the CPU sleeps, and while the radio is stopped at the end of a window. The
+     * lock is acquired with a timeout, so that a window whose end is lost does not keep the
+     * device awake.
+     */
+    protected void initScanWindowWakeLock(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null) {
+            scanWindowWakeLock = powerManager.newWakeLock(
+                    PowerManager.PARTIAL_WAKE_LOCK, "BluetoothLeScannerCompat");
+            scanWindowWakeLock.setReferenceCounted(false);
+        }
+    }
+
+    /**
+     * Start a scan cycle. This is called from {@link ScanWakefulService} while a wake lock is held,
+     * and only waits for the active window to be opened on the scan cycle thread. The window is
+     * closed by an event posted to the same thread.
+     */
+    protected void onNewScanCycle() {
+        final CountDownLatch opened = new CountDownLatch(1);
+        getScanCycleHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    openScanWindow();
+                } finally {
+                    opened.countDown();
+                }
+            }
+        });
+        try {
+            if (!opened.await(RADIO_TRANSITION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                Logger.logError("Timed out while opening the scan window");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the handler of the thread running the scan cycles.
+     */
+    Handler getScanCycleHandler() {
+        synchronized (scanCycleLock) {
+            if (scanCycleHandler == null) {
+                HandlerThread thread = new HandlerThread("BleScanCycle");
+                thread.start();
+                scanCycleHandler = new Handler(thread.getLooper());
+            }
+            return scanCycleHandler;
+        }
+    }
+
+    private void openScanWindow() {
+        if (scanWindowOpen) {
+            // The end of the previous window was held back while the device was asleep.
+            closeScanWindow();
+        }
+        int activeMillis = getScanActiveMillis();
+        if (activeMillis <= 0) {
+            // Scanning is paused: the cycle still ends, without turning the radio on.
+            closeScanWindow();
+            return;
+        }
+        Logger.logDebug("Starting BLE Active Scan Cycle.");
+        scanWindowOpen = true;
+        scanWindowEndMillis = getClock().currentTimeMillis() + activeMillis;
+        // Schedule the next cycle now, so that it still happens if the device sleeps through the
+        // end of this window.
+        updateRepeatingAlarm();
+        if (scanWindowWakeLock != null) {
+            // The uptime based end of the window does not run while the CPU sleeps.
+            scanWindowWakeLock.acquire(activeMillis + RADIO_TRANSITION_TIMEOUT_MILLIS);
+        }
+        onScanWindowStart();
+        scanCycleHandler.postDelayed(closeScanWindowTask, activeMillis);
+    }
+
+    private void closeScanWindow() {
+        scanCycleHandler.removeCallbacks(closeScanWindowTask);
+        if (scanWindowWakeLock != null) {
+            scanWindowWakeLock.acquire(RADIO_TRANSITION_TIMEOUT_MILLIS);
+        }
+        try {
+            scanWindowOpen = false;
+            scanWindowEndMillis = 0;
+            onScanWindowEnd();
+            updateRepeatingAlarm();
+        } finally {
+            if (scanWindowWakeLock != null) {
+                scanWindowWakeLock.release();
+            }
+        }
+        Logger.logDebug("Stopping BLE Active Scan Cycle.");
+        if (sightingsStore != null && getClock().currentTimeMillis() - lastSightingsSnapshotMillis
+                >= SIGHTINGS_SNAPSHOT_INTERVAL_MILLIS) {
+            saveSightings();
+        }
+    }
+
+    /**
+     * Restore the recent sightings saved in {@code store} by a previous process, and keep the
+     * store up to date. Devices which would already be considered lost are not restored, nor
+     * devices over the budget of the device table.
+     * <p/>
+     * The store is read on the scan cycle thread, so the sightings may be restored after clients
+     * registered.
+     */
+    void attachSightingsStore(final RecentSightingsStore store) {
+        getScanCycleHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                DeviceTable table = getDeviceTable();
+                int maxRecords = table == null ? DeviceTable.DEFAULT_MAX_DEVICES : table.getMaxDevices();
+                List<ScanResult> restored = store.load(getLostTimestampMillis(), maxRecords);
+                if (!restored.isEmpty()) {
+                    Logger.logDebug("Restored " + restored.size() + " recent sightings");
+                    onRecentScanResultsRestored(restored);
+                }
+                // Snapshots are only taken once the previous one was read.
+                sightingsStore = store;
+            }
+        });
+    }
+
+    /**
+     * Save the recent sightings shortly, on the scan cycle thread. Backends call it when the last
+     * client stops scanning.
+     */
+    protected void requestSightingsSnapshot() {
+        if (sightingsStore != null) {
+            Handler handler = getScanCycleHandler();
+            handler.removeCallbacks(saveSightingsTask);
+            handler.post(saveSightingsTask);
+        }
+    }
+
+    private void saveSightings() {
+        lastSightingsSnapshotMillis = getClock().currentTimeMillis();
+        sightingsStore.save(getRecentScanResults());
+    }
+
     /**
      * Sets parameters for the various scan modes
      *
@@ -302,6 +677,80 @@ public abstract class BluetoothLeScannerCompat {
         }
     }
 
+    /**
+     * Set the scan cycle parameters from the settings of the clients: the highest priority fixed
+     * scan mode applies, and {@link ScanSettings#SCAN_MODE_ADAPTIVE} clients can only shorten its
+     * idle time.
+     */
+    protected void updateScanTiming() {
+        int minIdleMillis = Integer.MAX_VALUE;
+        int maxIdleMillis = Integer.MAX_VALUE;
+        boolean adaptive = false;
+        for (ScanSettings settings : getClientSettings()) {
+            if (settings.getScanMode() == ScanSettings.SCAN_MODE_ADAPTIVE) {
+                adaptive = true;
+                minIdleMillis = Math.min(minIdleMillis, settings.getAdaptiveMinIdleMillis());
+                maxIdleMillis = Math.min(maxIdleMillis, settings.getAdaptiveMaxIdleMillis());
+            }
+        }
+        int fixedScanMode = getMaxPriorityScanMode();
+        if (!adaptive) {
+            setScanMode(fixedScanMode);
+            return;
+        }
+        if (fixedScanMode != -1) {
+            setScanMode(fixedScanMode);
+            maxIdleMillis = Math.min(maxIdleMillis, scanIdleMillis);
+        }
+        adaptiveDutyCycle.setBounds(Math.min(minIdleMillis, maxIdleMillis), maxIdleMillis);
+        scanIdleMillis = adaptiveDutyCycle.getIdleMillis();
+        scanActiveMillis = BALANCED_ACTIVE_MILLIS;
+    }
+
+    /**
+     * Returns the fixed scan mode closest to the current scan cycle, for scanners which do not
+     * support {@link ScanSettings#SCAN_MODE_ADAPTIVE} directly.
+     */
+    protected int getEquivalentScanMode() {
+        updateScanTiming();
+        if (scanIdleMillis < BALANCED_IDLE_THRESHOLD_MILLIS) {
+            return ScanSettings.SCAN_MODE_LOW_LATENCY;
+        }
+        if (scanIdleMillis < LOW_POWER_IDLE_THRESHOLD_MILLIS) {
+            return ScanSettings.SCAN_MODE_BALANCED;
+        }
+        return ScanSettings.SCAN_MODE_LOW_POWER;
+    }
+
+    /**
+     * Report the devices found and lost during the scan cycle which just ended, so that adaptive
+     * scans can follow the activity around the device.
+     */
+    protected void recordCycleActivity(int newDevices, int lostDevices) {
+        long now = getClock().currentTimeMillis();
+        long cycleMillis = lastCycleEndMillis > 0 ? now - lastCycleEndMillis : getScanCycleMillis();
+        lastCycleEndMillis = now;
+        adaptiveDutyCycle.onCycleCompleted(cycleMillis, BALANCED_ACTIVE_MILLIS, newDevices, lostDevices);
+    }
+
+    /**
+     * Returns the highest priority fixed scan mode of the clients, or -1 if there is none.
+     */
+    protected int getMaxPriorityScanMode() {
+        int maxPriority = -1;
+
+        for (ScanSettings settings : getClientSettings()) {
+            if (settings.getScanMode() == ScanSettings.SCAN_MODE_ADAPTIVE) {
+                continue;
+            }
+            if (maxPriority == -1
+                    || getScanModePriority(settings.getScanMode()) > getScanModePriority(maxPriority)) {
+                maxPriority = settings.getScanMode();
+            }
+        }
+        return maxPriority;
+    }
+
     protected int getScanModePriority(int mode) {
         switch (mode) {
             case ScanSettings.SCAN_MODE_LOW_LATENCY:
@@ -326,12 +775,65 @@ public abstract class BluetoothLeScannerCompat {
         return alarmIntent;
     }
 
-    protected abstract int getMaxPriorityScanMode();
+    ScanStartGovernor getStartGovernor() {
+        return startGovernor;
+    }
+
+    /**
+     * Returns the settings of the registered clients.
+     */
+    protected abstract Collection<ScanSettings> getClientSettings();
 
     protected abstract boolean hasClients();
 
-    protected abstract void onNewScanCycle();
+    /**
+     * Called on the scan cycle thread when the active window of a cycle opens.
+     */
+    protected abstract void onScanWindowStart();
+
+    /**
+     * Called on the scan cycle thread when the active window of a cycle closes, or when a cycle
+     * ends without an active window because scanning is paused.
+     */
+    protected abstract void onScanWindowEnd();
 
     protected abstract Collection<ScanResult> getRecentScanResults();
 
+    /**
+     * Returns the table of recently sighted devices, or null if the backend does not keep one.
+     */
+    DeviceTable getDeviceTable() {
+        return null;
+    }
+
+    /**
+     * Returns the slot of the scan started with {@code callback} in the device table, or -1.
+     */
+    int getClientSlot(ScanCallback callback) {
+        return -1;
+    }
+
+    /**
+     * Called on the scan cycle thread with the sightings restored from a previous process, oldest
+     * first. Clients may already be registered, they are reported the restored devices which
+     * match their filters as they would be on registration. Backends without a device table
+     * ignore them.
+     */
+    protected void onRecentScanResultsRestored(List<ScanResult> results) {
+    }
+
+    private static final class BackgroundExecutorHolder {
+        static final Executor EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "BleScanCallbacks");
+            }
+        });
+    }
 }
@@ -81,6 +81,11 @@ public class BluetoothLeScannerCompatProvider {
                             && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
                         scannerInstance = new JbBluetoothLeScannerCompat(context, bluetoothManager, alarmManager);
                     }
+                    BluetoothAdapter adapter = bluetoothManager.getAdapter();
+                    if (scannerInstance != null && adapter != null) {
+                        // Report the devices nearby right away instead of after a full scan cycle.
+                        scannerInstance.attachSightingsStore(new RecentSightingsStore(context, adapter));
+                    }
                 }
             }
             if (scannerInstance == null) {
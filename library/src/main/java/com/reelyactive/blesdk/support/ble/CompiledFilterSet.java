@@ -0,0 +1,203 @@
+package com.reelyactive.blesdk.support.ble;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+
+import com.reelyactive.blesdk.support.ble.util.LongObjectHashMap;
+import com.reelyactive.blesdk.support.ble.util.MacAddresses;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of {@link ScanFilter} compiled once into lookup tables, so that matching a
+ * {@link ScanResult} only evaluates the filters which can possibly match it.
+ * <p>
+ * Each filter is indexed under its most selective field: device address, manufacturer id,
+ * service data UUID or service UUID. As a filter only matches when all of its fields match, a
+ * result can only match the filters indexed under a key it carries. Filters without any indexable
+ * field (device name only, masked service UUID) are evaluated for every result.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+final class CompiledFilterSet {
+
+    private static final ScanFilter[] NO_FILTERS = new ScanFilter[0];
+
+    private final List<ScanFilter> filters;
+    private final boolean matchesAll;
+    // Keyed by the packed device address.
+    private final LongObjectHashMap<ScanFilter[]> byDeviceAddress;
+    private final SparseArray<ScanFilter[]> byManufacturerId;
+    private final SparseArray<ScanFilter[]> byServiceDataId;
+    // Keyed by the most significant bits of the service UUID, as 16 and 32-bit UUIDs only differ
+    // from the base UUID in these bits.
+    private final LongObjectHashMap<ScanFilter[]> byServiceUuid;
+    private final ScanFilter[] unindexed;
+
+    private CompiledFilterSet(List<ScanFilter> filters) {
+        this.filters = filters;
+        LongObjectHashMap<List<ScanFilter>> addresses = new LongObjectHashMap<List<ScanFilter>>();
+        SparseArray<List<ScanFilter>> manufacturerIds = new SparseArray<List<ScanFilter>>();
+        SparseArray<List<ScanFilter>> serviceDataIds = new SparseArray<List<ScanFilter>>();
+        LongObjectHashMap<List<ScanFilter>> serviceUuids = new LongObjectHashMap<List<ScanFilter>>();
+        List<ScanFilter> others = new ArrayList<ScanFilter>();
+        boolean all = filters.isEmpty();
+
+        for (ScanFilter filter : filters) {
+            if (filter.getDeviceAddress() != null) {
+                // ScanFilter.Builder only accepts valid addresses.
+                add(addresses, MacAddresses.pack(filter.getDeviceAddress()), filter);
+            } else if (filter.getManufacturerId() >= 0) {
+                add(manufacturerIds, filter.getManufacturerId(), filter);
+            } else if (filter.getServiceDataUuid() != null) {
+                // Only 16-bit service data UUIDs are ever found in a ScanRecord.
+                if (BluetoothUuid.is16BitUuid(filter.getServiceDataUuid())) {
+                    add(serviceDataIds,
+                            BluetoothUuid.getServiceIdentifierFromParcelUuid(filter.getServiceDataUuid()),
+                            filter);
+                }
+            } else if (filter.getServiceUuid() != null && filter.getServiceUuidMask() == null) {
+                add(serviceUuids, filter.getServiceUuid().getUuid().getMostSignificantBits(), filter);
+            } else if (filter.getServiceUuid() != null || filter.getDeviceName() != null) {
+                others.add(filter);
+            } else {
+                // A filter without any criteria matches everything.
+                all = true;
+            }
+        }
+
+        this.matchesAll = all;
+        this.byDeviceAddress = toArrays(addresses);
+        this.byManufacturerId = toArrays(manufacturerIds);
+        this.byServiceDataId = toArrays(serviceDataIds);
+        this.byServiceUuid = toArrays(serviceUuids);
+        this.unindexed = toArray(others);
+    }
+
+    /**
+     * Compile a list of filters. A {@code null} or empty list matches every result, as does a list
+     * containing a filter without any criteria.
+     */
+    static CompiledFilterSet compile(List<ScanFilter> filters) {
+        if (filters == null) {
+            filters = Collections.emptyList();
+        }
+        return new CompiledFilterSet(Collections.unmodifiableList(new ArrayList<ScanFilter>(filters)));
+    }
+
+    /**
+     * Returns the filters this set was compiled from.
+     */
+    List<ScanFilter> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Returns true if the result matches any of the compiled filters.
+     */
+    boolean matches(ScanResult result) {
+        if (matchesAll) {
+            return true;
+        }
+        if (result == null) {
+            return false;
+        }
+        if (!byDeviceAddress.isEmpty()) {
+            BluetoothDevice device = result.getDevice();
+            if (device != null
+                    && matchesAny(byDeviceAddress.get(MacAddresses.pack(device.getAddress())), result)) {
+                return true;
+            }
+        }
+        if (matchesAny(unindexed, result)) {
+            return true;
+        }
+        ScanRecord record = result.getScanRecord();
+        if (record == null) {
+            return false;
+        }
+        int[] index = record.getIndex();
+        for (int i = 0; i < index.length; i += ScanRecord.INDEX_STRIDE) {
+            int fieldType = index[i];
+            int pos = index[i + 1];
+            if (fieldType == ScanRecord.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA) {
+                if (matchesAny(byManufacturerId.get(record.readUnsignedShort(pos)), result)) {
+                    return true;
+                }
+            } else if (fieldType == ScanRecord.DATA_TYPE_SERVICE_DATA) {
+                if (matchesAny(byServiceDataId.get(record.readUnsignedShort(pos)), result)) {
+                    return true;
+                }
+            } else if (!byServiceUuid.isEmpty()) {
+                int uuidLength = ScanRecord.getServiceUuidLength(fieldType);
+                if (uuidLength == 0) {
+                    continue;
+                }
+                for (int end = pos + index[i + 2]; pos + uuidLength <= end; pos += uuidLength) {
+                    if (matchesAny(byServiceUuid.get(record.readUuidMsb(pos, uuidLength)), result)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAny(ScanFilter[] candidates, ScanResult result) {
+        if (candidates == null) {
+            return false;
+        }
+        for (ScanFilter filter : candidates) {
+            if (filter.matches(result)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void add(SparseArray<List<ScanFilter>> index, int key, ScanFilter filter) {
+        List<ScanFilter> list = index.get(key);
+        if (list == null) {
+            list = new ArrayList<ScanFilter>();
+            index.put(key, list);
+        }
+        list.add(filter);
+    }
+
+    private static void add(LongObjectHashMap<List<ScanFilter>> index, long key, ScanFilter filter) {
+        List<ScanFilter> list = index.get(key);
+        if (list == null) {
+            list = new ArrayList<ScanFilter>();
+            index.put(key, list);
+        }
+        list.add(filter);
+    }
+
+    private static SparseArray<ScanFilter[]> toArrays(SparseArray<List<ScanFilter>> index) {
+        SparseArray<ScanFilter[]> arrays = new SparseArray<ScanFilter[]>(index.size());
+        for (int i = 0; i < index.size(); i++) {
+            arrays.append(index.keyAt(i), toArray(index.valueAt(i)));
+        }
+        return arrays;
+    }
+
+    private static LongObjectHashMap<ScanFilter[]> toArrays(LongObjectHashMap<List<ScanFilter>> index) {
+        LongObjectHashMap<ScanFilter[]> arrays = new LongObjectHashMap<ScanFilter[]>(index.size());
+        for (long key : index.keys()) {
+            arrays.put(key, toArray(index.get(key)));
+        }
+        return arrays;
+    }
+
+    private static ScanFilter[] toArray(List<ScanFilter> list) {
+        return list.isEmpty() ? NO_FILTERS : list.toArray(new ScanFilter[list.size()]);
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledFilterSet" + filters;
+    }
+}
@@ -0,0 +1,139 @@
+package com.reelyactive.blesdk.support.ble;
+
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+
+import com.reelyactive.blesdk.support.ble.util.LongHashSet;
+import com.reelyactive.blesdk.support.ble.util.LongObjectHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Secondary indexes of the {@link DeviceTable}, from the service UUIDs, manufacturer ids and
+ * system id advertised by the devices to their packed addresses.
+ * <p>
+ * Keys are only hashes of the advertised values, queries check the devices they find with
+ * {@link DeviceQuery#matches}.
+ * <p>
+ * This class is not thread safe.
+ */
+final class DeviceIndex {
+    private static final long[] NO_KEYS = new long[0];
+
+    private final LongObjectHashMap<LongHashSet> byServiceUuid = new LongObjectHashMap<LongHashSet>();
+    private final LongObjectHashMap<LongHashSet> byManufacturerId = new LongObjectHashMap<LongHashSet>();
+    private final LongObjectHashMap<LongHashSet> bySystemId = new LongObjectHashMap<LongHashSet>();
+
+    /**
+     * Returns the index keys of the payload of {@code result}. This parses the scan record.
+     */
+    static Keys keysOf(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        if (record == null) {
+            return new Keys(NO_KEYS, NO_KEYS, NO_KEYS);
+        }
+        List<ParcelUuid> uuids = record.getServiceUuids();
+        long[] serviceUuids = NO_KEYS;
+        if (uuids != null) {
+            serviceUuids = new long[uuids.size()];
+            for (int i = 0; i < serviceUuids.length; i++) {
+                serviceUuids[i] = serviceUuidKey(uuids.get(i));
+            }
+        }
+        SparseArray<byte[]> manufacturerData = record.getManufacturerSpecificData();
+        long[] manufacturerIds = NO_KEYS;
+        if (manufacturerData != null) {
+            manufacturerIds = new long[manufacturerData.size()];
+            for (int i = 0; i < manufacturerIds.length; i++) {
+                manufacturerIds[i] = manufacturerData.keyAt(i);
+            }
+        }
+        byte[] systemId = ScanResultParser.getSystemIdBytes(result);
+        long[] systemIds = systemId == null ? NO_KEYS : new long[]{systemIdKey(systemId)};
+        return new Keys(serviceUuids, manufacturerIds, systemIds);
+    }
+
+    static long serviceUuidKey(ParcelUuid uuid) {
+        return uuid.getUuid().getMostSignificantBits() ^ uuid.getUuid().getLeastSignificantBits();
+    }
+
+    static long systemIdKey(byte[] systemId) {
+        return Arrays.hashCode(systemId);
+    }
+
+    void add(long address, Keys keys) {
+        add(byServiceUuid, keys.serviceUuids, address);
+        add(byManufacturerId, keys.manufacturerIds, address);
+        add(bySystemId, keys.systemIds, address);
+    }
+
+    void remove(long address, Keys keys) {
+        remove(byServiceUuid, keys.serviceUuids, address);
+        remove(byManufacturerId, keys.manufacturerIds, address);
+        remove(bySystemId, keys.systemIds, address);
+    }
+
+    /**
+     * Returns the addresses of the devices which may match the indexed criteria of the query:
+     * the smallest of the sets indexed under its keys. An empty set means no device matches.
+     */
+    LongHashSet candidates(DeviceQuery query) {
+        LongHashSet smallest = null;
+        if (query.getServiceUuid() != null) {
+            smallest = smallest(smallest, byServiceUuid.get(serviceUuidKey(query.getServiceUuid())));
+        }
+        if (query.getManufacturerId() >= 0) {
+            smallest = smallest(smallest, byManufacturerId.get(query.getManufacturerId()));
+        }
+        if (query.getSystemId() != null) {
+            smallest = smallest(smallest, bySystemId.get(systemIdKey(query.getSystemId())));
+        }
+        return smallest;
+    }
+
+    private static LongHashSet smallest(LongHashSet current, LongHashSet candidate) {
+        if (candidate == null) {
+            return new LongHashSet();
+        }
+        return current == null || candidate.size() < current.size() ? candidate : current;
+    }
+
+    private static void add(LongObjectHashMap<LongHashSet> index, long[] keys, long address) {
+        for (long key : keys) {
+            LongHashSet addresses = index.get(key);
+            if (addresses == null) {
+                addresses = new LongHashSet();
+                index.put(key, addresses);
+            }
+            addresses.add(address);
+        }
+    }
+
+    private static void remove(LongObjectHashMap<LongHashSet> index, long[] keys, long address) {
+        for (long key : keys) {
+            LongHashSet addresses = index.get(key);
+            if (addresses != null) {
+                addresses.remove(address);
+                if (addresses.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * The index keys of the payload of a device.
+     */
+    static final class Keys {
+        final long[] serviceUuids;
+        final long[] manufacturerIds;
+        final long[] systemIds;
+
+        Keys(long[] serviceUuids, long[] manufacturerIds, long[] systemIds) {
+            this.serviceUuids = serviceUuids;
+            this.manufacturerIds = manufacturerIds;
+            this.systemIds = systemIds;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.reelyactive.blesdk.support.ble;
+
+import android.os.ParcelUuid;
+
+import java.util.Arrays;
+
+/**
+ * Criteria selecting recently sighted devices from the scanner with
+ * {@link BluetoothLeScannerCompat#query(DeviceQuery)}. A device is selected when it matches all
+ * the criteria which are set.
+ * <p>
+ * The service UUID, manufacturer id and system id criteria are answered from indexes, the last
+ * seen and RSSI ranges from the orders the scanner keeps the devices in, so a query only goes
+ * through the devices it can select.
+ * <p>
+ * This is an extension of the "L" Platform API.
+ */
+public final class DeviceQuery {
+    private final ParcelUuid serviceUuid;
+    private final int manufacturerId;
+    private final byte[] systemId;
+    private final int minRssi;
+    private final int maxRssi;
+    private final long seenSinceMillis;
+    private final long seenUntilMillis;
+    private final int limit;
+
+    private DeviceQuery(Builder builder) {
+        serviceUuid = builder.serviceUuid;
+        manufacturerId = builder.manufacturerId;
+        systemId = builder.systemId;
+        minRssi = builder.minRssi;
+        maxRssi = builder.maxRssi;
+        seenSinceMillis = builder.seenSinceMillis;
+        seenUntilMillis = builder.seenUntilMillis;
+        limit = builder.limit;
+    }
+
+    /**
+     * Returns the service UUID the devices advertise, or null.
+     */
+    public ParcelUuid getServiceUuid() {
+        return serviceUuid;
+    }
+
+    /**
+     * Returns the manufacturer id of the manufacturer data of the devices, or -1.
+     */
+    public int getManufacturerId() {
+        return manufacturerId;
+    }
+
+    /**
+     * Returns the system id of the devices, as in {@link ScanResultParser#getSystemIdBytes}, or
+     * null.
+     */
+    public byte[] getSystemId() {
+        return systemId == null ? null : systemId.clone();
+    }
+
+    public int getMinRssi() {
+        return minRssi;
+    }
+
+    public int getMaxRssi() {
+        return maxRssi;
+    }
+
+    public long getSeenSinceMillis() {
+        return seenSinceMillis;
+    }
+
+    public long getSeenUntilMillis() {
+        return seenUntilMillis;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    boolean hasIndexedCriteria() {
+        return serviceUuid != null || manufacturerId >= 0 || systemId != null;
+    }
+
+    boolean hasRssiRange() {
+        return minRssi != Integer.MIN_VALUE || maxRssi != Integer.MAX_VALUE;
+    }
+
+    boolean hasLastSeenRange() {
+        return seenSinceMillis != Long.MIN_VALUE || seenUntilMillis != Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns true if the device matches all the criteria.
+     */
+    boolean matches(ScanResult result, long lastSeenMillis, double averageRssi) {
+        if (lastSeenMillis < seenSinceMillis || lastSeenMillis > seenUntilMillis
+                || averageRssi < minRssi || averageRssi > maxRssi) {
+            return false;
+        }
+        if (!hasIndexedCriteria()) {
+            return true;
+        }
+        ScanRecord record = result.getScanRecord();
+        if (record == null) {
+            return false;
+        }
+        if (serviceUuid != null
+                && (record.getServiceUuids() == null || !record.getServiceUuids().contains(serviceUuid))) {
+            return false;
+        }
+        if (manufacturerId >= 0 && record.getManufacturerSpecificData(manufacturerId) == null) {
+            return false;
+        }
+        return systemId == null || Arrays.equals(systemId, ScanResultParser.getSystemIdBytes(result));
+    }
+
+    /**
+     * Builder for {@link DeviceQuery}.
+     */
+    public static final class Builder {
+        private ParcelUuid serviceUuid;
+        private int manufacturerId = -1;
+        private byte[] systemId;
+        private int minRssi = Integer.MIN_VALUE;
+        private int maxRssi = Integer.MAX_VALUE;
+        private long seenSinceMillis = Long.MIN_VALUE;
+        private long seenUntilMillis = Long.MAX_VALUE;
+        private int limit = Integer.MAX_VALUE;
+
+        /**
+         * Select the devices advertising {@code serviceUuid}.
+         */
+        public Builder setServiceUuid(ParcelUuid serviceUuid) {
+            this.serviceUuid = serviceUuid;
+            return this;
+        }
+
+        /**
+         * Select the devices advertising manufacturer data of {@code manufacturerId}.
+         *
+         * @throws IllegalArgumentException If the {@code manufacturerId} is invalid.
+         */
+        public Builder setManufacturerId(int manufacturerId) {
+            if (manufacturerId < 0) {
+                throw new IllegalArgumentException("invalid manufacturer id " + manufacturerId);
+            }
+            this.manufacturerId = manufacturerId;
+            return this;
+        }
+
+        /**
+         * Select the devices with a system id, in the form returned by
+         * {@link ScanResultParser#getSystemId(ScanResult)}.
+         *
+         * @throws IllegalArgumentException If {@code systemId} is not an even number of hex digits.
+         */
+        public Builder setSystemId(String systemId) {
+            if (systemId == null) {
+                this.systemId = null;
+                return this;
+            }
+            int length = systemId.length() / 2;
+            if (length == 0 || systemId.length() % 2 != 0) {
+                throw new IllegalArgumentException("invalid system id " + systemId);
+            }
+            // The system id is printed starting with the last byte.
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                int high = Character.digit(systemId.charAt(2 * i), 16);
+                int low = Character.digit(systemId.charAt(2 * i + 1), 16);
+                if (high < 0 || low < 0) {
+                    throw new IllegalArgumentException("invalid system id " + systemId);
+                }
+                bytes[length - 1 - i] = (byte) ((high << 4) | low);
+            }
+            this.systemId = bytes;
+            return this;
+        }
+
+        /**
+         * Select the devices with a smoothed RSSI in the range, in dBm, bounds included.
+         *
+         * @see DeviceState#getAverageRssi()
+         */
+        public Builder setRssiRange(int minRssi, int maxRssi) {
+            if (minRssi > maxRssi) {
+                throw new IllegalArgumentException("invalid rssi range " + minRssi + "-" + maxRssi);
+            }
+            this.minRssi = minRssi;
+            this.maxRssi = maxRssi;
+            return this;
+        }
+
+        /**
+         * Select the devices last seen in the range, in milliseconds since the epoch, bounds
+         * included.
+         */
+        public Builder setLastSeenRange(long sinceMillis, long untilMillis) {
+            if (sinceMillis > untilMillis) {
+                throw new IllegalArgumentException("invalid last seen range " + sinceMillis + "-"
+                        + untilMillis);
+            }
+            this.seenSinceMillis = sinceMillis;
+            this.seenUntilMillis = untilMillis;
+            return this;
+        }
+
+        /**
+         * Select at most {@code limit} devices.
+         */
+        public Builder setLimit(int limit) {
+            if (limit <= 0) {
+                throw new IllegalArgumentException("limit must be > 0");
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public DeviceQuery build() {
+            return new DeviceQuery(this);
+        }
+    }
+}
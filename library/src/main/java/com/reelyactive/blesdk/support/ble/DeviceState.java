@@ -0,0 +1,81 @@
+package com.reelyactive.blesdk.support.ble;
+
+/**
+ * The state of a recently sighted device, as tracked by the scanner across its sightings: its
+ * latest {@link ScanResult} and its smoothed signal strength.
+ * <p>
+ * Instances are snapshots, taken by {@link BluetoothLeScannerCompat#getDeviceState(String)} and
+ * {@link BluetoothLeScannerCompat#getDeviceStates(java.util.List)}.
+ * <p>
+ * This is an extension of the "L" Platform API.
+ */
+public final class DeviceState {
+    private final ScanResult lastResult;
+    private final long firstSeenMillis;
+    private final int sampleCount;
+    private final double averageRssi;
+    private final double rssiVariance;
+    private final double filteredRssi;
+
+    DeviceState(ScanResult lastResult, long firstSeenMillis, RssiEstimator rssi) {
+        this.lastResult = lastResult;
+        this.firstSeenMillis = firstSeenMillis;
+        this.sampleCount = rssi.getSampleCount();
+        this.averageRssi = rssi.getAverage();
+        this.rssiVariance = rssi.getVariance();
+        this.filteredRssi = rssi.getKalmanEstimate();
+    }
+
+    /**
+     * Returns the latest sighting of the device.
+     */
+    public ScanResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Returns the time the device was first sighted since it was last lost, in milliseconds since
+     * the epoch.
+     */
+    public long getFirstSeenMillis() {
+        return firstSeenMillis;
+    }
+
+    /**
+     * Returns the number of sightings accounted for in the RSSI estimates.
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Returns the exponential moving average of the RSSI, in dBm. It follows changes of distance
+     * within a few sightings.
+     */
+    public double getAverageRssi() {
+        return averageRssi;
+    }
+
+    /**
+     * Returns the exponentially weighted variance of the RSSI around {@link #getAverageRssi()},
+     * in dBm^2.
+     */
+    public double getRssiVariance() {
+        return rssiVariance;
+    }
+
+    /**
+     * Returns the RSSI estimated by a Kalman filter, in dBm. It is steadier than
+     * {@link #getAverageRssi()} for a device at rest, and slower to follow a device moving.
+     */
+    public double getFilteredRssi() {
+        return filteredRssi;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceState{lastResult=" + lastResult + ", firstSeenMillis=" + firstSeenMillis
+                + ", sampleCount=" + sampleCount + ", averageRssi=" + averageRssi
+                + ", rssiVariance=" + rssiVariance + ", filteredRssi=" + filteredRssi + '}';
+    }
+}
@@ -0,0 +1,555 @@
+package com.reelyactive.blesdk.support.ble;
+
+import com.reelyactive.blesdk.support.ble.util.LongHashSet;
+import com.reelyactive.blesdk.support.ble.util.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The most recent {@link ScanResult} of each sighted device, keyed by device address packed with
+ * {@link com.reelyactive.blesdk.support.ble.util.MacAddresses#pack(String)}, so that a sighting is
+ * recorded without hashing strings.
+ * <p>
+ * Scan clients register with the table to get a slot. Each entry keeps a bitmask of the slots of
+ * the clients which were notified of the device, so that a single table holds the "found" state of
+ * every client, and a lost device is reported to its clients in one pass.
+ * <p>
+ * Entries are also chained in order of last sighting, oldest first. Refreshing a device moves it
+ * to the newest end of the chain, which is O(1) as sightings mostly arrive in order, and finding
+ * the devices not seen since a given time only touches the devices which actually expire.
+ * <p>
+ * A second chain orders the entries by smoothed RSSI rounded down to the dBm, strongest first.
+ * The chain keeps a link to the weakest entry of each dBm value, so an entry is moved in O(1) when
+ * its estimate crosses a dBm boundary, and the nearest devices are found without sorting.
+ * <p>
+ * The first query by service UUID, manufacturer id or system id builds a {@link DeviceIndex} of
+ * the table, then maintained on the sightings which change the payload of a device. Tables which
+ * are never queried this way do not parse the payloads to index them.
+ * <p>
+ * The table is bounded by a number of devices and an estimate of the memory they use. When a new
+ * device exceeds the budget, the least recently seen devices are evicted, and kept aside until
+ * {@link #takeEvicted()} so that they are reported lost.
+ * <p>
+ * This class is thread safe.
+ */
+final class DeviceTable {
+
+    /**
+     * The maximum number of clients registered at the same time.
+     */
+    static final int MAX_CLIENTS = Long.SIZE;
+    static final int DEFAULT_MAX_DEVICES = 2048;
+    static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+    // Estimated heap size of an entry besides the raw scan record: the entry and its map slot, the
+    // result, the device and the scan record object.
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+    // Range of the smoothed RSSIs ranked, in dBm.
+    private static final int MIN_RANK_DBM = -128;
+    private static final int MAX_RANK_DBM = 127;
+
+    private final LongObjectHashMap<Entry> entries = new LongObjectHashMap<Entry>();
+    // Chain of entries by last sighting time.
+    private Entry oldest;
+    private Entry newest;
+    // Chain of entries by smoothed RSSI.
+    private Entry strongest;
+    private Entry weakest;
+    // The weakest entry of each dBm value in the chain by smoothed RSSI, by dBm - MIN_RANK_DBM.
+    private final Entry[] weakestOfRank = new Entry[MAX_RANK_DBM - MIN_RANK_DBM + 1];
+    // Built by the first query which needs it.
+    private DeviceIndex index;
+    // Bitmask of the registered client slots.
+    private long clientSlots;
+    private int lastClientSlot = MAX_CLIENTS - 1;
+    // Devices added since the last call to takeNewDeviceCount().
+    private int newDeviceCount;
+    private int maxDevices = DEFAULT_MAX_DEVICES;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long usedBytes;
+    // Devices evicted since the last call to takeEvicted().
+    private List<Entry> evicted = Collections.emptyList();
+    private long evictedCount;
+
+    /**
+     * Register a client.
+     *
+     * @return The client slot, or -1 if {@link #MAX_CLIENTS} clients are already registered.
+     */
+    synchronized int registerClient() {
+        // Slots are handed out in rotation so that a slot released by a client is not reused by the
+        // next one while results for the former may still be in flight.
+        for (int i = 1; i <= MAX_CLIENTS; i++) {
+            int slot = (lastClientSlot + i) % MAX_CLIENTS;
+            if ((clientSlots & (1L << slot)) == 0) {
+                clientSlots |= 1L << slot;
+                lastClientSlot = slot;
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Release the slot of a client, forgetting which devices it was notified of.
+     */
+    synchronized void unregisterClient(int slot) {
+        long mask = 1L << slot;
+        if ((clientSlots & mask) == 0) {
+            return;
+        }
+        clientSlots &= ~mask;
+        for (Entry entry = oldest; entry != null; entry = entry.newer) {
+            entry.notifiedClients &= ~mask;
+        }
+    }
+
+    /**
+     * Record that the client in {@code slot} was notified of the device. The device must be in the
+     * table.
+     *
+     * @return true if the client had not been notified of the device yet.
+     */
+    synchronized boolean markNotified(long address, int slot) {
+        long mask = 1L << slot;
+        Entry entry = entries.get(address);
+        if (entry == null || (clientSlots & mask) == 0) {
+            // Either already lost or the client is gone: nothing to remember.
+            return true;
+        }
+        if ((entry.notifiedClients & mask) != 0) {
+            return false;
+        }
+        entry.notifiedClients |= mask;
+        return true;
+    }
+
+    /**
+     * Forget that the client in {@code slot} was notified of the devices whose most recent result
+     * does not match {@code filters}, as when the filters of the client change.
+     *
+     * @return The most recent results of these devices, oldest first.
+     */
+    synchronized List<ScanResult> forgetUnmatched(int slot, CompiledFilterSet filters) {
+        long mask = 1L << slot;
+        List<ScanResult> forgotten = new ArrayList<ScanResult>();
+        for (Entry entry = oldest; entry != null; entry = entry.newer) {
+            if ((entry.notifiedClients & mask) != 0 && !filters.matches(entry.result)) {
+                entry.notifiedClients &= ~mask;
+                forgotten.add(entry.result);
+            }
+        }
+        return forgotten;
+    }
+
+    /**
+     * Returns the most recent result of the device, or null if it is not in the table.
+     */
+    synchronized ScanResult get(long address) {
+        Entry entry = entries.get(address);
+        return entry == null ? null : entry.result;
+    }
+
+    /**
+     * Store the result as the most recent sighting of the device, unless a more recent one is
+     * already known: batched results can be older than results reported in the meantime.
+     *
+     * @return true if the result was stored.
+     */
+    synchronized boolean put(long address, ScanResult result) {
+        long lastSeenMillis = TimeUnit.NANOSECONDS.toMillis(result.getTimestampNanos());
+        Entry entry = entries.get(address);
+        boolean added = entry == null;
+        if (added) {
+            entry = new Entry(address, lastSeenMillis);
+            entries.put(address, entry);
+            newDeviceCount++;
+        } else if (entry.lastSeenMillis > lastSeenMillis) {
+            return false;
+        } else {
+            unlink(entry);
+            usedBytes -= entry.sizeBytes;
+        }
+        ScanResult previous = entry.result;
+        entry.result = result;
+        entry.lastSeenMillis = lastSeenMillis;
+        if (index != null && (previous == null || !samePayload(previous, result))) {
+            reindex(entry);
+        }
+        entry.rssi.update(result.getRssi());
+        rank(entry, added);
+        entry.sizeBytes = estimateSizeBytes(result);
+        usedBytes += entry.sizeBytes;
+        link(entry);
+        evictOverBudget(entry);
+        return true;
+    }
+
+    /**
+     * Returns the maximum number of devices in the table.
+     */
+    synchronized int getMaxDevices() {
+        return maxDevices;
+    }
+
+    /**
+     * Set the maximum number of devices in the table, and the maximum estimated memory they use.
+     * Devices over the new budget are evicted.
+     *
+     * @throws IllegalArgumentException If a bound is not positive.
+     */
+    synchronized void setBudget(int maxDevices, long maxBytes) {
+        if (maxDevices <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("invalid budget " + maxDevices + ", " + maxBytes);
+        }
+        this.maxDevices = maxDevices;
+        this.maxBytes = maxBytes;
+        evictOverBudget(null);
+    }
+
+    /**
+     * Returns the devices evicted since the last call, oldest first. Like the entries returned by
+     * {@link #removeSeenBefore(long)}, they are no longer in the table.
+     */
+    synchronized List<Entry> takeEvicted() {
+        List<Entry> taken = evicted;
+        evicted = Collections.emptyList();
+        return taken;
+    }
+
+    /**
+     * Returns the number of devices evicted since the table was created.
+     */
+    synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    // Evict the least recently seen devices until the table fits its budget, sparing the entry
+    // just stored even when a batched result made it the least recently seen.
+    private void evictOverBudget(Entry spared) {
+        while (entries.size() > maxDevices || usedBytes > maxBytes) {
+            Entry entry = oldest == spared ? spared.newer : oldest;
+            if (entry == null) {
+                break;
+            }
+            remove(entry);
+            if (evicted.isEmpty()) {
+                evicted = new ArrayList<Entry>();
+            }
+            evicted.add(entry);
+            evictedCount++;
+        }
+    }
+
+    private void remove(Entry entry) {
+        unlink(entry);
+        unlinkRank(entry);
+        if (index != null && entry.indexKeys != null) {
+            index.remove(entry.address, entry.indexKeys);
+        }
+        entries.remove(entry.address);
+        usedBytes -= entry.sizeBytes;
+    }
+
+    private void reindex(Entry entry) {
+        if (entry.indexKeys != null) {
+            index.remove(entry.address, entry.indexKeys);
+        }
+        entry.indexKeys = DeviceIndex.keysOf(entry.result);
+        index.add(entry.address, entry.indexKeys);
+    }
+
+    private static boolean matches(DeviceQuery query, Entry entry) {
+        return query.matches(entry.result, entry.lastSeenMillis, entry.rssi.getAverage());
+    }
+
+    private static DeviceState snapshot(Entry entry) {
+        return new DeviceState(entry.result, entry.firstSeenMillis, entry.rssi);
+    }
+
+    private static boolean samePayload(ScanResult a, ScanResult b) {
+        ScanRecord recordA = a.getScanRecord();
+        ScanRecord recordB = b.getScanRecord();
+        if (recordA == null || recordB == null) {
+            return recordA == recordB;
+        }
+        return Arrays.equals(recordA.getBytes(), recordB.getBytes());
+    }
+
+    private static int estimateSizeBytes(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        byte[] bytes = record == null ? null : record.getBytes();
+        return ENTRY_OVERHEAD_BYTES + (bytes == null ? 0 : bytes.length);
+    }
+
+    /**
+     * Remove the devices last seen before {@code timestampMillis}.
+     *
+     * @return The removed entries, oldest first.
+     */
+    synchronized List<Entry> removeSeenBefore(long timestampMillis) {
+        List<Entry> removed = new ArrayList<Entry>();
+        while (oldest != null && oldest.lastSeenMillis < timestampMillis) {
+            Entry entry = oldest;
+            remove(entry);
+            removed.add(entry);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns a snapshot of the state of the device, or null if it is not in the table.
+     */
+    synchronized DeviceState getState(long address) {
+        Entry entry = entries.get(address);
+        return entry == null ? null : snapshot(entry);
+    }
+
+    /**
+     * Returns a snapshot of the state of the devices matching {@code filters}, oldest first.
+     */
+    synchronized List<DeviceState> getStates(CompiledFilterSet filters) {
+        List<DeviceState> states = new ArrayList<DeviceState>();
+        for (Entry entry = oldest; entry != null; entry = entry.newer) {
+            if (filters.matches(entry.result)) {
+                states.add(snapshot(entry));
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Returns a snapshot of the state of the {@code count} devices with the strongest smoothed
+     * RSSI among those matching {@code filters}, strongest first. RSSIs are compared to the dBm.
+     */
+    synchronized List<DeviceState> getNearest(int count, CompiledFilterSet filters) {
+        List<DeviceState> nearest = new ArrayList<DeviceState>(Math.min(count, entries.size()));
+        for (Entry entry = strongest; entry != null && nearest.size() < count; entry = entry.weaker) {
+            if (filters.matches(entry.result)) {
+                nearest.add(snapshot(entry));
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns a snapshot of the state of the devices selected by {@code query}. Devices are
+     * ordered by smoothed RSSI to the dBm, strongest first, for a query with an RSSI range and without
+     * indexed criteria; by last sighting, newest first, for a query with a last seen range; and in
+     * no particular order otherwise.
+     */
+    synchronized List<DeviceState> query(DeviceQuery query) {
+        List<DeviceState> states = new ArrayList<DeviceState>();
+        int limit = query.getLimit();
+        if (query.hasIndexedCriteria()) {
+            if (index == null) {
+                index = new DeviceIndex();
+                for (Entry entry = oldest; entry != null; entry = entry.newer) {
+                    reindex(entry);
+                }
+            }
+            LongHashSet candidates = index.candidates(query);
+            for (long address : candidates.toArray()) {
+                if (states.size() >= limit) {
+                    break;
+                }
+                Entry entry = entries.get(address);
+                if (entry != null && matches(query, entry)) {
+                    states.add(snapshot(entry));
+                }
+            }
+        } else if (query.hasLastSeenRange() || !query.hasRssiRange()) {
+            for (Entry entry = newest; entry != null && states.size() < limit
+                    && entry.lastSeenMillis >= query.getSeenSinceMillis(); entry = entry.older) {
+                if (matches(query, entry)) {
+                    states.add(snapshot(entry));
+                }
+            }
+        } else {
+            // The rank of an entry is at least the minimum RSSI iff its smoothed RSSI is.
+            for (Entry entry = strongest; entry != null && states.size() < limit
+                    && entry.rank >= query.getMinRssi(); entry = entry.weaker) {
+                if (matches(query, entry)) {
+                    states.add(snapshot(entry));
+                }
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Returns the most recent results matching {@code filters}, oldest first.
+     */
+    synchronized List<ScanResult> values(CompiledFilterSet filters) {
+        List<ScanResult> values = new ArrayList<ScanResult>();
+        for (Entry entry = oldest; entry != null; entry = entry.newer) {
+            if (filters.matches(entry.result)) {
+                values.add(entry.result);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns a snapshot of the most recent results, oldest first.
+     */
+    synchronized List<ScanResult> values() {
+        List<ScanResult> values = new ArrayList<ScanResult>(entries.size());
+        for (Entry entry = oldest; entry != null; entry = entry.newer) {
+            values.add(entry.result);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the number of devices added to the table since the last call.
+     */
+    synchronized int takeNewDeviceCount() {
+        int count = newDeviceCount;
+        newDeviceCount = 0;
+        return count;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    // Insert the entry in the chain, starting from the newest end.
+    private void link(Entry entry) {
+        Entry older = newest;
+        while (older != null && older.lastSeenMillis > entry.lastSeenMillis) {
+            older = older.older;
+        }
+        Entry newer = older == null ? oldest : older.newer;
+        entry.older = older;
+        entry.newer = newer;
+        if (older == null) {
+            oldest = entry;
+        } else {
+            older.newer = entry;
+        }
+        if (newer == null) {
+            newest = entry;
+        } else {
+            newer.older = entry;
+        }
+    }
+
+    // Move the entry to its place in the chain by smoothed RSSI: after the weakest entry of the
+    // same dBm value, or of the nearest stronger one.
+    private void rank(Entry entry, boolean added) {
+        int rank = rankOf(entry.rssi.getAverage());
+        if (!added) {
+            if (rank == entry.rank) {
+                return;
+            }
+            unlinkRank(entry);
+        }
+        entry.rank = rank;
+        Entry stronger = null;
+        for (int i = rank - MIN_RANK_DBM; stronger == null && i < weakestOfRank.length; i++) {
+            stronger = weakestOfRank[i];
+        }
+        Entry weaker = stronger == null ? strongest : stronger.weaker;
+        entry.stronger = stronger;
+        entry.weaker = weaker;
+        if (stronger == null) {
+            strongest = entry;
+        } else {
+            stronger.weaker = entry;
+        }
+        if (weaker == null) {
+            weakest = entry;
+        } else {
+            weaker.stronger = entry;
+        }
+        weakestOfRank[rank - MIN_RANK_DBM] = entry;
+    }
+
+    private void unlinkRank(Entry entry) {
+        int i = entry.rank - MIN_RANK_DBM;
+        if (weakestOfRank[i] == entry) {
+            Entry stronger = entry.stronger;
+            weakestOfRank[i] = stronger != null && stronger.rank == entry.rank ? stronger : null;
+        }
+        if (entry.stronger == null) {
+            strongest = entry.weaker;
+        } else {
+            entry.stronger.weaker = entry.weaker;
+        }
+        if (entry.weaker == null) {
+            weakest = entry.stronger;
+        } else {
+            entry.weaker.stronger = entry.stronger;
+        }
+        entry.stronger = null;
+        entry.weaker = null;
+    }
+
+    // Returns the smoothed RSSI rounded down to the dBm, within the ranked range.
+    private static int rankOf(double rssi) {
+        return (int) Math.max(MIN_RANK_DBM, Math.min(MAX_RANK_DBM, Math.floor(rssi)));
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.older == null) {
+            oldest = entry.newer;
+        } else {
+            entry.older.newer = entry.newer;
+        }
+        if (entry.newer == null) {
+            newest = entry.older;
+        } else {
+            entry.newer.older = entry.older;
+        }
+        entry.older = null;
+        entry.newer = null;
+    }
+
+    /**
+     * The state of a device. Entries returned by {@link #removeSeenBefore(long)} and
+     * {@link #takeEvicted()} are no longer updated and can be read without locking.
+     */
+    static final class Entry {
+        private final long address;
+        private final long firstSeenMillis;
+        // Updated in place on every sighting.
+        private final RssiEstimator rssi = new RssiEstimator();
+        private ScanResult result;
+        private long lastSeenMillis;
+        private int sizeBytes;
+        // Bitmask of the slots of the clients notified of the device.
+        private long notifiedClients;
+        private Entry older;
+        private Entry newer;
+        private Entry stronger;
+        private Entry weaker;
+        // The smoothed RSSI rounded down to the dBm, as ranked in the chain.
+        private int rank;
+        // The keys of the entry in the index, null until indexed.
+        private DeviceIndex.Keys indexKeys;
+
+        private Entry(long address, long firstSeenMillis) {
+            this.address = address;
+            this.firstSeenMillis = firstSeenMillis;
+        }
+
+        long getAddress() {
+            return address;
+        }
+
+        ScanResult getResult() {
+            return result;
+        }
+
+        /**
+         * Returns true if the client in {@code slot} was notified of the device.
+         */
+        boolean wasNotified(int slot) {
+            return (notifiedClients & (1L << slot)) != 0;
+        }
+    }
+}
@@ -23,21 +23,18 @@ import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
 
 import com.reelyactive.blesdk.support.ble.util.Clock;
 import com.reelyactive.blesdk.support.ble.util.Logger;
+import com.reelyactive.blesdk.support.ble.util.MacAddresses;
 import com.reelyactive.blesdk.support.ble.util.SystemClock;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -54,21 +51,31 @@ import java.util.concurrent.TimeUnit;
  * <ul>
  * <li> main thread (user) can call any of the BluetoothLeScanner APIs
  * <li> IntentService worker thread can call {@link #onNewScanCycle()}
+ * <li> scan cycle thread starts and stops the LE scan
  * <li> AIDL binder thread can call {@link #leScanCallback.onLeScan()}
  * </ul>
+ * Client callbacks are invoked through the executor each client registered with.
  *
  * @see <a href="http://go/ble-glossary">BLE Glossary</a>
  */
 @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
 class JbBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
 
-    // Map of BD_ADDR->com.reelyactive.blesdk.support.ble.ScanResult for replay to new registrations.
+    // Table of BD_ADDR->com.reelyactive.blesdk.support.ble.ScanResult for replay to new registrations.
     // Entries are evicted after SCAN_LOST_CYCLES cycles.
-  /* @VisibleForTesting */ final Map<String, ScanResult> recentScanResults = new ConcurrentHashMap<>();
+  /* @VisibleForTesting */ final DeviceTable recentScanResults = new DeviceTable();
     /* @VisibleForTesting */ final Map<ScanCallback, ScanClient> serialClients = new ConcurrentHashMap<>();
     private final BluetoothAdapter bluetoothAdapter;
     private BluetoothCrashResolver crashResolver;
-    private Handler mainHandler;
+    // Whether the LE scan was started for the current window. Only accessed on the scan cycle
+    // thread.
+    private boolean leScanStarted;
+    private final Runnable stopIdleLeScanTask = new Runnable() {
+        @Override
+        public void run() {
+            stopIdleLeScan();
+        }
+    };
     /**
      * The Bluetooth LE callback which will be registered with the OS,
      * to be fired on device discovery.
@@ -87,9 +94,9 @@ class JbBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
                 @Override
                 public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecordBytes) {
                     long currentTimeInNanos = TimeUnit.MILLISECONDS.toNanos(getClock().currentTimeMillis());
-                    ScanResult result = new ScanResult(device, ScanRecord.parseFromBytes(scanRecordBytes), rssi,
+                    ScanResult result = new ScanResult(device, ScanRecord.wrap(scanRecordBytes), rssi,
                             currentTimeInNanos);
-                    onScanResult(device.getAddress(), result);
+                    callbackLeScanClients(MacAddresses.pack(device.getAddress()), result);
                     if (crashResolver != null)
                         crashResolver.notifyScannedDevice(device, this);
                 }
@@ -105,7 +112,7 @@ class JbBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
                         new Intent(context, ScanWakefulBroadcastReceiver.class).putExtra(ScanWakefulService.EXTRA_USE_LOLLIPOP_API, false), 0 /* flags */));
         this.crashResolver = new BluetoothCrashResolver(context);
         this.crashResolver.start();
-        this.mainHandler = new Handler(Looper.getMainLooper());
+        initScanWindowWakeLock(context);
     }
 
     /**
@@ -121,75 +128,103 @@ class JbBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
     }
 
     /**
-     * The entry point blockingScanCycle executes a BLE Scan cycle and is called from the
-     * com.reelyactive.blesdk.support.ble.ScanWakefulService. When this method ends, the service will signal the ScanWakefulBroadcast
-     * receiver to release its wakelock and the phone will enter a sleep phase for the remainder of
-     * the BLE scan cycle.
-     * <p>
-     * This is called on the IntentService handler thread and hence is synchronized.
+     * Start the LE scan for the active window of a scan cycle.
      * <p>
-     * Suppresses the experimental 'wait not in loop' warning because we don't mind exiting early.
      * Suppresses deprecation because this is the compatibility support.
      */
-    @SuppressWarnings({"WaitNotInLoop", "deprecation"})
+    @SuppressWarnings("deprecation")
     @Override
-    protected synchronized void onNewScanCycle() {
-        Logger.logDebug("Starting BLE Active Scan Cycle.");
-        int activeMillis = getScanActiveMillis();
-        if (activeMillis > 0) {
-            try {
-                if (bluetoothAdapter != null) {
-                    bluetoothAdapter.startLeScan(leScanCallback);
+    protected void onScanWindowStart() {
+        if (leScanStarted) {
+            // Still running from the previous window, see onScanWindowEnd().
+            return;
+        }
+        try {
+            if (bluetoothAdapter != null) {
+                leScanStarted = bluetoothAdapter.startLeScan(leScanCallback);
+                if (leScanStarted) {
+                    getStartGovernor().onScanStarted();
                 }
-            } catch (IllegalStateException e) {
-                Logger.logError("Failed to start the scan", e);
             }
+        } catch (IllegalStateException e) {
+            Logger.logError("Failed to start the scan", e);
+        }
+    }
 
-            // Sleep for the duration of the scan. No wakeups are expected, but catch is required.
-            try {
-                wait(activeMillis);
-            } catch (InterruptedException e) {
-                Logger.logError("Exception in ScanCycle Sleep", e);
-            } finally {
-                try {
-                    if (bluetoothAdapter != null) {
-                        bluetoothAdapter.stopLeScan(leScanCallback);
-                    }
-                } catch (NullPointerException e) {
-                    // An NPE is thrown if Bluetooth has been reset since this blocking scan began.
-                    Logger.logDebug("NPE thrown in BlockingScanCycle");
-                } catch (IllegalStateException e) {
-                    Logger.logError("Failed to stop the scan", e);
-                }
-                // Active BLE scan ends
-                // Execute cycle complete to 1) detect lost devices
-                new Handler(Looper.getMainLooper()).post(new Runnable() {
-                    @Override
-                    public void run() {
-                        onScanCycleComplete();
-                        callbackCycleCompleted();
-                    }
-                });
-            }
-            updateRepeatingAlarm();
+    /**
+     * Stop the LE scan at the end of the active window, then detect lost devices.
+     * <p>
+     * When the scan of the next window would be throttled by the OS, which happens with short
+     * idle times, the scan keeps running through the idle time instead.
+     */
+    @Override
+    protected void onScanWindowEnd() {
+        boolean keepScanning = hasClients() && getStartGovernor().getStartDelayMillis(
+                getClock().currentTimeMillis() + getScanIdleMillis()) > 0;
+        if (leScanStarted && !keepScanning) {
+            stopLeScan();
         }
-        Logger.logDebug("Stopping BLE Active Scan Cycle.");
+        onScanCycleComplete();
+        callbackCycleCompleted();
     }
 
-    private void callbackLostLeScanClients(String address, ScanResult result) {
+    /**
+     * Stop the LE scan left running through the idle time by {@link #onScanWindowEnd()} once the
+     * last client stopped, since no window will close it. Runs on the scan cycle thread.
+     */
+    private void stopIdleLeScan() {
+        if (leScanStarted && !hasClients()) {
+            stopLeScan();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void stopLeScan() {
+        leScanStarted = false;
+        try {
+            bluetoothAdapter.stopLeScan(leScanCallback);
+        } catch (NullPointerException e) {
+            // An NPE is thrown if Bluetooth has been reset since this scan window began.
+            Logger.logDebug("NPE thrown while stopping the scan");
+        } catch (IllegalStateException e) {
+            Logger.logError("Failed to stop the scan", e);
+        }
+    }
+
+    /**
+     * Deliver the devices lost during a cycle, in a single call to each client which was notified
+     * of any of them.
+     */
+    private void callbackLostLeScanClients(List<DeviceTable.Entry> lost) {
         for (ScanClient client : serialClients.values()) {
             int wantAny = client.settings.getCallbackType() & ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
             int wantLost = client.settings.getCallbackType() & ScanSettings.CALLBACK_TYPE_MATCH_LOST;
-
-            if (client.addressesSeen.remove(address) && (wantAny | wantLost) != 0) {
-
-                // Catch any exceptions and log them but continue processing other scan results.
-                try {
-                    client.callback.onScanResult(ScanSettings.CALLBACK_TYPE_MATCH_LOST, result);
-                } catch (Exception e) {
-                    Logger.logError("Failure while sending 'lost' scan result to listener", e);
+            if ((wantAny | wantLost) == 0) {
+                continue;
+            }
+            List<ScanResult> results = new ArrayList<ScanResult>();
+            for (DeviceTable.Entry entry : lost) {
+                if (entry.wasNotified(client.slot)) {
+                    results.add(entry.getResult());
+                }
+                if (client.throttle != null) {
+                    client.throttle.forget(entry.getAddress());
                 }
             }
+            if (!results.isEmpty()) {
+                client.callback.onBatchLost(results);
+            }
+        }
+    }
+
+    /**
+     * Report the devices evicted from the full device table as lost, so that clients do not keep
+     * devices the table no longer tracks.
+     */
+    private void callbackEvictedLeScanClients() {
+        List<DeviceTable.Entry> evicted = recentScanResults.takeEvicted();
+        if (!evicted.isEmpty()) {
+            callbackLostLeScanClients(evicted);
         }
     }
 
@@ -199,48 +234,30 @@ class JbBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
         }
     }
 
-    /**
-     * Process a single scan result, sending it directly
-     * to any active listeners who want to know.
-     */
-    void onScanResult(final String address, final ScanResult result) {
-        mainHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                callbackLeScanClients(address, result);
-            }
-        });
-    }
-
     /**
      * Distribute each scan record to registered clients. When a "found" event occurs record the
      * address in the client filter so we can later send the "lost" event to that same client.
      * <p>
      * This method will be called by the AIDL handler thread from onLeScan.
      */
-    private synchronized void callbackLeScanClients(String address, ScanResult result) {
+    private synchronized void callbackLeScanClients(long address, ScanResult result) {
         recentScanResults.put(address, result);
+        callbackEvictedLeScanClients();
         for (ScanClient client : serialClients.values()) {
-            if (matchesAnyFilter(client.filtersList, result)) {
-                boolean seenItBefore = client.addressesSeen.contains(address);
+            if (client.filters.matches(result)) {
+                boolean seenItBefore = !recentScanResults.markNotified(address, client.slot);
                 int clientFlags = client.settings.getCallbackType();
                 int firstMatchBit = clientFlags & ScanSettings.CALLBACK_TYPE_FIRST_MATCH;
                 int allMatchesBit = clientFlags & ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
 
-                // Catch any exceptions and log them but continue processing other listeners.
-                if ((firstMatchBit | allMatchesBit) != 0) {
-                    try {
-                        if (!seenItBefore) {
-                            client.callback.onScanResult(ScanSettings.CALLBACK_TYPE_FIRST_MATCH, result);
-                        } else if (allMatchesBit != 0) {
-                            client.callback.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
-                        }
-                    } catch (Exception e) {
-                        Logger.logError("Failure while handling scan result", e);
+                if (!seenItBefore && (firstMatchBit | allMatchesBit) != 0) {
+                    if (client.throttle != null) {
+                        client.throttle.onReported(address, result);
                     }
-                }
-                if (!seenItBefore) {
-                    client.addressesSeen.add(address);
+                    client.callback.onScanResult(ScanSettings.CALLBACK_TYPE_FIRST_MATCH, result);
+                } else if (seenItBefore && allMatchesBit != 0 && (client.throttle == null
+                        || client.throttle.shouldReport(address, result))) {
+                    client.callback.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
                 }
             }
         }
@@ -248,34 +265,75 @@ class JbBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
 
     @Override
     public synchronized boolean startScan(List<ScanFilter> filterList, ScanSettings settings,
-                                          ScanCallback callback) {
-        ScanClient client = new ScanClient(settings, filterList, callback);
+                                          ScanCallback callback, Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
+        int slot = recentScanResults.registerClient();
+        if (slot < 0) {
+            Logger.logError("Too many scan clients, ignoring scan request");
+            return false;
+        }
+        ScanClient client = new ScanClient(slot, settings, filterList,
+                new ScanCallbackDispatcher(callback, executor));
+        ScanClient previous = serialClients.put(callback, client);
+        if (previous != null) {
+            recentScanResults.unregisterClient(previous.slot);
+        }
+
+        // Process new registrations by immediately invoking the "found" callback
+        // with all previously sighted devices.
+        callbackFoundRecentResults(client);
+        updateRepeatingAlarm();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateScan(ScanCallback callback, List<ScanFilter> filters,
+                                           ScanSettings settings) {
+        ScanClient previous = serialClients.get(callback);
+        if (previous == null) {
+            return false;
+        }
+        // The client keeps its slot, hence the devices it was notified of.
+        ScanClient client = new ScanClient(previous.slot, settings, filters, previous.callback,
+                previous.throttle);
         serialClients.put(callback, client);
 
+        List<ScanResult> unmatched = recentScanResults.forgetUnmatched(client.slot, client.filters);
+        int clientFlags = client.settings.getCallbackType();
+        int wantAny = clientFlags & ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+        int wantLost = clientFlags & ScanSettings.CALLBACK_TYPE_MATCH_LOST;
+        if (!unmatched.isEmpty() && (wantAny | wantLost) != 0) {
+            client.callback.onBatchLost(unmatched);
+        }
+        callbackFoundRecentResults(client);
+        // The radio is only driven by the scan timing here.
+        updateRepeatingAlarm();
+        return true;
+    }
+
+    /**
+     * Invoke the "found" callback of the client with the recently sighted devices which match its
+     * filters and which it was not notified of yet.
+     */
+    private void callbackFoundRecentResults(ScanClient client) {
         int clientFlags = client.settings.getCallbackType();
         int firstMatchBit = clientFlags & ScanSettings.CALLBACK_TYPE_FIRST_MATCH;
         int allMatchesBit = clientFlags & ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
-
-        // Process new registrations by immediately invoking the "found" callback
-        // with all previously sighted devices.
-        if ((firstMatchBit | allMatchesBit) != 0) {
-            for (Entry<String, ScanResult> entry : recentScanResults.entrySet()) {
-                String address = entry.getKey();
-                ScanResult savedResult = entry.getValue();
-                if (matchesAnyFilter(filterList, savedResult)) {
-
-                    // Catch any exceptions and log them but continue processing other scan results.
-                    try {
-                        client.callback.onScanResult(ScanSettings.CALLBACK_TYPE_FIRST_MATCH, savedResult);
-                    } catch (Exception e) {
-                        Logger.logError("Failure while handling scan result for new listener", e);
-                    }
-                    client.addressesSeen.add(address);
+        if ((firstMatchBit | allMatchesBit) == 0) {
+            return;
+        }
+        for (ScanResult savedResult : recentScanResults.values()) {
+            long address = MacAddresses.pack(savedResult.getDevice().getAddress());
+            if (client.filters.matches(savedResult)
+                    && recentScanResults.markNotified(address, client.slot)) {
+                if (client.throttle != null) {
+                    client.throttle.onReported(address, savedResult);
                 }
+                client.callback.onScanResult(ScanSettings.CALLBACK_TYPE_FIRST_MATCH, savedResult);
             }
         }
-        updateRepeatingAlarm();
-        return true;
     }
 
     /**
@@ -285,8 +343,15 @@ class JbBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
      */
     @Override
     public synchronized void stopScan(ScanCallback callback) {
-        serialClients.remove(callback);
+        ScanClient client = serialClients.remove(callback);
+        if (client != null) {
+            recentScanResults.unregisterClient(client.slot);
+        }
         updateRepeatingAlarm();
+        if (!hasClients()) {
+            getScanCycleHandler().post(stopIdleLeScanTask);
+            requestSightingsSnapshot();
+        }
     }
 
     /**
@@ -294,32 +359,22 @@ class JbBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
      * for any that haven't been seen recently.
      */
     protected void onScanCycleComplete() {
-        Iterator<Entry<String, ScanResult>> iter = recentScanResults.entrySet().iterator();
-        long lostTimestampMillis = getLostTimestampMillis();
-
         // Clear out any expired notifications from the "old sightings" record.
-        while (iter.hasNext()) {
-            Entry<String, ScanResult> entry = iter.next();
-            String address = entry.getKey();
-            ScanResult savedResult = entry.getValue();
-            if (TimeUnit.NANOSECONDS.toMillis(savedResult.getTimestampNanos()) < lostTimestampMillis) {
-                iter.remove();
-                callbackLostLeScanClients(address, savedResult);
-            }
+        List<DeviceTable.Entry> lost = recentScanResults.removeSeenBefore(getLostTimestampMillis());
+        if (!lost.isEmpty()) {
+            callbackLostLeScanClients(lost);
         }
+        callbackEvictedLeScanClients();
+        recordCycleActivity(recentScanResults.takeNewDeviceCount(), lost.size());
     }
 
-    protected int getMaxPriorityScanMode() {
-        int maxPriority = -1;
-
-        for (ScanClient scanClient : serialClients.values()) {
-            ScanSettings settings = scanClient.settings;
-            if (maxPriority == -1
-                    || getScanModePriority(settings.getScanMode()) > getScanModePriority(maxPriority)) {
-                maxPriority = settings.getScanMode();
-            }
+    @Override
+    protected Collection<ScanSettings> getClientSettings() {
+        List<ScanSettings> settings = new ArrayList<ScanSettings>(serialClients.size());
+        for (ScanClient client : serialClients.values()) {
+            settings.add(client.settings);
         }
-        return maxPriority;
+        return settings;
     }
 
     @Override
@@ -328,25 +383,63 @@ class JbBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
     }
 
 
+    @Override
+    protected synchronized void onRecentScanResultsRestored(List<ScanResult> results) {
+        for (ScanResult result : results) {
+            recentScanResults.put(MacAddresses.pack(result.getDevice().getAddress()), result);
+        }
+        // Restored devices are not arrivals for the adaptive scan mode.
+        recentScanResults.takeNewDeviceCount();
+        callbackEvictedLeScanClients();
+        for (ScanClient client : serialClients.values()) {
+            callbackFoundRecentResults(client);
+        }
+    }
+
+    @Override
+    DeviceTable getDeviceTable() {
+        return recentScanResults;
+    }
+
+    @Override
+    int getClientSlot(ScanCallback callback) {
+        ScanClient client = serialClients.get(callback);
+        return client == null ? -1 : client.slot;
+    }
+
     @Override
     protected Collection<ScanResult> getRecentScanResults() {
         return recentScanResults.values();
     }
 
     /**
-     * Wraps user requests and stores the list of filters and callbacks. Also saves a set of
-     * addresses for which any of the filters have matched in order to do lost processing.
+     * Wraps user requests and stores the list of filters and callbacks. The devices for which any
+     * of the filters have matched are tracked in the device table, under the client
+     * slot, in order to do lost processing.
      */
     private static class ScanClient {
-        final List<ScanFilter> filtersList;
-        final Set<String> addressesSeen;
-        final ScanCallback callback;
+        final int slot;
+        final CompiledFilterSet filters;
+        final ScanCallbackDispatcher callback;
         final ScanSettings settings;
+        // Null when every sighting is reported.
+        final ReportThrottle throttle;
+
+        ScanClient(int slot, ScanSettings settings, List<ScanFilter> filters,
+                   ScanCallbackDispatcher callback) {
+            this(slot, settings, filters, callback, null);
+        }
 
-        ScanClient(ScanSettings settings, List<ScanFilter> filters, ScanCallback callback) {
+        /**
+         * A client keeping the throttle of {@code previous}, if its reporting options did not
+         * change.
+         */
+        ScanClient(int slot, ScanSettings settings, List<ScanFilter> filters,
+                   ScanCallbackDispatcher callback, ReportThrottle previous) {
+            this.slot = slot;
             this.settings = settings;
-            this.filtersList = filters;
-            this.addressesSeen = new HashSet<>();
+            this.throttle = ReportThrottle.forSettings(settings, previous);
+            this.filters = CompiledFilterSet.compile(filters);
             this.callback = callback;
         }
     }
@@ -23,34 +23,58 @@ import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
 import android.text.TextUtils;
 
 import com.reelyactive.blesdk.support.ble.util.Clock;
 import com.reelyactive.blesdk.support.ble.util.Logger;
+import com.reelyactive.blesdk.support.ble.util.MacAddresses;
 import com.reelyactive.blesdk.support.ble.util.SystemClock;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Implements Bluetooth LE scan related API on top of {@link android.os.Build.VERSION_CODES#LOLLIPOP}
  * and later.
+ * <p>
+ * A single OS scan is shared by all the registered {@link ScanCallback}s: it runs with the union
+ * of their filters, the highest priority scan mode and the shortest report delay. Each packet is
+ * converted once, then dispatched to the clients whose own filters match it, through the executor
+ * each client registered with.
  */
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
 class LBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
 
-    private final Map<String, ScanResult> recentScanResults = new ConcurrentHashMap<>();
+    // Delay allowing registration changes made in a row to be applied with a single update.
+    private static final long OS_SCAN_UPDATE_DELAY_MILLIS = 500;
+
+    private final DeviceTable recentScanResults = new DeviceTable();
     private final Map<ScanCallback, ScanClient> callbacksMap = new ConcurrentHashMap<>();
     private final android.bluetooth.le.BluetoothLeScanner osScanner;
+    private final OsScanCallback osCallback = new OsScanCallback();
+    // Filters, scan mode and report delay of the OS scan shared by all the clients.
+    // The filters are null while the OS scan is not running; empty means no filtering.
+    private Set<ScanFilter> osScanFilters;
+    private int osScanMode;
+    private long osReportDelayMillis;
+    private boolean osScanUpdatePending;
+    // Whether the clients were told that the OS scan failed to start, so that the retries made
+    // every cycle do not report it again until the registrations change.
+    private boolean osScanFailureReported;
+    private final Runnable osScanUpdateTask = new Runnable() {
+        @Override
+        public void run() {
+            updateOsScan();
+        }
+    };
 
     /**
      * Package-protected constructor, used by {@link BluetoothLeScannerCompatProvider}.
@@ -83,14 +107,14 @@ class LBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
         }
     }
 
-    private static android.bluetooth.le.ScanSettings toOs(ScanSettings settings) {
+    private static android.bluetooth.le.ScanSettings toOs(int scanMode, long reportDelayMillis) {
         return new android.bluetooth.le.ScanSettings.Builder()
-                .setReportDelay(settings.getReportDelayMillis())
-                .setScanMode(settings.getScanMode())
+                .setReportDelay(reportDelayMillis)
+                .setScanMode(scanMode)
                 .build();
     }
 
-    private static List<android.bluetooth.le.ScanFilter> toOs(List<ScanFilter> filters) {
+    private static List<android.bluetooth.le.ScanFilter> toOs(Collection<ScanFilter> filters) {
         List<android.bluetooth.le.ScanFilter> osFilters =
                 new ArrayList<android.bluetooth.le.ScanFilter>(filters.size());
         for (ScanFilter filter : filters) {
@@ -157,70 +181,197 @@ class LBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
     }
 
     private static ScanRecord fromOs(android.bluetooth.le.ScanRecord osRecord) {
-        return ScanRecord.parseFromBytes(osRecord.getBytes());
+        return ScanRecord.wrap(osRecord.getBytes());
     }
 
     /////////////////////////////////////////////////////////////////////////////
     // Conversion methods
 
     @Override
-    public boolean startScan(List<ScanFilter> filters, ScanSettings settings, ScanCallback callback) {
-
+    public boolean startScan(List<ScanFilter> filters, ScanSettings settings, ScanCallback callback,
+                             Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
         if (callbacksMap.containsKey(callback)) {
             Logger.logInfo("StartScan(): BLE 'L' hardware scan already in progress...");
-            stopScan(callback);
         }
+        int slot = recentScanResults.registerClient();
+        if (slot < 0) {
+            Logger.logError("Too many scan clients, ignoring scan request");
+            return false;
+        }
+        ScanClient client = new ScanClient(recentScanResults, slot,
+                new ScanCallbackDispatcher(callback, executor), filters, settings);
+        ScanClient previous = callbacksMap.put(callback, client);
+        if (previous != null) {
+            recentScanResults.unregisterClient(previous.slot);
+        }
+        // Process new registrations by immediately invoking the "found" callback
+        // with all previously sighted devices.
+        callbackFoundRecentResults(client);
+        requestOsScanUpdate();
+        updateRepeatingAlarm();
+        return true;
+    }
+
+    @Override
+    public boolean updateScan(ScanCallback callback, List<ScanFilter> filters,
+                              ScanSettings settings) {
+        ScanClient previous = callbacksMap.get(callback);
+        if (previous == null) {
+            return false;
+        }
+        // The client keeps its slot, hence the devices it was notified of.
+        ScanClient client = new ScanClient(recentScanResults, previous.slot, previous.callback,
+                filters, settings, previous.throttle);
+        callbacksMap.put(callback, client);
+        // Results batched under the previous settings are delivered as they would have been.
+        previous.flushPendingBatch();
+
+        List<ScanResult> unmatched = recentScanResults.forgetUnmatched(client.slot, client.filters);
+        int clientFlags = client.settings.getCallbackType();
+        int wantAny = clientFlags & ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+        int wantLost = clientFlags & ScanSettings.CALLBACK_TYPE_MATCH_LOST;
+        if (!unmatched.isEmpty() && (wantAny | wantLost) != 0) {
+            client.callback.onBatchLost(unmatched);
+        }
+        callbackFoundRecentResults(client);
+        // Only restarts the OS scan if the merged filters, scan mode or report delay changed.
+        requestOsScanUpdate();
+        updateRepeatingAlarm();
+        return true;
+    }
+
+    @Override
+    public void stopScan(ScanCallback callback) {
+        ScanClient client = callbacksMap.remove(callback);
+        if (client != null) {
+            recentScanResults.unregisterClient(client.slot);
+            requestOsScanUpdate();
+            updateRepeatingAlarm();
+            if (!hasClients()) {
+                requestSightingsSnapshot();
+            }
+        }
+    }
 
-        android.bluetooth.le.ScanSettings osSettings = toOs(settings);
-        ScanClient osCallback = toOs(callback, settings);
-        List<android.bluetooth.le.ScanFilter> osFilters = toOs(filters);
+    /**
+     * Update the OS scan shortly, on the scan cycle thread, so that the registrations changed in
+     * quick succession (such as a stop followed by a start) result in a single update.
+     */
+    private void requestOsScanUpdate() {
+        synchronized (this) {
+            osScanFailureReported = false;
+            if (osScanUpdatePending) {
+                return;
+            }
+            osScanUpdatePending = true;
+        }
+        getScanCycleHandler().postDelayed(osScanUpdateTask, OS_SCAN_UPDATE_DELAY_MILLIS);
+    }
 
-        callbacksMap.put(callback, osCallback);
+    /**
+     * Make the shared OS scan match the registered clients. The OS scan is only restarted when
+     * its filters, scan mode or report delay actually change, and when the restart would not be
+     * throttled by the OS. Otherwise the update is deferred, and the current OS scan keeps
+     * running for the clients it already serves.
+     * <p>
+     * {@link #startScan} returns before the OS scan is started, so a failure to start it is
+     * reported to the clients through {@link ScanCallback#onScanFailed}.
+     */
+    private synchronized void updateOsScan() {
+        osScanUpdatePending = false;
+        getScanCycleHandler().removeCallbacks(osScanUpdateTask);
+        if (callbacksMap.isEmpty()) {
+            stopOsScan();
+            return;
+        }
+        Set<ScanFilter> filters = getFiltersUnion();
+        int scanMode = getEquivalentScanMode();
+        long reportDelayMillis = getMinReportDelayMillis();
+        if (filters.equals(osScanFilters) && scanMode == osScanMode
+                && reportDelayMillis == osReportDelayMillis) {
+            return;
+        }
+        long startDelayMillis = getStartGovernor().getStartDelayMillis();
+        if (startDelayMillis > 0) {
+            Logger.logInfo("Deferring BLE 'L' hardware scan update by " + startDelayMillis
+                    + "ms to avoid scan throttling");
+            osScanUpdatePending = true;
+            getScanCycleHandler().postDelayed(osScanUpdateTask, startDelayMillis);
+            return;
+        }
+        stopOsScan();
         try {
             Logger.logInfo("Starting BLE 'L' hardware scan ");
             for (ScanFilter filter : filters) {
                 Logger.logInfo("\tFilter " + filter);
             }
             if (osScanner != null) {
-                osScanner.startScan(osFilters, osSettings, osCallback);
+                osScanner.startScan(toOs(filters), toOs(scanMode, reportDelayMillis), osCallback);
+                getStartGovernor().onScanStarted();
             }
-            updateRepeatingAlarm();
-            return true;
+            osScanFilters = filters;
+            osScanMode = scanMode;
+            osReportDelayMillis = reportDelayMillis;
+            osScanFailureReported = false;
         } catch (Exception e) {
             Logger.logError("Exception caught calling 'L' BluetoothLeScanner.startScan()", e);
-            return false;
+            if (!osScanFailureReported) {
+                osScanFailureReported = true;
+                for (ScanClient client : callbacksMap.values()) {
+                    client.callback.onScanFailed(ScanCallback.SCAN_FAILED_INTERNAL_ERROR);
+                }
+            }
         }
     }
 
-    @Override
-    public void stopScan(ScanCallback callback) {
-        android.bluetooth.le.ScanCallback osCallback = callbacksMap.get(callback);
+    private void stopOsScan() {
+        if (osScanFilters == null) {
+            return;
+        }
+        osScanFilters = null;
+        try {
+            Logger.logInfo("Stopping BLE 'L' hardware scan");
+            if (osScanner != null) {
+                osScanner.stopScan(osCallback);
+            }
+        } catch (Exception e) {
+            Logger.logError("Exception caught calling 'L' BluetoothLeScanner.stopScan()", e);
+        }
+    }
 
-        if (osCallback != null) {
-            try {
-                Logger.logInfo("Stopping BLE 'L' hardware scan");
-                if (osScanner != null) {
-                    osScanner.stopScan(osCallback);
-                }
-            } catch (Exception e) {
-                Logger.logError("Exception caught calling 'L' BluetoothLeScanner.stopScan()", e);
+    /**
+     * Returns the filters of all the clients. If any client does not filter, the OS scan must
+     * not filter either, and an empty set is returned.
+     */
+    private Set<ScanFilter> getFiltersUnion() {
+        Set<ScanFilter> filters = new LinkedHashSet<ScanFilter>();
+        for (ScanClient client : callbacksMap.values()) {
+            if (client.filters.getFilters().isEmpty()) {
+                return Collections.emptySet();
             }
-            callbacksMap.remove(callback);
-            updateRepeatingAlarm();
+            filters.addAll(client.filters.getFilters());
         }
+        return filters;
     }
 
-    protected int getMaxPriorityScanMode() {
-        int maxPriority = -1;
+    private long getMinReportDelayMillis() {
+        long minReportDelayMillis = Long.MAX_VALUE;
+        for (ScanClient client : callbacksMap.values()) {
+            minReportDelayMillis = Math.min(minReportDelayMillis, client.settings.getReportDelayMillis());
+        }
+        return minReportDelayMillis == Long.MAX_VALUE ? 0 : minReportDelayMillis;
+    }
 
-        for (ScanClient scanClient : callbacksMap.values()) {
-            ScanSettings settings = scanClient.settings;
-            if (maxPriority == -1
-                    || getScanModePriority(settings.getScanMode()) > getScanModePriority(maxPriority)) {
-                maxPriority = settings.getScanMode();
-            }
+    @Override
+    protected Collection<ScanSettings> getClientSettings() {
+        List<ScanSettings> settings = new ArrayList<ScanSettings>(callbacksMap.size());
+        for (ScanClient client : callbacksMap.values()) {
+            settings.add(client.settings);
         }
-        return maxPriority;
+        return settings;
     }
 
     @Override
@@ -228,41 +379,76 @@ class LBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
         return !callbacksMap.isEmpty();
     }
 
-    private ScanClient toOs(final ScanCallback callback, ScanSettings settings) {
-        return new ScanClient(callback, settings);
+    /**
+     * Batched results are only delivered when the controller flushes, so a device must not be
+     * considered lost before the longest report delay has elapsed.
+     */
+    @Override
+    long getLostTimestampMillis() {
+        long maxReportDelayMillis = 0;
+        for (ScanClient client : callbacksMap.values()) {
+            maxReportDelayMillis = Math.max(maxReportDelayMillis, client.settings.getReportDelayMillis());
+        }
+        return Math.min(super.getLostTimestampMillis(),
+                getClock().currentTimeMillis() - maxReportDelayMillis - getScanCycleMillis());
+    }
+
+    /**
+     * When every client is batching there is nothing to process between two controller flushes,
+     * so the idle part of the cycle is stretched to the shortest report delay.
+     */
+    @Override
+    int getScanIdleMillis() {
+        long minReportDelayMillis = getMinReportDelayMillis();
+        int idleMillis = super.getScanIdleMillis();
+        if (minReportDelayMillis <= idleMillis) {
+            return idleMillis;
+        }
+        return (int) Math.min(minReportDelayMillis, Integer.MAX_VALUE);
     }
 
+    /**
+     * The OS scan runs continuously while there are clients, so there is nothing to start.
+     */
     @Override
-    protected void onNewScanCycle() {
-        int activeMillis = getScanActiveMillis();
-        if (activeMillis > 0) {
-            synchronized (this) {
-                try {
-                    wait(activeMillis);
-                } catch (InterruptedException e) {
-                    Logger.logError("Exception in ScanCycle Sleep", e);
-                }
-            }
+    protected void onScanWindowStart() {
+    }
+
+    @Override
+    protected void onScanWindowEnd() {
+        // Batching clients sharing the OS scan with non batching ones are flushed every cycle.
+        for (ScanClient client : callbacksMap.values()) {
+            client.flushPendingBatch();
         }
-        long lostTimestampMillis = getLostTimestampMillis();
-        Iterator<Map.Entry<String, ScanResult>> iter = recentScanResults.entrySet().iterator();
         // Clear out any expired notifications from the "old sightings" record.
-        while (iter.hasNext()) {
-            Map.Entry<String, ScanResult> entry = iter.next();
-            final String address = entry.getKey();
-            final ScanResult savedResult = entry.getValue();
-            if (TimeUnit.NANOSECONDS.toMillis(savedResult.getTimestampNanos()) < lostTimestampMillis) {
-                iter.remove();
-                new Handler(Looper.getMainLooper()).post(new Runnable() {
-                    @Override
-                    public void run() {
-                        callbackLostLeScanClients(address, savedResult);
-                    }
-                });
-            }
+        List<DeviceTable.Entry> lost = recentScanResults.removeSeenBefore(getLostTimestampMillis());
+        if (!lost.isEmpty()) {
+            callbackLostLeScanClients(lost);
         }
+        callbackEvictedLeScanClients();
+        recordCycleActivity(recentScanResults.takeNewDeviceCount(), lost.size());
+        // Follow the scan mode of adaptive clients.
+        updateOsScan();
         callbackCycleCompleted();
-        updateRepeatingAlarm();
+    }
+
+    /**
+     * Report the devices evicted from the full device table as lost, so that clients do not keep
+     * devices the table no longer tracks.
+     */
+    private void callbackEvictedLeScanClients() {
+        List<DeviceTable.Entry> evicted = recentScanResults.takeEvicted();
+        if (!evicted.isEmpty()) {
+            callbackLostLeScanClients(evicted);
+        }
+    }
+
+    /**
+     * Invoke the "found" callback of the client with the recently sighted devices which match its
+     * filters and which it was not notified of yet.
+     */
+    private void callbackFoundRecentResults(ScanClient client) {
+        client.onRecentScanResults(recentScanResults.values(client.filters));
     }
 
     private void callbackCycleCompleted() {
@@ -271,70 +457,255 @@ class LBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
         }
     }
 
+    @Override
+    protected void onRecentScanResultsRestored(List<ScanResult> results) {
+        for (ScanResult result : results) {
+            recentScanResults.put(MacAddresses.pack(result.getDevice().getAddress()), result);
+        }
+        // Restored devices are not arrivals for the adaptive scan mode.
+        recentScanResults.takeNewDeviceCount();
+        callbackEvictedLeScanClients();
+        for (ScanClient client : callbacksMap.values()) {
+            callbackFoundRecentResults(client);
+        }
+    }
+
+    @Override
+    DeviceTable getDeviceTable() {
+        return recentScanResults;
+    }
+
+    @Override
+    int getClientSlot(ScanCallback callback) {
+        ScanClient client = callbacksMap.get(callback);
+        return client == null ? -1 : client.slot;
+    }
+
     @Override
     protected Collection<ScanResult> getRecentScanResults() {
         return recentScanResults.values();
     }
 
-    private void callbackLostLeScanClients(String address, ScanResult result) {
+    /**
+     * Deliver the devices lost during a cycle, in a single call to each client which was notified
+     * of any of them.
+     */
+    private void callbackLostLeScanClients(List<DeviceTable.Entry> lost) {
         for (ScanClient client : callbacksMap.values()) {
             int wantAny = client.settings.getCallbackType() & ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
             int wantLost = client.settings.getCallbackType() & ScanSettings.CALLBACK_TYPE_MATCH_LOST;
+            if ((wantAny | wantLost) == 0) {
+                continue;
+            }
+            List<ScanResult> results = new ArrayList<ScanResult>();
+            for (DeviceTable.Entry entry : lost) {
+                if (entry.wasNotified(client.slot)) {
+                    results.add(entry.getResult());
+                }
+                if (client.throttle != null) {
+                    client.throttle.forget(entry.getAddress());
+                }
+            }
+            if (!results.isEmpty()) {
+                client.callback.onBatchLost(results);
+            }
+        }
+    }
 
-            if (client.addressesSeen.remove(address) && (wantAny | wantLost) != 0) {
+    /**
+     * The callback registered with the OS scan. It converts each result once and fans it out to
+     * the matching clients.
+     */
+    private class OsScanCallback extends android.bluetooth.le.ScanCallback {
 
-                // Catch any exceptions and log them but continue processing other scan results.
-                try {
-                    client.callback.onScanResult(ScanSettings.CALLBACK_TYPE_MATCH_LOST, result);
-                } catch (Exception e) {
-                    Logger.logError("Failure while sending 'lost' scan result to listener", e);
+        @Override
+        public void onScanResult(int callbackType, android.bluetooth.le.ScanResult osResult) {
+            long address = MacAddresses.pack(osResult.getDevice().getAddress());
+            ScanResult result = fromOs(osResult);
+            recentScanResults.put(address, result);
+            callbackEvictedLeScanClients();
+            for (ScanClient client : callbacksMap.values()) {
+                if (client.filters.matches(result)) {
+                    client.onScanResult(address, result);
                 }
             }
         }
+
+        /**
+         * Results queued by the controller when a report delay is set. They are merged into the
+         * recent results, then each client receives its matching results in a single call.
+         */
+        @Override
+        public void onBatchScanResults(List<android.bluetooth.le.ScanResult> osResults) {
+            List<ScanResult> results = fromOs(osResults);
+            for (ScanResult result : results) {
+                recentScanResults.put(MacAddresses.pack(result.getDevice().getAddress()), result);
+            }
+            callbackEvictedLeScanClients();
+            for (ScanClient client : callbacksMap.values()) {
+                client.onBatchScanResults(results);
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Logger.logInfo("LBluetoothLeScannerCompat::onScanFailed(" + errorCode + ")");
+            synchronized (LBluetoothLeScannerCompat.this) {
+                osScanFilters = null;
+            }
+            for (ScanClient client : callbacksMap.values()) {
+                client.callback.onScanFailed(errorCode);
+            }
+        }
     }
 
-    private class ScanClient extends android.bluetooth.le.ScanCallback {
-        final Set<String> addressesSeen;
-        final ScanCallback callback;
+    /**
+     * Wraps user requests and stores the filters and callbacks. The devices which have been
+     * reported to the client are recorded in the device table, under the client slot, in order to
+     * do lost processing.
+     */
+    private static class ScanClient {
+        final DeviceTable devices;
+        final int slot;
+        final CompiledFilterSet filters;
+        final ScanCallbackDispatcher callback;
         final ScanSettings settings;
+        // Null when every sighting is reported.
+        final ReportThrottle throttle;
+        // Matching results waiting for a batching client, while the OS scan reports immediately.
+        private final List<ScanResult> pendingBatch = new ArrayList<ScanResult>();
+
+        ScanClient(DeviceTable devices, int slot, ScanCallbackDispatcher callback,
+                   List<ScanFilter> filters, ScanSettings settings) {
+            this(devices, slot, callback, filters, settings, null);
+        }
 
-        ScanClient(ScanCallback callback, ScanSettings settings) {
+        /**
+         * A client keeping the throttle of {@code previous}, if its reporting options did not
+         * change.
+         */
+        ScanClient(DeviceTable devices, int slot, ScanCallbackDispatcher callback,
+                   List<ScanFilter> filters, ScanSettings settings, ReportThrottle previous) {
+            this.devices = devices;
+            this.slot = slot;
             this.settings = settings;
-            this.addressesSeen = new HashSet<>();
+            this.throttle = ReportThrottle.forSettings(settings, previous);
+            this.filters = CompiledFilterSet.compile(filters);
             this.callback = callback;
         }
 
-        @Override
-        public void onScanResult(int callbackType, android.bluetooth.le.ScanResult osResult) {
-            String address = osResult.getDevice().getAddress();
-            boolean seenItBefore = addressesSeen.contains(address);
+        /**
+         * Deliver a single result which is known to match the client filters.
+         */
+        void onScanResult(long address, ScanResult result) {
+            if (settings.getReportDelayMillis() > 0) {
+                synchronized (pendingBatch) {
+                    pendingBatch.add(result);
+                }
+                return;
+            }
+            boolean seenItBefore = !devices.markNotified(address, slot);
             int clientFlags = settings.getCallbackType();
 
             int firstMatchBit = clientFlags & ScanSettings.CALLBACK_TYPE_FIRST_MATCH;
             int allMatchesBit = clientFlags & ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
 
-            ScanResult result = fromOs(osResult);
-            recentScanResults.put(address, result);
+            if (!seenItBefore && (firstMatchBit | allMatchesBit) != 0) {
+                if (throttle != null) {
+                    throttle.onReported(address, result);
+                }
+                callback.onScanResult(ScanSettings.CALLBACK_TYPE_FIRST_MATCH, result);
+            } else if (seenItBefore && allMatchesBit != 0
+                    && (throttle == null || throttle.shouldReport(address, result))) {
+                callback.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
+            }
+        }
 
-            // Catch any exceptions and log them but continue processing other listeners.
-            if ((firstMatchBit | allMatchesBit) != 0) {
-                try {
-                    if (!seenItBefore) {
-                        callback.onScanResult(ScanSettings.CALLBACK_TYPE_FIRST_MATCH, result);
-                    } else if (allMatchesBit != 0) {
-                        callback.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
+        /**
+         * Deliver, as first matches, the recently sighted devices which match the client filters
+         * and which it was not notified of yet: in a single batch if the client batches its
+         * results.
+         */
+        void onRecentScanResults(List<ScanResult> results) {
+            int clientFlags = settings.getCallbackType();
+            int firstMatchBit = clientFlags & ScanSettings.CALLBACK_TYPE_FIRST_MATCH;
+            int allMatchesBit = clientFlags & ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+            if ((firstMatchBit | allMatchesBit) == 0) {
+                return;
+            }
+            List<ScanResult> found = new ArrayList<ScanResult>(results.size());
+            for (ScanResult result : results) {
+                long address = MacAddresses.pack(result.getDevice().getAddress());
+                if (devices.markNotified(address, slot)) {
+                    if (throttle != null) {
+                        throttle.onReported(address, result);
                     }
-                } catch (Exception e) {
-                    Logger.logError("Failure while handling scan result", e);
+                    found.add(result);
+                }
+            }
+            if (found.isEmpty()) {
+                return;
+            }
+            if (settings.getReportDelayMillis() > 0) {
+                callback.onBatchScanResults(found);
+            } else {
+                for (ScanResult result : found) {
+                    callback.onScanResult(ScanSettings.CALLBACK_TYPE_FIRST_MATCH, result);
                 }
             }
-            addressesSeen.add(address);
         }
 
-        @Override
-        public void onScanFailed(int errorCode) {
-            Logger.logInfo("LBluetoothLeScannerCompat::onScanFailed(" + errorCode + ")");
-            callback.onScanFailed(errorCode);
+        /**
+         * Deliver the results of a batch which match the client filters.
+         */
+        void onBatchScanResults(List<ScanResult> results) {
+            List<ScanResult> matching = new ArrayList<ScanResult>(results.size());
+            for (ScanResult result : results) {
+                if (filters.matches(result)) {
+                    matching.add(result);
+                }
+            }
+            deliverBatch(matching);
+        }
+
+        void flushPendingBatch() {
+            List<ScanResult> results;
+            synchronized (pendingBatch) {
+                if (pendingBatch.isEmpty()) {
+                    return;
+                }
+                results = new ArrayList<ScanResult>(pendingBatch);
+                pendingBatch.clear();
+            }
+            deliverBatch(results);
+        }
+
+        /**
+         * Keep only the results the client wants according to its callback type, and deliver
+         * them in a single {@link ScanCallback#onBatchScanResults} call.
+         */
+        private void deliverBatch(List<ScanResult> results) {
+            int clientFlags = settings.getCallbackType();
+            int firstMatchBit = clientFlags & ScanSettings.CALLBACK_TYPE_FIRST_MATCH;
+            int allMatchesBit = clientFlags & ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+
+            List<ScanResult> reported = new ArrayList<ScanResult>(results.size());
+            for (ScanResult result : results) {
+                long address = MacAddresses.pack(result.getDevice().getAddress());
+                boolean seenItBefore = !devices.markNotified(address, slot);
+                if (!seenItBefore && (firstMatchBit | allMatchesBit) != 0) {
+                    if (throttle != null) {
+                        throttle.onReported(address, result);
+                    }
+                    reported.add(result);
+                } else if (seenItBefore && allMatchesBit != 0
+                        && (throttle == null || throttle.shouldReport(address, result))) {
+                    reported.add(result);
+                }
+            }
+            if (!reported.isEmpty()) {
+                callback.onBatchScanResults(reported);
+            }
         }
     }
 }
@@ -13,6 +13,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * Created by saiimons on 16-03-17.
@@ -20,6 +21,7 @@ import java.util.concurrent.ConcurrentHashMap;
 public class NoBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
 
     private final Map<ScanCallback, ScanSettings> callbacksMap = new ConcurrentHashMap<>();
+    private final Map<ScanCallback, ScanCallbackDispatcher> dispatchers = new ConcurrentHashMap<>();
 
     public NoBluetoothLeScannerCompat(Context context, AlarmManager alarmManager) {
         super(
@@ -33,9 +35,14 @@ public class NoBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
     }
 
     @Override
-    public boolean startScan(List<ScanFilter> filters, ScanSettings settings, ScanCallback callback) {
+    public boolean startScan(List<ScanFilter> filters, ScanSettings settings, ScanCallback callback,
+                             Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
         if (callback != null) {
             try {
+                dispatchers.put(callback, new ScanCallbackDispatcher(callback, executor));
                 callbacksMap.put(callback, settings);
                 updateRepeatingAlarm();
                 return true;
@@ -46,23 +53,27 @@ public class NoBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
         return false;
     }
 
+    @Override
+    public boolean updateScan(ScanCallback callback, List<ScanFilter> filters,
+                              ScanSettings settings) {
+        if (callback == null || !callbacksMap.containsKey(callback)) {
+            return false;
+        }
+        callbacksMap.put(callback, settings);
+        updateRepeatingAlarm();
+        return true;
+    }
+
     @Override
     public void stopScan(ScanCallback callback) {
         callbacksMap.remove(callback);
+        dispatchers.remove(callback);
         updateRepeatingAlarm();
     }
 
     @Override
-    protected int getMaxPriorityScanMode() {
-        int maxPriority = -1;
-
-        for (ScanSettings settings : callbacksMap.values()) {
-            if (maxPriority == -1
-                    || getScanModePriority(settings.getScanMode()) > getScanModePriority(maxPriority)) {
-                maxPriority = settings.getScanMode();
-            }
-        }
-        return maxPriority;
+    protected Collection<ScanSettings> getClientSettings() {
+        return callbacksMap.values();
     }
 
     @Override
@@ -71,11 +82,14 @@ public class NoBluetoothLeScannerCompat extends BluetoothLeScannerCompat {
     }
 
     @Override
-    protected void onNewScanCycle() {
-        for (ScanCallback callback : callbacksMap.keySet()) {
-            callback.onScanCycleCompleted();
+    protected void onScanWindowStart() {
+    }
+
+    @Override
+    protected void onScanWindowEnd() {
+        for (ScanCallbackDispatcher dispatcher : dispatchers.values()) {
+            dispatcher.onScanCycleCompleted();
         }
-        updateRepeatingAlarm();
     }
 
     @Override
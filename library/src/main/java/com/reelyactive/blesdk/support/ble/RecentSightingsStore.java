@@ -0,0 +1,144 @@
+package com.reelyactive.blesdk.support.ble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.support.v4.util.AtomicFile;
+
+import com.reelyactive.blesdk.support.ble.util.Logger;
+import com.reelyactive.blesdk.support.ble.util.MacAddresses;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a snapshot of the recently sighted devices in a private file, so that a new process knows
+ * which devices are nearby without waiting for a full scan cycle.
+ * <p>
+ * The file starts with a magic number, a version and the number of records. Each record holds the
+ * 48 bit device address, the time of the sighting in milliseconds, the RSSI and the raw scan
+ * record, about 40 bytes for a typical advertisement.
+ * <p>
+ * Files are replaced atomically, so a crash while writing leaves the previous snapshot.
+ */
+final class RecentSightingsStore {
+    private static final String FILE_NAME = "BluetoothLeRecentSightings.bin";
+    private static final int MAGIC = 0x52534E47; // "RSNG"
+    private static final int VERSION = 1;
+    // Sanity bound when reading, a corrupt file must not make us allocate without limit.
+    private static final int MAX_SCAN_RECORD_LENGTH = 1024;
+
+    private final AtomicFile file;
+    private final BluetoothAdapter adapter;
+
+    RecentSightingsStore(Context context, BluetoothAdapter adapter) {
+        this.file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        this.adapter = adapter;
+    }
+
+    /**
+     * Replace the snapshot with {@code results}.
+     */
+    void save(Collection<ScanResult> results) {
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(results.size());
+            for (ScanResult result : results) {
+                long address = MacAddresses.pack(result.getDevice().getAddress());
+                out.writeShort((int) (address >>> 32));
+                out.writeInt((int) address);
+                out.writeLong(TimeUnit.NANOSECONDS.toMillis(result.getTimestampNanos()));
+                out.writeByte(result.getRssi());
+                byte[] bytes = result.getScanRecord() == null ? null : result.getScanRecord().getBytes();
+                if (bytes == null) {
+                    out.writeShort(0);
+                } else {
+                    out.writeShort(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            out.flush();
+            file.finishWrite(outputStream);
+        } catch (IOException e) {
+            Logger.logError("Can't write recent sightings", e);
+            if (outputStream != null) {
+                file.failWrite(outputStream);
+            }
+        }
+    }
+
+    /**
+     * Read the snapshot.
+     *
+     * @param notBeforeMillis The devices last seen before this time are considered lost and are
+     *                        not returned.
+     * @param maxRecords      The maximum number of records restored: the last ones saved, the
+     *                        most recent when the snapshot is oldest first.
+     * @return The results of the devices still considered nearby, in the order they were saved.
+     * The list is empty if there is no valid snapshot.
+     */
+    List<ScanResult> load(long notBeforeMillis, int maxRecords) {
+        List<ScanResult> results = new ArrayList<ScanResult>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                Logger.logInfo("Ignoring recent sightings in an unknown format");
+                return results;
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                Logger.logInfo("Ignoring recent sightings with " + count + " records");
+                return results;
+            }
+            // Records are read one at a time, so a corrupt count ends with a truncated file.
+            int skipped = Math.max(0, count - maxRecords);
+            for (int i = 0; i < count; i++) {
+                long address = ((long) in.readUnsignedShort() << 32) | (in.readInt() & 0xFFFFFFFFL);
+                long lastSeenMillis = in.readLong();
+                int rssi = in.readByte();
+                int length = in.readUnsignedShort();
+                if (length > MAX_SCAN_RECORD_LENGTH) {
+                    Logger.logInfo("Ignoring recent sightings with a corrupt record");
+                    results.clear();
+                    return results;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                if (i < skipped || lastSeenMillis < notBeforeMillis) {
+                    continue;
+                }
+                results.add(new ScanResult(adapter.getRemoteDevice(MacAddresses.unpack(address)),
+                        length == 0 ? null : ScanRecord.wrap(bytes), rssi,
+                        TimeUnit.MILLISECONDS.toNanos(lastSeenMillis)));
+            }
+        } catch (FileNotFoundException e) {
+            // No snapshot yet.
+        } catch (IOException e) {
+            Logger.logError("Can't read recent sightings", e);
+            results.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing more to read.
+                }
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,121 @@
+package com.reelyactive.blesdk.support.ble;
+
+import com.reelyactive.blesdk.support.ble.util.LongObjectHashMap;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which sightings of the devices already reported to a client are reported again with
+ * {@link ScanSettings#CALLBACK_TYPE_ALL_MATCHES}, according to the reporting options of its
+ * {@link ScanSettings}.
+ * <p>
+ * A sighting is reported when the minimum report interval elapsed since the last report of the
+ * device, and, if change triggers are set, when the RSSI moved by the required delta or the
+ * payload changed since that report. Intervals are measured on the timestamps of the results.
+ * <p>
+ * This class is thread safe.
+ */
+final class ReportThrottle {
+    private final long minIntervalNanos;
+    private final int rssiDelta;
+    private final boolean payloadChanges;
+    // The last report of each device, by packed address.
+    private final LongObjectHashMap<Report> reports = new LongObjectHashMap<Report>();
+
+    private ReportThrottle(ScanSettings settings) {
+        minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(settings.getMinReportIntervalMillis());
+        rssiDelta = settings.getReportRssiDelta();
+        payloadChanges = settings.getReportPayloadChanges();
+    }
+
+    /**
+     * Returns the throttle of a client, or null if its settings report every sighting or do not
+     * ask for {@link ScanSettings#CALLBACK_TYPE_ALL_MATCHES}.
+     */
+    static ReportThrottle forSettings(ScanSettings settings) {
+        if ((settings.getCallbackType() & ScanSettings.CALLBACK_TYPE_ALL_MATCHES) == 0) {
+            return null;
+        }
+        if (settings.getMinReportIntervalMillis() == 0 && settings.getReportRssiDelta() == 0
+                && !settings.getReportPayloadChanges()) {
+            return null;
+        }
+        return new ReportThrottle(settings);
+    }
+
+    /**
+     * Returns the throttle of a client whose settings are updated: its previous throttle, with
+     * the last reports of its devices, if the reporting options did not change.
+     */
+    static ReportThrottle forSettings(ScanSettings settings, ReportThrottle previous) {
+        ReportThrottle throttle = forSettings(settings);
+        if (throttle != null && previous != null
+                && throttle.minIntervalNanos == previous.minIntervalNanos
+                && throttle.rssiDelta == previous.rssiDelta
+                && throttle.payloadChanges == previous.payloadChanges) {
+            return previous;
+        }
+        return throttle;
+    }
+
+    /**
+     * Returns true if the sighting of a device already reported must be reported again, and if
+     * so records it as the last report of the device.
+     */
+    synchronized boolean shouldReport(long address, ScanResult result) {
+        Report last = reports.get(address);
+        if (last == null) {
+            onReported(address, result);
+            return true;
+        }
+        if (result.getTimestampNanos() - last.timestampNanos < minIntervalNanos) {
+            return false;
+        }
+        if (rssiDelta > 0 || payloadChanges) {
+            boolean rssiChanged = rssiDelta > 0 && Math.abs(result.getRssi() - last.rssi) >= rssiDelta;
+            boolean payloadChanged = payloadChanges
+                    && !Arrays.equals(getPayload(result), last.payload);
+            if (!rssiChanged && !payloadChanged) {
+                return false;
+            }
+        }
+        last.set(result);
+        return true;
+    }
+
+    /**
+     * Record a sighting reported to the client, as the first match of the device.
+     */
+    synchronized void onReported(long address, ScanResult result) {
+        Report report = reports.get(address);
+        if (report == null) {
+            report = new Report();
+            reports.put(address, report);
+        }
+        report.set(result);
+    }
+
+    /**
+     * Forget the device, once lost.
+     */
+    synchronized void forget(long address) {
+        reports.remove(address);
+    }
+
+    private static byte[] getPayload(ScanResult result) {
+        return result.getScanRecord() == null ? null : result.getScanRecord().getBytes();
+    }
+
+    private static final class Report {
+        long timestampNanos;
+        int rssi;
+        byte[] payload;
+
+        void set(ScanResult result) {
+            timestampNanos = result.getTimestampNanos();
+            rssi = result.getRssi();
+            payload = getPayload(result);
+        }
+    }
+}
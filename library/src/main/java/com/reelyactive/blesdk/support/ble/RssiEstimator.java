@@ -0,0 +1,62 @@
+package com.reelyactive.blesdk.support.ble;
+
+/**
+ * Smooths the RSSI of a device over its sightings, with primitive state only so that a sighting
+ * is accounted for without allocating.
+ * <p>
+ * Two estimates are kept: an exponential moving average, with the matching exponentially
+ * weighted variance, which follows changes quickly; and a one dimensional Kalman filter assuming
+ * a constant signal, which rejects outliers better for a device at rest.
+ * <p>
+ * This class is not thread safe.
+ */
+final class RssiEstimator {
+
+    // Weight of the last sighting in the moving average.
+    static final double EMA_WEIGHT = 0.25;
+    // Variance of the actual RSSI change between two sightings, in dBm^2.
+    static final double KALMAN_PROCESS_NOISE = 0.5;
+    // Variance of the measured RSSI around the actual value, in dBm^2.
+    static final double KALMAN_MEASUREMENT_NOISE = 16;
+
+    private int sampleCount;
+    private double average;
+    private double variance;
+    private double kalmanEstimate;
+    private double kalmanError;
+
+    void update(int rssi) {
+        if (sampleCount++ == 0) {
+            average = rssi;
+            variance = 0;
+            kalmanEstimate = rssi;
+            kalmanError = KALMAN_MEASUREMENT_NOISE;
+            return;
+        }
+        double difference = rssi - average;
+        double increment = EMA_WEIGHT * difference;
+        average += increment;
+        variance = (1 - EMA_WEIGHT) * (variance + difference * increment);
+
+        kalmanError += KALMAN_PROCESS_NOISE;
+        double gain = kalmanError / (kalmanError + KALMAN_MEASUREMENT_NOISE);
+        kalmanEstimate += gain * (rssi - kalmanEstimate);
+        kalmanError *= 1 - gain;
+    }
+
+    int getSampleCount() {
+        return sampleCount;
+    }
+
+    double getAverage() {
+        return average;
+    }
+
+    double getVariance() {
+        return variance;
+    }
+
+    double getKalmanEstimate() {
+        return kalmanEstimate;
+    }
+}
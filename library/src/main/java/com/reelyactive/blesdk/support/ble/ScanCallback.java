@@ -20,6 +20,7 @@ package com.reelyactive.blesdk.support.ble;/*
 // Changes:
 //   Added an '@Suppress unused' to the inputs of onScanFailed().
 //   Added a bit more javadoc to the onScanResult() method.
+//   Added onBatchLost() to deliver the devices lost during a scan cycle at once.
 
 import java.util.List;
 
@@ -69,6 +70,22 @@ public abstract class ScanCallback {
     public void onBatchScanResults(List<ScanResult> results) {
     }
 
+    /**
+     * Callback when devices which were reported to this callback have not been sighted for too
+     * long. The devices lost during a scan cycle are delivered in a single call, oldest sighting
+     * first.
+     * <p>
+     * By default each of them is passed on to {@link #onScanResult(int, ScanResult)} with
+     * {@link ScanSettings#CALLBACK_TYPE_MATCH_LOST}.
+     *
+     * @param results The last scan result of each lost device.
+     */
+    public void onBatchLost(List<ScanResult> results) {
+        for (ScanResult result : results) {
+            onScanResult(ScanSettings.CALLBACK_TYPE_MATCH_LOST, result);
+        }
+    }
+
     /**
      * Callback when scan could not be started.
      * @param errorCode Error code (one of SCAN_FAILED_*) for scan failure.
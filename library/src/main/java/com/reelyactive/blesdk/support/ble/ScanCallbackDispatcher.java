@@ -0,0 +1,96 @@
+package com.reelyactive.blesdk.support.ble;
+
+import com.reelyactive.blesdk.support.ble.util.Logger;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Invokes a {@link ScanCallback} on the {@link Executor} it was registered with. Events are
+ * submitted in the order they are produced; an exception thrown by the callback is logged and does
+ * not reach the scanner.
+ */
+final class ScanCallbackDispatcher {
+
+    final ScanCallback callback;
+    private final Executor executor;
+
+    ScanCallbackDispatcher(ScanCallback callback, Executor executor) {
+        this.callback = callback;
+        this.executor = executor;
+    }
+
+    void onScanResult(final int callbackType, final ScanResult result) {
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.onScanResult(callbackType, result);
+                } catch (Exception e) {
+                    Logger.logError("Failure while handling scan result", e);
+                }
+            }
+        });
+    }
+
+    void onBatchScanResults(final List<ScanResult> results) {
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.onBatchScanResults(results);
+                } catch (Exception e) {
+                    Logger.logError("Failure while handling batch scan results", e);
+                }
+            }
+        });
+    }
+
+    void onBatchLost(final List<ScanResult> results) {
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.onBatchLost(results);
+                } catch (Exception e) {
+                    Logger.logError("Failure while sending 'lost' scan results to listener", e);
+                }
+            }
+        });
+    }
+
+    void onScanFailed(final int errorCode) {
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.onScanFailed(errorCode);
+                } catch (Exception e) {
+                    Logger.logError("Failure while handling scan failure", e);
+                }
+            }
+        });
+    }
+
+    void onScanCycleCompleted() {
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.onScanCycleCompleted();
+                } catch (Exception e) {
+                    Logger.logError("Failure while handling scan cycle completion", e);
+                }
+            }
+        });
+    }
+
+    private void dispatch(Runnable event) {
+        try {
+            executor.execute(event);
+        } catch (RejectedExecutionException e) {
+            Logger.logError("Scan callback executor rejected an event", e);
+        }
+    }
+}
@@ -20,6 +20,8 @@ package com.reelyactive.blesdk.support.ble;/*
 // Changes:
 //   Changed comparison of mServiceDataUuid to com.reelyactive.blesdk.support.ble.Objects.equals()
 //   Exposed matchesPartialData() for testing
+//   Match UUIDs, service data and manufacturer data in place on the ScanRecord bytes
+//   Hash byte array contents in hashCode() to stay consistent with equals()
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
@@ -28,8 +30,6 @@ import android.os.ParcelUuid;
 import android.os.Parcelable;
 
 import java.util.Arrays;
-import java.util.List;
-import java.util.UUID;
 
 import android.support.annotation.Nullable;
 
@@ -299,23 +299,22 @@ public final class ScanFilter implements Parcelable {
         }
 
         // UUID match.
-        if (mServiceUuid != null && !matchesServiceUuids(mServiceUuid, mServiceUuidMask,
-                scanRecord.getServiceUuids())) {
+        if (mServiceUuid != null && !scanRecord.matchesServiceUuid(mServiceUuid.getUuid(),
+                mServiceUuidMask == null ? null : mServiceUuidMask.getUuid())) {
             return false;
         }
 
         // Service data match
         if (mServiceDataUuid != null) {
-            if (!matchesPartialData(mServiceData, mServiceDataMask,
-                    scanRecord.getServiceData(mServiceDataUuid))) {
+            if (!scanRecord.matchesServiceData(mServiceDataUuid, mServiceData, mServiceDataMask)) {
                 return false;
             }
         }
 
         // Manufacturer data match.
         if (mManufacturerId >= 0) {
-            if (!matchesPartialData(mManufacturerData, mManufacturerDataMask,
-                    scanRecord.getManufacturerSpecificData(mManufacturerId))) {
+            if (!scanRecord.matchesManufacturerData(mManufacturerId, mManufacturerData,
+                    mManufacturerDataMask)) {
                 return false;
             }
         }
@@ -323,38 +322,6 @@ public final class ScanFilter implements Parcelable {
         return true;
     }
 
-    // Check if the uuid pattern is contained in a list of parcel uuids.
-    private boolean matchesServiceUuids(ParcelUuid uuid, ParcelUuid parcelUuidMask,
-            List<ParcelUuid> uuids) {
-        if (uuid == null) {
-            return true;
-        }
-        if (uuids == null) {
-            return false;
-        }
-
-        for (ParcelUuid parcelUuid : uuids) {
-            UUID uuidMask = parcelUuidMask == null ? null : parcelUuidMask.getUuid();
-            if (matchesServiceUuid(uuid.getUuid(), uuidMask, parcelUuid.getUuid())) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    // Check if the uuid pattern matches the particular service uuid.
-    private boolean matchesServiceUuid(UUID uuid, UUID mask, UUID data) {
-        if (mask == null) {
-            return uuid.equals(data);
-        }
-        if ((uuid.getLeastSignificantBits() & mask.getLeastSignificantBits())
-                != (data.getLeastSignificantBits() & mask.getLeastSignificantBits())) {
-            return false;
-        }
-        return ((uuid.getMostSignificantBits() & mask.getMostSignificantBits())
-                == (data.getMostSignificantBits() & mask.getMostSignificantBits()));
-    }
-
     /**
      * Check whether the data pattern matches the parsed data.
      * @VisibleForTesting
@@ -393,8 +360,9 @@ public final class ScanFilter implements Parcelable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(mDeviceName, mDeviceAddress, mManufacturerId, mManufacturerData,
-                mManufacturerDataMask, mServiceDataUuid, mServiceData, mServiceDataMask,
+        return Objects.hash(mDeviceName, mDeviceAddress, mManufacturerId,
+                Arrays.hashCode(mManufacturerData), Arrays.hashCode(mManufacturerDataMask),
+                mServiceDataUuid, Arrays.hashCode(mServiceData), Arrays.hashCode(mServiceDataMask),
                 mServiceUuid, mServiceUuidMask);
     }
 
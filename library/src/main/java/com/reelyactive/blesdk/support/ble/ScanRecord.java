@@ -20,6 +20,8 @@ package com.reelyactive.blesdk.support.ble;/*
 // Changes:
 //   Use package Logger class.
 //   Replace ArrayMap (new in Android L) with HashMap
+//   Index AD structures on first access and read fields straight from the raw bytes
+//   Add wrap() for lazily parsed records and in-place matchers used by ScanFilter
 
 import android.os.ParcelUuid;
 import android.support.annotation.Nullable;
@@ -29,12 +31,18 @@ import com.reelyactive.blesdk.support.ble.util.Logger;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * Represents a scan record from Bluetooth LE scan.
+ * <p>
+ * The AD structures of the record are only located the first time a field is accessed, and
+ * single fields are read straight from the raw bytes. The collection getters materialise (and
+ * cache) their collection the first time they are called.
  */
 public final class ScanRecord {
 
@@ -50,42 +58,55 @@ public final class ScanRecord {
     private static final int DATA_TYPE_LOCAL_NAME_SHORT = 0x08;
     private static final int DATA_TYPE_LOCAL_NAME_COMPLETE = 0x09;
     private static final int DATA_TYPE_TX_POWER_LEVEL = 0x0A;
-    private static final int DATA_TYPE_SERVICE_DATA = 0x16;
-    private static final int DATA_TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+    static final int DATA_TYPE_SERVICE_DATA = 0x16;
+    static final int DATA_TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
 
-    // Flags of the advertising data.
-    private final int mAdvertiseFlags;
+    // Each indexed AD structure takes three ints: field type, data offset and data length.
+    static final int INDEX_STRIDE = 3;
+    private static final int[] EMPTY_INDEX = new int[0];
 
-    @Nullable
-    private final List<ParcelUuid> mServiceUuids;
+    // Most and least significant bits of the Bluetooth base UUID.
+    private static final long BASE_UUID_MSB = BluetoothUuid.BASE_UUID.getUuid().getMostSignificantBits();
+    private static final long BASE_UUID_LSB = BluetoothUuid.BASE_UUID.getUuid().getLeastSignificantBits();
 
-    private final SparseArray<byte[]> mManufacturerSpecificData;
+    // Raw bytes of scan record.
+    private final byte[] mBytes;
 
-    private final Map<ParcelUuid, byte[]> mServiceData;
+    // Offsets of the AD structures within mBytes, built on first access.
+    private volatile int[] mIndex;
 
-    // Transmission power level(in dB).
-    private final int mTxPowerLevel;
+    // Collections materialised on demand.
+    private volatile List<ParcelUuid> mServiceUuids;
 
-    // Local name of the Bluetooth LE device.
-    private final String mDeviceName;
+    private volatile SparseArray<byte[]> mManufacturerSpecificData;
 
-    // Raw bytes of scan record.
-    private final byte[] mBytes;
+    private volatile Map<ParcelUuid, byte[]> mServiceData;
+
+    // Local name of the Bluetooth LE device.
+    private volatile String mDeviceName;
 
     /**
      * Returns the advertising flags indicating the discoverable mode and capability of the device.
      * Returns -1 if the flag field is not set.
      */
     public int getAdvertiseFlags() {
-        return mAdvertiseFlags;
+        int[] index = getIndex();
+        int i = findLastField(index, DATA_TYPE_FLAGS);
+        return i < 0 ? -1 : mBytes[index[i + 1]] & 0xFF;
     }
 
     /**
      * Returns a list of service UUIDs within the advertisement that are used to identify the
      * bluetooth GATT services.
      */
+    @Nullable
     public List<ParcelUuid> getServiceUuids() {
-        return mServiceUuids;
+        List<ParcelUuid> serviceUuids = mServiceUuids;
+        if (serviceUuids == null) {
+            serviceUuids = parseServiceUuids(getIndex());
+            mServiceUuids = serviceUuids;
+        }
+        return serviceUuids.isEmpty() ? null : serviceUuids;
     }
 
     /**
@@ -93,7 +114,12 @@ public final class ScanRecord {
      * data.
      */
     public SparseArray<byte[]> getManufacturerSpecificData() {
-        return mManufacturerSpecificData;
+        SparseArray<byte[]> manufacturerData = mManufacturerSpecificData;
+        if (manufacturerData == null) {
+            manufacturerData = parseManufacturerData(getIndex());
+            mManufacturerSpecificData = manufacturerData;
+        }
+        return manufacturerData;
     }
 
     /**
@@ -102,14 +128,25 @@ public final class ScanRecord {
      */
     @Nullable
     public byte[] getManufacturerSpecificData(int manufacturerId) {
-        return mManufacturerSpecificData.get(manufacturerId);
+        SparseArray<byte[]> manufacturerData = mManufacturerSpecificData;
+        if (manufacturerData != null) {
+            return manufacturerData.get(manufacturerId);
+        }
+        int[] index = getIndex();
+        int i = findManufacturerData(index, manufacturerId);
+        return i < 0 ? null : extractBytes(mBytes, index[i + 1] + 2, index[i + 2] - 2);
     }
 
     /**
      * Returns a map of service UUID and its corresponding service data.
      */
     public Map<ParcelUuid, byte[]> getServiceData() {
-        return mServiceData;
+        Map<ParcelUuid, byte[]> serviceData = mServiceData;
+        if (serviceData == null) {
+            serviceData = parseServiceData(getIndex());
+            mServiceData = serviceData;
+        }
+        return serviceData;
     }
 
     /**
@@ -121,7 +158,14 @@ public final class ScanRecord {
         if (serviceDataUuid == null) {
             return null;
         }
-        return mServiceData.get(serviceDataUuid);
+        Map<ParcelUuid, byte[]> serviceData = mServiceData;
+        if (serviceData != null) {
+            return serviceData.get(serviceDataUuid);
+        }
+        int[] index = getIndex();
+        int i = findServiceData(index, serviceDataUuid);
+        return i < 0 ? null : extractBytes(mBytes, index[i + 1] + BluetoothUuid.UUID_BYTES_16_BIT,
+                index[i + 2] - BluetoothUuid.UUID_BYTES_16_BIT);
     }
 
     /**
@@ -132,7 +176,9 @@ public final class ScanRecord {
      * <code>pathloss = txPowerLevel - rssi</code>
      */
     public int getTxPowerLevel() {
-        return mTxPowerLevel;
+        int[] index = getIndex();
+        int i = findLastField(index, DATA_TYPE_TX_POWER_LEVEL);
+        return i < 0 ? Integer.MIN_VALUE : mBytes[index[i + 1]];
     }
 
     /**
@@ -140,7 +186,16 @@ public final class ScanRecord {
      */
     @Nullable
     public String getDeviceName() {
-        return mDeviceName;
+        String deviceName = mDeviceName;
+        if (deviceName == null) {
+            int[] index = getIndex();
+            int i = findLastField(index, DATA_TYPE_LOCAL_NAME_SHORT, DATA_TYPE_LOCAL_NAME_COMPLETE);
+            if (i >= 0) {
+                deviceName = new String(mBytes, index[i + 1], index[i + 2]);
+                mDeviceName = deviceName;
+            }
+        }
+        return deviceName;
     }
 
     /**
@@ -150,17 +205,7 @@ public final class ScanRecord {
         return mBytes;
     }
 
-    private ScanRecord(List<ParcelUuid> serviceUuids,
-            SparseArray<byte[]> manufacturerData,
-            Map<ParcelUuid, byte[]> serviceData,
-            int advertiseFlags, int txPowerLevel,
-            String localName, byte[] bytes) {
-        mServiceUuids = serviceUuids;
-        mManufacturerSpecificData = manufacturerData;
-        mServiceData = serviceData;
-        mDeviceName = localName;
-        mAdvertiseFlags = advertiseFlags;
-        mTxPowerLevel = txPowerLevel;
+    private ScanRecord(byte[] bytes) {
         mBytes = bytes;
     }
 
@@ -176,117 +221,302 @@ public final class ScanRecord {
      * @hide
      */
     public static ScanRecord parseFromBytes(byte[] scanRecord) {
+        ScanRecord record = wrap(scanRecord);
+        if (record != null) {
+            record.getServiceUuids();
+            record.getManufacturerSpecificData();
+            record.getServiceData();
+            record.getDeviceName();
+        }
+        return record;
+    }
+
+    /**
+     * Wrap scan record bytes in a {@link ScanRecord} without parsing them.
+     * <p>
+     * The AD structures are indexed the first time one of the getters is called, and collections
+     * are only built if their getter is called. Single fields are read from {@code scanRecord},
+     * which must not be modified afterwards.
+     *
+     * @param scanRecord The scan record of Bluetooth LE advertisement and/or scan response.
+     * @hide
+     */
+    public static ScanRecord wrap(byte[] scanRecord) {
         if (scanRecord == null) {
             return null;
         }
+        return new ScanRecord(scanRecord);
+    }
 
-        int currentPos = 0;
-        int advertiseFlag = -1;
-        List<ParcelUuid> serviceUuids = new ArrayList<ParcelUuid>();
-        String localName = null;
-        int txPowerLevel = Integer.MIN_VALUE;
+    @Override
+    public String toString() {
+        return "com.reelyactive.blesdk.support.ble.ScanRecord [mAdvertiseFlags=" + getAdvertiseFlags()
+                + ", mServiceUuids=" + getServiceUuids()
+                + ", mManufacturerSpecificData=" + Utils.toString(getManufacturerSpecificData())
+                + ", mServiceData=" + Utils.toString(getServiceData())
+                + ", mTxPowerLevel=" + getTxPowerLevel() + ", mDeviceName=" + getDeviceName() + "]";
+    }
 
-        SparseArray<byte[]> manufacturerData = new SparseArray<byte[]>();
-        Map<ParcelUuid, byte[]> serviceData = new HashMap<ParcelUuid, byte[]>();
+    /**
+     * Check whether the service data associated with {@code serviceDataUuid} starts with
+     * {@code data}, under the optional {@code dataMask}, without copying it.
+     */
+    boolean matchesServiceData(ParcelUuid serviceDataUuid, byte[] data, byte[] dataMask) {
+        int[] index = getIndex();
+        int i = findServiceData(index, serviceDataUuid);
+        return i >= 0 && matchesPartialData(data, dataMask, index[i + 1] + BluetoothUuid.UUID_BYTES_16_BIT,
+                index[i + 2] - BluetoothUuid.UUID_BYTES_16_BIT);
+    }
 
-        try {
-            while (currentPos < scanRecord.length) {
-                // length is unsigned int.
-                int length = scanRecord[currentPos++] & 0xFF;
-                if (length == 0) {
-                    break;
+    /**
+     * Check whether the data of {@code manufacturerId} starts with {@code data}, under the
+     * optional {@code dataMask}, without copying it.
+     */
+    boolean matchesManufacturerData(int manufacturerId, byte[] data, byte[] dataMask) {
+        int[] index = getIndex();
+        int i = findManufacturerData(index, manufacturerId);
+        return i >= 0 && matchesPartialData(data, dataMask, index[i + 1] + 2, index[i + 2] - 2);
+    }
+
+    /**
+     * Check whether one of the advertised service UUIDs matches {@code uuid} under the optional
+     * {@code mask}, without materialising the UUID list.
+     */
+    boolean matchesServiceUuid(UUID uuid, @Nullable UUID mask) {
+        long msbMask = mask == null ? -1L : mask.getMostSignificantBits();
+        long lsbMask = mask == null ? -1L : mask.getLeastSignificantBits();
+        long msb = uuid.getMostSignificantBits() & msbMask;
+        long lsb = uuid.getLeastSignificantBits() & lsbMask;
+        int[] index = getIndex();
+        for (int i = 0; i < index.length; i += INDEX_STRIDE) {
+            int uuidLength = getServiceUuidLength(index[i]);
+            if (uuidLength == 0) {
+                continue;
+            }
+            for (int pos = index[i + 1], end = pos + index[i + 2]; pos + uuidLength <= end; pos += uuidLength) {
+                if ((readUuidMsb(pos, uuidLength) & msbMask) == msb
+                        && (readUuidLsb(pos, uuidLength) & lsbMask) == lsb) {
+                    return true;
                 }
-                // Note the length includes the length of the field type itself.
-                int dataLength = length - 1;
-                // fieldType is unsigned int.
-                int fieldType = scanRecord[currentPos++] & 0xFF;
-                switch (fieldType) {
-                    case DATA_TYPE_FLAGS:
-                        advertiseFlag = scanRecord[currentPos] & 0xFF;
-                        break;
-                    case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
-                    case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos,
-                                dataLength, BluetoothUuid.UUID_BYTES_16_BIT, serviceUuids);
-                        break;
-                    case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
-                    case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_32_BIT, serviceUuids);
-                        break;
-                    case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
-                    case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_128_BIT, serviceUuids);
-                        break;
-                    case DATA_TYPE_LOCAL_NAME_SHORT:
-                    case DATA_TYPE_LOCAL_NAME_COMPLETE:
-                        localName = new String(
-                                extractBytes(scanRecord, currentPos, dataLength));
-                        break;
-                    case DATA_TYPE_TX_POWER_LEVEL:
-                        txPowerLevel = scanRecord[currentPos];
-                        break;
-                    case DATA_TYPE_SERVICE_DATA:
-                        // The first two bytes of the service data are service data UUID in little
-                        // endian. The rest bytes are service data.
-                        int serviceUuidLength = BluetoothUuid.UUID_BYTES_16_BIT;
-                        byte[] serviceDataUuidBytes = extractBytes(scanRecord, currentPos,
-                                serviceUuidLength);
-                        ParcelUuid serviceDataUuid = BluetoothUuid.parseUuidFrom(
-                                serviceDataUuidBytes);
-                        byte[] serviceDataArray = extractBytes(scanRecord,
-                                currentPos + serviceUuidLength, dataLength - serviceUuidLength);
-                        serviceData.put(serviceDataUuid, serviceDataArray);
-                        break;
-                    case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
-                        // The first two bytes of the manufacturer specific data are
-                        // manufacturer ids in little endian.
-                        int manufacturerId = ((scanRecord[currentPos + 1] & 0xFF) << 8)
-                                + (scanRecord[currentPos] & 0xFF);
-                        byte[] manufacturerDataBytes = extractBytes(scanRecord, currentPos + 2,
-                                dataLength - 2);
-                        manufacturerData.put(manufacturerId, manufacturerDataBytes);
-                        break;
-                    default:
-                        // Just ignore, we don't handle such data type.
-                        break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the AD structure index, built on first access.
+     * <p>
+     * A record holding a malformed known structure is treated as empty, as the original parser
+     * dropped all the fields of an invalid packet.
+     */
+    int[] getIndex() {
+        int[] index = mIndex;
+        if (index == null) {
+            index = buildIndex(mBytes);
+            mIndex = index;
+        }
+        return index;
+    }
+
+    private static int[] buildIndex(byte[] scanRecord) {
+        int count = 0;
+        int currentPos = 0;
+        // First pass validates the structures and counts them, second pass fills the index.
+        while (currentPos < scanRecord.length) {
+            // length is unsigned int.
+            int length = scanRecord[currentPos] & 0xFF;
+            if (length == 0) {
+                break;
+            }
+            if (currentPos + 1 + length > scanRecord.length
+                    || length - 1 < getMinimumDataLength(scanRecord[currentPos + 1] & 0xFF)) {
+                if (isKnownField(currentPos + 1 < scanRecord.length ? scanRecord[currentPos + 1] & 0xFF : -1)) {
+                    Logger.logError("unable to parse scan record: " + Arrays.toString(scanRecord));
+                    return EMPTY_INDEX;
                 }
-                currentPos += dataLength;
+                break;
             }
+            count++;
+            currentPos += 1 + length;
+        }
+        int[] index = new int[count * INDEX_STRIDE];
+        currentPos = 0;
+        for (int i = 0; i < index.length; i += INDEX_STRIDE) {
+            int length = scanRecord[currentPos] & 0xFF;
+            // Note the length includes the length of the field type itself.
+            index[i] = scanRecord[currentPos + 1] & 0xFF;
+            index[i + 1] = currentPos + 2;
+            index[i + 2] = length - 1;
+            currentPos += 1 + length;
+        }
+        return index;
+    }
+
+    private static boolean isKnownField(int fieldType) {
+        return (fieldType >= DATA_TYPE_FLAGS && fieldType <= DATA_TYPE_TX_POWER_LEVEL)
+                || fieldType == DATA_TYPE_SERVICE_DATA
+                || fieldType == DATA_TYPE_MANUFACTURER_SPECIFIC_DATA;
+    }
+
+    private static int getMinimumDataLength(int fieldType) {
+        switch (fieldType) {
+            case DATA_TYPE_FLAGS:
+            case DATA_TYPE_TX_POWER_LEVEL:
+                return 1;
+            case DATA_TYPE_SERVICE_DATA:
+                return BluetoothUuid.UUID_BYTES_16_BIT;
+            case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    static int getServiceUuidLength(int fieldType) {
+        switch (fieldType) {
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                return BluetoothUuid.UUID_BYTES_16_BIT;
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                return BluetoothUuid.UUID_BYTES_32_BIT;
+            case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                return BluetoothUuid.UUID_BYTES_128_BIT;
+            default:
+                return 0;
+        }
+    }
 
-            if (serviceUuids.isEmpty()) {
-                serviceUuids = null;
+    // Later structures override earlier ones, as they did when parsing into maps.
+    private static int findLastField(int[] index, int fieldType) {
+        return findLastField(index, fieldType, fieldType);
+    }
+
+    private static int findLastField(int[] index, int fieldType, int otherFieldType) {
+        for (int i = index.length - INDEX_STRIDE; i >= 0; i -= INDEX_STRIDE) {
+            if (index[i] == fieldType || index[i] == otherFieldType) {
+                return i;
             }
-            return new ScanRecord(serviceUuids, manufacturerData, serviceData,
-                    advertiseFlag, txPowerLevel, localName, scanRecord);
-        } catch (Exception e) {
-            Logger.logError("unable to parse scan record: " + Arrays.toString(scanRecord), e);
-            // As the record is invalid, ignore all the parsed results for this packet
-            // and return an empty record with raw scanRecord bytes in results
-            return new ScanRecord(null, null, null, -1, Integer.MIN_VALUE, null, scanRecord);
         }
+        return -1;
     }
 
-    @Override
-    public String toString() {
-        return "com.reelyactive.blesdk.support.ble.ScanRecord [mAdvertiseFlags=" + mAdvertiseFlags + ", mServiceUuids=" + mServiceUuids
-                + ", mManufacturerSpecificData=" + Utils.toString(mManufacturerSpecificData)
-                + ", mServiceData=" + Utils.toString(mServiceData)
-                + ", mTxPowerLevel=" + mTxPowerLevel + ", mDeviceName=" + mDeviceName + "]";
-    }
-
-    // Parse service UUIDs.
-    private static int parseServiceUuid(byte[] scanRecord, int currentPos, int dataLength,
-            int uuidLength, List<ParcelUuid> serviceUuids) {
-        while (dataLength > 0) {
-            byte[] uuidBytes = extractBytes(scanRecord, currentPos,
-                    uuidLength);
-            serviceUuids.add(BluetoothUuid.parseUuidFrom(uuidBytes));
-            dataLength -= uuidLength;
-            currentPos += uuidLength;
+    private int findManufacturerData(int[] index, int manufacturerId) {
+        for (int i = index.length - INDEX_STRIDE; i >= 0; i -= INDEX_STRIDE) {
+            if (index[i] == DATA_TYPE_MANUFACTURER_SPECIFIC_DATA
+                    && readUnsignedShort(index[i + 1]) == manufacturerId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findServiceData(int[] index, ParcelUuid serviceDataUuid) {
+        // Service data UUIDs are always 16-bit in the records we parse.
+        if (!BluetoothUuid.is16BitUuid(serviceDataUuid)) {
+            return -1;
+        }
+        int serviceId = BluetoothUuid.getServiceIdentifierFromParcelUuid(serviceDataUuid);
+        for (int i = index.length - INDEX_STRIDE; i >= 0; i -= INDEX_STRIDE) {
+            if (index[i] == DATA_TYPE_SERVICE_DATA && readUnsignedShort(index[i + 1]) == serviceId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private List<ParcelUuid> parseServiceUuids(int[] index) {
+        List<ParcelUuid> serviceUuids = null;
+        for (int i = 0; i < index.length; i += INDEX_STRIDE) {
+            int uuidLength = getServiceUuidLength(index[i]);
+            if (uuidLength == 0) {
+                continue;
+            }
+            if (serviceUuids == null) {
+                serviceUuids = new ArrayList<ParcelUuid>();
+            }
+            for (int pos = index[i + 1], end = pos + index[i + 2]; pos + uuidLength <= end; pos += uuidLength) {
+                serviceUuids.add(new ParcelUuid(
+                        new UUID(readUuidMsb(pos, uuidLength), readUuidLsb(pos, uuidLength))));
+            }
+        }
+        return serviceUuids == null ? Collections.<ParcelUuid>emptyList() : serviceUuids;
+    }
+
+    private SparseArray<byte[]> parseManufacturerData(int[] index) {
+        SparseArray<byte[]> manufacturerData = new SparseArray<byte[]>();
+        for (int i = 0; i < index.length; i += INDEX_STRIDE) {
+            if (index[i] == DATA_TYPE_MANUFACTURER_SPECIFIC_DATA) {
+                // The first two bytes of the manufacturer specific data are
+                // manufacturer ids in little endian.
+                manufacturerData.put(readUnsignedShort(index[i + 1]),
+                        extractBytes(mBytes, index[i + 1] + 2, index[i + 2] - 2));
+            }
+        }
+        return manufacturerData;
+    }
+
+    private Map<ParcelUuid, byte[]> parseServiceData(int[] index) {
+        Map<ParcelUuid, byte[]> serviceData = new HashMap<ParcelUuid, byte[]>();
+        for (int i = 0; i < index.length; i += INDEX_STRIDE) {
+            if (index[i] == DATA_TYPE_SERVICE_DATA) {
+                // The first two bytes of the service data are service data UUID in little
+                // endian. The rest bytes are service data.
+                int serviceUuidLength = BluetoothUuid.UUID_BYTES_16_BIT;
+                ParcelUuid serviceDataUuid = new ParcelUuid(new UUID(
+                        readUuidMsb(index[i + 1], serviceUuidLength),
+                        readUuidLsb(index[i + 1], serviceUuidLength)));
+                serviceData.put(serviceDataUuid, extractBytes(mBytes,
+                        index[i + 1] + serviceUuidLength, index[i + 2] - serviceUuidLength));
+            }
+        }
+        return serviceData;
+    }
+
+    // Check whether the data pattern matches the bytes found at offset in the record.
+    private boolean matchesPartialData(byte[] data, byte[] dataMask, int offset, int length) {
+        if (data == null) {
+            // Only the presence of the field is required.
+            return true;
+        }
+        if (length < data.length) {
+            return false;
+        }
+        for (int i = 0; i < data.length; ++i) {
+            int mask = dataMask == null ? 0xFF : dataMask[i];
+            if ((mask & mBytes[offset + i]) != (mask & data[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int readUnsignedShort(int pos) {
+        return ((mBytes[pos + 1] & 0xFF) << 8) + (mBytes[pos] & 0xFF);
+    }
+
+    private long readLittleEndian(int pos, int length) {
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (mBytes[pos + i] & 0xFF);
+        }
+        return value;
+    }
+
+    // UUIDs are little endian; 16 and 32 bit UUIDs are expanded against the base UUID.
+    long readUuidMsb(int pos, int uuidLength) {
+        if (uuidLength == BluetoothUuid.UUID_BYTES_128_BIT) {
+            return readLittleEndian(pos + 8, 8);
+        }
+        return BASE_UUID_MSB + (readLittleEndian(pos, uuidLength) << 32);
+    }
+
+    private long readUuidLsb(int pos, int uuidLength) {
+        if (uuidLength == BluetoothUuid.UUID_BYTES_128_BIT) {
+            return readLittleEndian(pos, 8);
         }
-        return currentPos;
+        return BASE_UUID_LSB;
     }
 
     // Helper method to extract bytes from byte array.
@@ -295,4 +525,4 @@ public final class ScanRecord {
         System.arraycopy(scanRecord, start, bytes, 0, length);
         return bytes;
     }
-}
\ No newline at end of file
+}
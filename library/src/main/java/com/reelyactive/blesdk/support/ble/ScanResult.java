@@ -85,7 +85,7 @@ public final class ScanResult implements Parcelable {
             mDevice = BluetoothDevice.CREATOR.createFromParcel(in);
         }
         if (in.readInt() == 1) {
-            mScanRecord = ScanRecord.parseFromBytes(in.createByteArray());
+            mScanRecord = ScanRecord.wrap(in.createByteArray());
         }
         mRssi = in.readInt();
         mTimestampNanos = in.readLong();
@@ -16,6 +16,10 @@ package com.reelyactive.blesdk.support.ble;/*
 
 // THIS IS MODIFIED COPY OF THE "L" PLATFORM CLASS. BE CAREFUL ABOUT EDITS.
 // THIS CODE SHOULD FOLLOW ANDROID STYLE.
+//
+// Changes:
+//   Added SCAN_MODE_ADAPTIVE and its idle time bounds.
+//   Added the throttling of CALLBACK_TYPE_ALL_MATCHES reports.
 
 
 import android.os.Parcel;
@@ -44,6 +48,15 @@ public final class ScanSettings implements Parcelable {
      */
     public static final int SCAN_MODE_LOW_LATENCY = 2;
 
+    /**
+     * Adapt the duty cycle to the environment: the idle part of the scan cycles shrinks while new
+     * devices appear or known devices are lost, and grows while nothing changes, within the bounds
+     * set by {@link Builder#setAdaptiveIdleMillis(int, int)}.
+     * <p>
+     * This is an extension of the "L" Platform API.
+     */
+    public static final int SCAN_MODE_ADAPTIVE = 3;
+
     /**
      * Trigger a callback for every Bluetooth advertisement found that matches the filter criteria.
      * If no filter is active, all advertisement packets are reported.
@@ -90,6 +103,15 @@ public final class ScanSettings implements Parcelable {
     // Time of delay for reporting the scan result
     private long mReportDelayMillis;
 
+    // Bounds of the idle time of adaptive scan cycles
+    private int mAdaptiveMinIdleMillis;
+    private int mAdaptiveMaxIdleMillis;
+
+    // Throttling of the reports of a device already matched
+    private long mMinReportIntervalMillis;
+    private int mReportRssiDelta;
+    private boolean mReportPayloadChanges;
+
     public int getScanMode() {
         return mScanMode;
     }
@@ -109,12 +131,56 @@ public final class ScanSettings implements Parcelable {
         return mReportDelayMillis;
     }
 
+    /**
+     * Returns the shortest idle time of {@link #SCAN_MODE_ADAPTIVE} scan cycles.
+     */
+    public int getAdaptiveMinIdleMillis() {
+        return mAdaptiveMinIdleMillis;
+    }
+
+    /**
+     * Returns the longest idle time of {@link #SCAN_MODE_ADAPTIVE} scan cycles.
+     */
+    public int getAdaptiveMaxIdleMillis() {
+        return mAdaptiveMaxIdleMillis;
+    }
+
+    /**
+     * Returns the minimum time between two {@link #CALLBACK_TYPE_ALL_MATCHES} reports of the same
+     * device, 0 if they are not rate limited.
+     */
+    public long getMinReportIntervalMillis() {
+        return mMinReportIntervalMillis;
+    }
+
+    /**
+     * Returns the RSSI change, in dBm, which triggers a {@link #CALLBACK_TYPE_ALL_MATCHES} report,
+     * 0 if RSSI changes do not trigger reports.
+     */
+    public int getReportRssiDelta() {
+        return mReportRssiDelta;
+    }
+
+    /**
+     * Returns true if a change of the advertised payload triggers a
+     * {@link #CALLBACK_TYPE_ALL_MATCHES} report.
+     */
+    public boolean getReportPayloadChanges() {
+        return mReportPayloadChanges;
+    }
+
     private ScanSettings(int scanMode, int callbackType, int scanResultType,
-            long reportDelayMillis) {
+            long reportDelayMillis, int adaptiveMinIdleMillis, int adaptiveMaxIdleMillis,
+            long minReportIntervalMillis, int reportRssiDelta, boolean reportPayloadChanges) {
         mScanMode = scanMode;
         mCallbackType = callbackType;
         mScanResultType = scanResultType;
         mReportDelayMillis = reportDelayMillis;
+        mAdaptiveMinIdleMillis = adaptiveMinIdleMillis;
+        mAdaptiveMaxIdleMillis = adaptiveMaxIdleMillis;
+        mMinReportIntervalMillis = minReportIntervalMillis;
+        mReportRssiDelta = reportRssiDelta;
+        mReportPayloadChanges = reportPayloadChanges;
     }
 
     private ScanSettings(Parcel in) {
@@ -122,6 +188,11 @@ public final class ScanSettings implements Parcelable {
         mCallbackType = in.readInt();
         mScanResultType = in.readInt();
         mReportDelayMillis = in.readLong();
+        mAdaptiveMinIdleMillis = in.readInt();
+        mAdaptiveMaxIdleMillis = in.readInt();
+        mMinReportIntervalMillis = in.readLong();
+        mReportRssiDelta = in.readInt();
+        mReportPayloadChanges = in.readInt() != 0;
     }
 
     @Override
@@ -130,6 +201,11 @@ public final class ScanSettings implements Parcelable {
         dest.writeInt(mCallbackType);
         dest.writeInt(mScanResultType);
         dest.writeLong(mReportDelayMillis);
+        dest.writeInt(mAdaptiveMinIdleMillis);
+        dest.writeInt(mAdaptiveMaxIdleMillis);
+        dest.writeLong(mMinReportIntervalMillis);
+        dest.writeInt(mReportRssiDelta);
+        dest.writeInt(mReportPayloadChanges ? 1 : 0);
     }
 
     @Override
@@ -161,17 +237,23 @@ public final class ScanSettings implements Parcelable {
         private int mCallbackType = CALLBACK_TYPE_ALL_MATCHES;
         private int mScanResultType = SCAN_RESULT_TYPE_FULL;
         private long mReportDelayMillis = 0;
+        private int mAdaptiveMinIdleMillis = BluetoothLeScannerCompat.LOW_LATENCY_IDLE_MILLIS;
+        private int mAdaptiveMaxIdleMillis = BluetoothLeScannerCompat.LOW_POWER_IDLE_MILLIS;
+        private long mMinReportIntervalMillis = 0;
+        private int mReportRssiDelta = 0;
+        private boolean mReportPayloadChanges = false;
 
         /**
          * Set scan mode for Bluetooth LE scan.
          *
          * @param scanMode The scan mode can be one of {@link ScanSettings#SCAN_MODE_LOW_POWER},
-         *            {@link ScanSettings#SCAN_MODE_BALANCED} or
-         *            {@link ScanSettings#SCAN_MODE_LOW_LATENCY}.
+         *            {@link ScanSettings#SCAN_MODE_BALANCED},
+         *            {@link ScanSettings#SCAN_MODE_LOW_LATENCY} or
+         *            {@link ScanSettings#SCAN_MODE_ADAPTIVE}.
          * @throws IllegalArgumentException If the {@code scanMode} is invalid.
          */
         public Builder setScanMode(int scanMode) {
-            if (scanMode < SCAN_MODE_LOW_POWER || scanMode > SCAN_MODE_LOW_LATENCY) {
+            if (scanMode < SCAN_MODE_LOW_POWER || scanMode > SCAN_MODE_ADAPTIVE) {
                 throw new IllegalArgumentException("invalid scan mode " + scanMode);
             }
             mScanMode = scanMode;
@@ -238,12 +320,73 @@ public final class ScanSettings implements Parcelable {
             return this;
         }
 
+        /**
+         * Set the power bounds of {@link ScanSettings#SCAN_MODE_ADAPTIVE}, as the range of the idle
+         * time between two active scan windows. The defaults are the idle times of
+         * {@link ScanSettings#SCAN_MODE_LOW_LATENCY} and {@link ScanSettings#SCAN_MODE_LOW_POWER}.
+         *
+         * @throws IllegalArgumentException If {@code minIdleMillis} &lt;= 0 or
+         *            {@code maxIdleMillis} &lt; {@code minIdleMillis}.
+         */
+        public Builder setAdaptiveIdleMillis(int minIdleMillis, int maxIdleMillis) {
+            if (minIdleMillis <= 0 || maxIdleMillis < minIdleMillis) {
+                throw new IllegalArgumentException("invalid adaptive idle range " + minIdleMillis
+                        + "-" + maxIdleMillis);
+            }
+            mAdaptiveMinIdleMillis = minIdleMillis;
+            mAdaptiveMaxIdleMillis = maxIdleMillis;
+            return this;
+        }
+
+        /**
+         * Set the minimum time between two {@link ScanSettings#CALLBACK_TYPE_ALL_MATCHES} reports
+         * of the same device. The sightings in between are not reported, the first sighting after
+         * the interval is.
+         *
+         * @param minReportIntervalMillis Set to 0 to report every sighting.
+         * @throws IllegalArgumentException If {@code minReportIntervalMillis} &lt; 0.
+         */
+        public Builder setMinReportIntervalMillis(long minReportIntervalMillis) {
+            if (minReportIntervalMillis < 0) {
+                throw new IllegalArgumentException("minReportIntervalMillis must be >= 0");
+            }
+            mMinReportIntervalMillis = minReportIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Only report a device with {@link ScanSettings#CALLBACK_TYPE_ALL_MATCHES} when its RSSI
+         * moved by at least {@code rssiDelta} dBm since its last report. Combined with
+         * {@link #setReportPayloadChanges(boolean)}, either change triggers a report.
+         *
+         * @param rssiDelta Set to 0 to ignore RSSI changes.
+         * @throws IllegalArgumentException If {@code rssiDelta} &lt; 0.
+         */
+        public Builder setReportRssiDelta(int rssiDelta) {
+            if (rssiDelta < 0) {
+                throw new IllegalArgumentException("rssiDelta must be >= 0");
+            }
+            mReportRssiDelta = rssiDelta;
+            return this;
+        }
+
+        /**
+         * Only report a device with {@link ScanSettings#CALLBACK_TYPE_ALL_MATCHES} when its
+         * advertised payload differs from its last report. Combined with
+         * {@link #setReportRssiDelta(int)}, either change triggers a report.
+         */
+        public Builder setReportPayloadChanges(boolean reportPayloadChanges) {
+            mReportPayloadChanges = reportPayloadChanges;
+            return this;
+        }
+
         /**
          * Build {@link ScanSettings}.
          */
         public ScanSettings build() {
             return new ScanSettings(mScanMode, mCallbackType, mScanResultType,
-                    mReportDelayMillis);
+                    mReportDelayMillis, mAdaptiveMinIdleMillis, mAdaptiveMaxIdleMillis,
+                    mMinReportIntervalMillis, mReportRssiDelta, mReportPayloadChanges);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package com.reelyactive.blesdk.support.ble;
+
+import android.os.Build;
+
+import com.reelyactive.blesdk.support.ble.util.Clock;
+
+/**
+ * Keeps track of the scans started with the OS. From Android 7.0, an app which starts more than
+ * {@link #MAX_STARTS} scans within {@link #WINDOW_MILLIS} has its next scans silently ignored, so
+ * the scanners check {@link #getStartDelayMillis(long)} before (re)starting a scan and rather
+ * keep the current one running, or defer the change, while a start would be throttled.
+ * <p>
+ * This class is thread safe.
+ */
+final class ScanStartGovernor {
+
+    static final int MAX_STARTS = 5;
+    static final long WINDOW_MILLIS = 30000;
+    // Allowance for the scheduling delays between this class and the OS.
+    private static final long MARGIN_MILLIS = 1000;
+    // Build.VERSION_CODES.N, which introduced the throttling.
+    private static final int THROTTLING_SDK_INT = 24;
+
+    private final Clock clock;
+    private final boolean enabled;
+    // Times of the last MAX_STARTS starts, oldest at next.
+    private final long[] startTimes = new long[MAX_STARTS];
+    private int next;
+
+    ScanStartGovernor(Clock clock) {
+        this(clock, Build.VERSION.SDK_INT >= THROTTLING_SDK_INT);
+    }
+
+    /**
+     * @VisibleForTesting
+     */
+    ScanStartGovernor(Clock clock, boolean enabled) {
+        this.clock = clock;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns how long to wait before a scan can be started at {@code timeMillis} without being
+     * throttled, or 0 if it can be started then.
+     */
+    synchronized long getStartDelayMillis(long timeMillis) {
+        long oldest = startTimes[next];
+        if (!enabled || oldest == 0) {
+            return 0;
+        }
+        return Math.max(0, oldest + WINDOW_MILLIS + MARGIN_MILLIS - timeMillis);
+    }
+
+    /**
+     * Returns how long to wait before a scan can be started now without being throttled, or 0.
+     */
+    long getStartDelayMillis() {
+        return getStartDelayMillis(clock.currentTimeMillis());
+    }
+
+    /**
+     * Record a scan start.
+     */
+    synchronized void onScanStarted() {
+        startTimes[next] = clock.currentTimeMillis();
+        next = (next + 1) % MAX_STARTS;
+    }
+}
@@ -0,0 +1,28 @@
+package com.reelyactive.blesdk.support.ble.util;
+
+import android.os.Handler;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An {@link Executor} running tasks on the thread of a {@link Handler}.
+ */
+public final class HandlerExecutor implements Executor {
+
+    private final Handler handler;
+
+    public HandlerExecutor(Handler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null");
+        }
+        this.handler = handler;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (!handler.post(command)) {
+            throw new RejectedExecutionException(handler + " is exiting");
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.reelyactive.blesdk.support.ble.util;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive {@code long} values, using open addressing with linear probing so that
+ * lookups neither box nor allocate.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class LongHashSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Slots holding FREE_KEY are empty; the value FREE_KEY itself is tracked by hasFreeKey.
+    private static final long FREE_KEY = 0;
+
+    private long[] keys;
+    private boolean hasFreeKey;
+    private int size;
+
+    public LongHashSet() {
+        keys = new long[MIN_CAPACITY];
+    }
+
+    /**
+     * @return true if the value was not already in the set.
+     */
+    public boolean add(long value) {
+        if (value == FREE_KEY) {
+            if (hasFreeKey) {
+                return false;
+            }
+            hasFreeKey = true;
+            size++;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int slot = LongHashing.slot(value, mask);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = value;
+        if (++size > (keys.length >> 1)) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == FREE_KEY) {
+            return hasFreeKey;
+        }
+        int mask = keys.length - 1;
+        for (int slot = LongHashing.slot(value, mask); keys[slot] != FREE_KEY; slot = (slot + 1) & mask) {
+            if (keys[slot] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the value was in the set.
+     */
+    public boolean remove(long value) {
+        if (value == FREE_KEY) {
+            if (!hasFreeKey) {
+                return false;
+            }
+            hasFreeKey = false;
+            size--;
+            return true;
+        }
+        int mask = keys.length - 1;
+        for (int slot = LongHashing.slot(value, mask); keys[slot] != FREE_KEY; slot = (slot + 1) & mask) {
+            if (keys[slot] == value) {
+                shiftKeysBack(slot, mask);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        hasFreeKey = false;
+        size = 0;
+    }
+
+    /**
+     * Returns the values of the set, in no particular order.
+     */
+    public long[] toArray() {
+        long[] values = new long[size];
+        int i = 0;
+        if (hasFreeKey) {
+            values[i++] = FREE_KEY;
+        }
+        for (long key : keys) {
+            if (key != FREE_KEY) {
+                values[i++] = key;
+            }
+        }
+        return values;
+    }
+
+    // Close the gap left at slot by moving back the following keys of the probe sequence.
+    private void shiftKeysBack(int slot, int mask) {
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            long key = keys[next];
+            if (key == FREE_KEY) {
+                break;
+            }
+            if (LongHashing.isOutsideRange(LongHashing.slot(key, mask), slot, next)) {
+                keys[slot] = key;
+                slot = next;
+            }
+        }
+        keys[slot] = FREE_KEY;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        keys = new long[capacity];
+        int mask = capacity - 1;
+        for (long key : oldKeys) {
+            if (key != FREE_KEY) {
+                int slot = LongHashing.slot(key, mask);
+                while (keys[slot] != FREE_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.reelyactive.blesdk.support.ble.util;
+
+/**
+ * Hashing helpers shared by the open addressing {@code long} collections.
+ */
+final class LongHashing {
+
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private LongHashing() {
+    }
+
+    /**
+     * Returns the ideal slot of {@code key} in a table of {@code mask + 1} slots.
+     */
+    static int slot(long key, int mask) {
+        long hash = key * GOLDEN_RATIO;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Returns true if a key whose ideal slot is {@code ideal}, stored at {@code current}, may be
+     * moved back to the free slot {@code free} without breaking its probe sequence.
+     */
+    static boolean isOutsideRange(int ideal, int free, int current) {
+        if (free <= current) {
+            return ideal <= free || ideal > current;
+        }
+        return ideal <= free && ideal > current;
+    }
+}
@@ -0,0 +1,194 @@
+package com.reelyactive.blesdk.support.ble.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive {@code long} keys to objects, using open addressing with linear probing
+ * so that lookups neither box nor allocate.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class LongObjectHashMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Slots holding FREE_KEY are empty; the key FREE_KEY itself is stored in freeKeyValue.
+    private static final long FREE_KEY = 0;
+
+    private long[] keys;
+    private Object[] values;
+    private boolean hasFreeKey;
+    private Object freeKeyValue;
+    private int size;
+
+    public LongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize The number of entries the map should hold without growing.
+     */
+    public LongObjectHashMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity >> 1 < expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == FREE_KEY) {
+            return (V) freeKeyValue;
+        }
+        int mask = keys.length - 1;
+        for (int slot = LongHashing.slot(key, mask); keys[slot] != FREE_KEY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return (V) values[slot];
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        int mask = keys.length - 1;
+        for (int slot = LongHashing.slot(key, mask); keys[slot] != FREE_KEY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the previous value associated with {@code key}, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == FREE_KEY) {
+            V previous = (V) freeKeyValue;
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeKeyValue = value;
+            return previous;
+        }
+        int mask = keys.length - 1;
+        int slot = LongHashing.slot(key, mask);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > (keys.length >> 1)) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the value which was associated with {@code key}, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == FREE_KEY) {
+            V previous = (V) freeKeyValue;
+            if (hasFreeKey) {
+                hasFreeKey = false;
+                freeKeyValue = null;
+                size--;
+            }
+            return previous;
+        }
+        int mask = keys.length - 1;
+        for (int slot = LongHashing.slot(key, mask); keys[slot] != FREE_KEY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                shiftEntriesBack(slot, mask);
+                size--;
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        Arrays.fill(values, null);
+        hasFreeKey = false;
+        freeKeyValue = null;
+        size = 0;
+    }
+
+    /**
+     * Returns the keys of the map, in no particular order.
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int i = 0;
+        if (hasFreeKey) {
+            result[i++] = FREE_KEY;
+        }
+        for (long key : keys) {
+            if (key != FREE_KEY) {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+
+    // Close the gap left at slot by moving back the following entries of the probe sequence.
+    private void shiftEntriesBack(int slot, int mask) {
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            long key = keys[next];
+            if (key == FREE_KEY) {
+                break;
+            }
+            if (LongHashing.isOutsideRange(LongHashing.slot(key, mask), slot, next)) {
+                keys[slot] = key;
+                values[slot] = values[next];
+                slot = next;
+            }
+        }
+        keys[slot] = FREE_KEY;
+        values[slot] = null;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                int slot = LongHashing.slot(oldKeys[i], mask);
+                while (keys[slot] != FREE_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
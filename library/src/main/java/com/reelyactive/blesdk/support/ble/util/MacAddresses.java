@@ -0,0 +1,53 @@
+package com.reelyactive.blesdk.support.ble.util;
+
+/**
+ * Conversions between Bluetooth device addresses, formatted as "01:02:03:AB:CD:EF", and their
+ * 48-bit value packed in a {@code long}, which can be hashed and compared without allocating.
+ */
+public final class MacAddresses {
+
+    private static final int ADDRESS_LENGTH = 17;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private MacAddresses() {
+    }
+
+    /**
+     * Pack a device address into the 48 low bits of a {@code long}.
+     *
+     * @param address The address, in the format of "01:02:03:AB:CD:EF" (case insensitive).
+     * @throws IllegalArgumentException If the {@code address} is invalid.
+     */
+    public static long pack(String address) {
+        if (address == null || address.length() != ADDRESS_LENGTH) {
+            throw new IllegalArgumentException("invalid device address " + address);
+        }
+        long value = 0;
+        for (int i = 0; i < ADDRESS_LENGTH; i += 3) {
+            int high = Character.digit(address.charAt(i), 16);
+            int low = Character.digit(address.charAt(i + 1), 16);
+            if (high < 0 || low < 0 || (i + 2 < ADDRESS_LENGTH && address.charAt(i + 2) != ':')) {
+                throw new IllegalArgumentException("invalid device address " + address);
+            }
+            value = (value << 8) | (high << 4) | low;
+        }
+        return value;
+    }
+
+    /**
+     * Format a packed address as "01:02:03:AB:CD:EF", as returned by
+     * {@link android.bluetooth.BluetoothDevice#getAddress()}.
+     */
+    public static String unpack(long address) {
+        char[] chars = new char[ADDRESS_LENGTH];
+        for (int i = ADDRESS_LENGTH - 2, shift = 0; i >= 0; i -= 3, shift += 8) {
+            int b = (int) (address >>> shift) & 0xFF;
+            chars[i] = HEX_DIGITS[b >>> 4];
+            chars[i + 1] = HEX_DIGITS[b & 0x0F];
+            if (i + 2 < ADDRESS_LENGTH) {
+                chars[i + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,144 @@
+package com.reelyactive.blesdk.advertise;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryReportDecoderTest {
+    private static final long TIMESTAMP_MILLIS = 1476794096789L;
+
+    @Test
+    public void roundTripsReport() {
+        BinaryReportEncoder encoder = new BinaryReportEncoder();
+        encoder.setIdentity("00:1A:2B:3C:4D:5E", "public", "7265656c-7941-6374-6976-652121212121");
+        List<SightingBatch.Sighting> sightings = new ArrayList<SightingBatch.Sighting>();
+        sightings.add(sighting(new byte[]{1, 2, 3, 4, 5, 6, 7, (byte) 0xf8}, TIMESTAMP_MILLIS - 1500,
+                -60, -72, -55));
+        sightings.add(sighting(null, TIMESTAMP_MILLIS, -90));
+        encoder.encode(TIMESTAMP_MILLIS, sightings);
+
+        byte[] data = Arrays.copyOf(encoder.getBuffer(), encoder.size());
+        assertTrue(BinaryReportDecoder.isBinaryReport(data, 0, data.length));
+        BinaryReportDecoder.Report report = BinaryReportDecoder.decode(data, 0, data.length);
+
+        assertEquals("001a2b3c4d5e", report.getAddress());
+        assertEquals("public", report.getAddressType());
+        assertEquals("7265656c794163746976652121212121", report.getUuid());
+        assertEquals(TIMESTAMP_MILLIS, report.getTimestampMillis());
+        assertEquals(2, report.getDecodings().size());
+
+        BinaryReportDecoder.Decoding beacon = report.getDecodings().get(0);
+        // As returned by ScanResultParser.getSystemId(), starting with the last byte.
+        assertEquals("f807060504030201", beacon.getSystemId());
+        assertEquals(-55, beacon.getRssi());
+        assertEquals(-72, beacon.getMinRssi());
+        assertEquals(-55, beacon.getMaxRssi());
+        assertEquals(3, beacon.getCount());
+        assertEquals(TIMESTAMP_MILLIS - 1500, beacon.getLastSeenMillis());
+
+        BinaryReportDecoder.Decoding anonymous = report.getDecodings().get(1);
+        assertNull(anonymous.getSystemId());
+        assertEquals(-90, anonymous.getRssi());
+        assertEquals(1, anonymous.getCount());
+        assertEquals(TIMESTAMP_MILLIS, anonymous.getLastSeenMillis());
+    }
+
+    @Test
+    public void roundTripsNonHexUuidAndRandomAddress() {
+        BinaryReportEncoder encoder = new BinaryReportEncoder();
+        encoder.setIdentity("c0:ff:ee:00:00:01", "random", "Phone_XYZ-42");
+        encoder.encode(TIMESTAMP_MILLIS, new ArrayList<SightingBatch.Sighting>());
+
+        byte[] data = Arrays.copyOf(encoder.getBuffer(), encoder.size());
+        BinaryReportDecoder.Report report = BinaryReportDecoder.decode(data, 0, data.length);
+
+        assertEquals("c0ffee000001", report.getAddress());
+        assertEquals("random", report.getAddressType());
+        // Non word characters are dropped from the UUID, as in the JSON reports.
+        assertEquals("phone_xyz42", report.getUuid());
+        assertTrue(report.getDecodings().isEmpty());
+    }
+
+    @Test
+    public void decodesReportAtOffset() {
+        byte[] report = encode();
+        byte[] data = new byte[report.length + 7];
+        Arrays.fill(data, (byte) 0x55);
+        System.arraycopy(report, 0, data, 3, report.length);
+
+        assertFalse(BinaryReportDecoder.isBinaryReport(data, 0, data.length));
+        assertTrue(BinaryReportDecoder.isBinaryReport(data, 3, report.length));
+        BinaryReportDecoder.Report decoded = BinaryReportDecoder.decode(data, 3, report.length);
+        assertEquals("001a2b3c4d5e", decoded.getAddress());
+        assertEquals(1, decoded.getDecodings().size());
+        assertEquals(-70, decoded.getDecodings().get(0).getRssi());
+    }
+
+    @Test
+    public void rejectsTruncatedReport() {
+        byte[] data = encode();
+        for (int length = 0; length < data.length; length++) {
+            try {
+                BinaryReportDecoder.decode(data, 0, length);
+                fail("decoded a report truncated to " + length + " bytes");
+            } catch (IllegalArgumentException expected) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTrailingData() {
+        byte[] report = encode();
+        byte[] data = Arrays.copyOf(report, report.length + 1);
+        BinaryReportDecoder.decode(data, 0, data.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownVersion() {
+        byte[] data = encode();
+        data[1] = BinaryReportEncoder.VERSION + 1;
+        BinaryReportDecoder.decode(data, 0, data.length);
+    }
+
+    @Test
+    public void isSmallerThanJson() {
+        List<SightingBatch.Sighting> sightings = new ArrayList<SightingBatch.Sighting>();
+        for (int i = 0; i < 10; i++) {
+            sightings.add(sighting(new byte[]{(byte) i, 1, 2, 3, 4, 5, 6, 7}, TIMESTAMP_MILLIS - i,
+                    -50 - i));
+        }
+        ReportEncoder binary = new BinaryReportEncoder();
+        ReportEncoder json = new TiraidEncoder();
+        for (ReportEncoder encoder : Arrays.asList(binary, json)) {
+            encoder.setIdentity("00:1A:2B:3C:4D:5E", "public", "7265656c-7941-6374-6976-652121212121");
+            encoder.encode(TIMESTAMP_MILLIS, sightings);
+        }
+        assertTrue(binary.size() * 4 < json.size());
+    }
+
+    private static byte[] encode() {
+        BinaryReportEncoder encoder = new BinaryReportEncoder();
+        encoder.setIdentity("00:1A:2B:3C:4D:5E", "public", "7265656c-7941-6374-6976-652121212121");
+        encoder.encode(TIMESTAMP_MILLIS, Arrays.asList(
+                sighting(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, TIMESTAMP_MILLIS - 200000, -70)));
+        return Arrays.copyOf(encoder.getBuffer(), encoder.size());
+    }
+
+    private static SightingBatch.Sighting sighting(byte[] systemId, long lastSeenMillis,
+                                                   int... rssis) {
+        SightingBatch.Sighting sighting = new SightingBatch.Sighting(systemId);
+        for (int rssi : rssis) {
+            sighting.add(rssi, lastSeenMillis);
+        }
+        return sighting;
+    }
+}
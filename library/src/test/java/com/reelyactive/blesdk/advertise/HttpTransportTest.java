@@ -0,0 +1,224 @@
+package com.reelyactive.blesdk.advertise;
+
+import com.reelyactive.blesdk.support.ble.util.Clock;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Posts uploads to an in-process stand-in of the server.
+ */
+public class HttpTransportTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeClock clock = new FakeClock();
+    // The status codes answered to the next requests, 200 once they are used up.
+    private final List<Integer> statusCodes = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+    private HttpServer server;
+    private String url;
+    private HttpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    in = new GZIPInputStream(in);
+                }
+                requests.add(new Request(exchange.getRequestHeaders().getFirst("Content-Type"),
+                        readFully(in)));
+                int statusCode = statusCodes.isEmpty() ? 200 : statusCodes.remove(0);
+                exchange.sendResponseHeaders(statusCode, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/events";
+        transport = new HttpTransport(clock, new Random(0));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void acceptedUploadIsDone() {
+        byte[] data = "{\"event\":\"appearance\"}".getBytes();
+
+        assertTrue(transport.post(url, "application/json", data, data.length));
+        assertEquals(1, requests.size());
+        assertEquals("application/json", requests.get(0).contentType);
+        assertArrayEquals(data, requests.get(0).body);
+        assertFalse(transport.isBackingOff());
+    }
+
+    @Test
+    public void onlyTheGivenLengthIsPosted() {
+        byte[] data = "abcdef".getBytes();
+
+        assertTrue(transport.post(url, "application/octet-stream", data, 3));
+        assertArrayEquals("abc".getBytes(), requests.get(0).body);
+    }
+
+    @Test
+    public void gzippedUploadIsDecoded() {
+        transport.setGzip(true);
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 7);
+        }
+
+        assertTrue(transport.post(url, "application/json", data, data.length));
+        assertArrayEquals(data, requests.get(0).body);
+    }
+
+    @Test
+    public void rejectedUploadIsDone() {
+        statusCodes.add(400);
+
+        assertTrue(post());
+        assertFalse(transport.isBackingOff());
+    }
+
+    @Test
+    public void throttledUploadIsRetried() {
+        statusCodes.add(429);
+
+        assertFalse(post());
+        assertTrue(transport.isBackingOff());
+    }
+
+    @Test
+    public void failedUploadBacksOff() {
+        statusCodes.add(503);
+
+        assertFalse(post());
+        // Refused without a request while backing off.
+        assertFalse(post());
+        assertEquals(1, requests.size());
+
+        clock.millis += HttpTransport.BASE_BACKOFF_MILLIS;
+        assertTrue(post());
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void circuitOpensAfterConsecutiveFailures() {
+        for (int i = 0; i < HttpTransport.FAILURES_TO_OPEN; i++) {
+            statusCodes.add(503);
+            clock.millis += HttpTransport.MAX_BACKOFF_MILLIS;
+            assertFalse(post());
+        }
+        clock.millis += HttpTransport.MAX_BACKOFF_MILLIS;
+        assertFalse(post());
+        assertEquals(HttpTransport.FAILURES_TO_OPEN, requests.size());
+
+        clock.millis += HttpTransport.OPEN_MILLIS;
+        assertTrue(post());
+    }
+
+    @Test
+    public void rejectedUploadDoesNotBlockTheQueue() throws IOException {
+        UploadQueue queue = new UploadQueue(folder.newFolder());
+        UploadQueueTest.append(queue, "invalid", "valid");
+        statusCodes.add(400);
+
+        int sent = queue.replay(new UploadQueue.Sender() {
+            @Override
+            public boolean send(byte[] data, int length) {
+                return transport.post(url, "application/json", data, length);
+            }
+        }, 10);
+
+        assertEquals(2, sent);
+        assertTrue(queue.isEmpty());
+        assertEquals(Arrays.asList("invalid", "valid"),
+                Arrays.asList(new String(requests.get(0).body), new String(requests.get(1).body)));
+    }
+
+    @Test
+    public void failedUploadStaysQueued() throws IOException {
+        UploadQueue queue = new UploadQueue(folder.newFolder());
+        UploadQueueTest.append(queue, "first", "second");
+        statusCodes.add(500);
+        UploadQueue.Sender sender = new UploadQueue.Sender() {
+            @Override
+            public boolean send(byte[] data, int length) {
+                return transport.post(url, "application/json", data, length);
+            }
+        };
+
+        assertEquals(0, queue.replay(sender, 10));
+        clock.millis += HttpTransport.BASE_BACKOFF_MILLIS;
+        assertEquals(2, queue.replay(sender, 10));
+        assertEquals("first", new String(requests.get(1).body));
+    }
+
+    private boolean post() {
+        byte[] data = "{}".getBytes();
+        return transport.post(url, "application/json", data, data.length);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class Request {
+        final String contentType;
+        final byte[] body;
+
+        Request(String contentType, byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    private static final class FakeClock implements Clock {
+        long millis = 1000000;
+
+        @Override
+        public long currentTimeMillis() {
+            return millis;
+        }
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return millis * 1000000;
+        }
+    }
+}
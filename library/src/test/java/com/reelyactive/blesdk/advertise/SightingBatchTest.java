@@ -0,0 +1,89 @@
+package com.reelyactive.blesdk.advertise;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.reelyactive.blesdk.support.ble.ScanRecord;
+import com.reelyactive.blesdk.support.ble.ScanResult;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.Shadow;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class SightingBatchTest {
+    private static final long TIMESTAMP_MILLIS = 1476794096789L;
+
+    @Test
+    public void sightingsAreStrongestFirst() {
+        SightingBatch batch = new SightingBatch(new BinaryReportEncoder());
+        batch.add(Arrays.asList(result(1, -80), result(2, -70)), TIMESTAMP_MILLIS);
+        batch.add(Arrays.asList(result(3, -50), result(1, -90)), TIMESTAMP_MILLIS + 5000);
+
+        List<SightingBatch.Sighting> sightings = batch.getSightings();
+        assertEquals(3, sightings.size());
+        assertEquals(-50, sightings.get(0).lastRssi);
+        assertEquals(-70, sightings.get(1).lastRssi);
+        assertEquals(-90, sightings.get(2).lastRssi);
+        assertEquals(2, sightings.get(2).count);
+    }
+
+    @Test
+    public void sightingsOfTheSameRssiStayInFirstSeenOrder() {
+        SightingBatch batch = new SightingBatch(new BinaryReportEncoder());
+        batch.add(Arrays.asList(result(1, -60), result(2, -60), result(3, -60)), TIMESTAMP_MILLIS);
+
+        List<SightingBatch.Sighting> sightings = batch.getSightings();
+        for (int i = 0; i < sightings.size(); i++) {
+            assertEquals(i + 1, sightings.get(i).systemId[0]);
+        }
+    }
+
+    @Test
+    public void reportsListNearestFirst() {
+        SightingBatch batch = new SightingBatch(new BinaryReportEncoder());
+        batch.add(Arrays.asList(result(1, -80), result(2, -40), result(3, -60)), TIMESTAMP_MILLIS);
+
+        BinaryReportEncoder binary = new BinaryReportEncoder();
+        binary.setIdentity("00:1A:2B:3C:4D:5E", "public", "7265656c-7941-6374-6976-652121212121");
+        binary.encode(TIMESTAMP_MILLIS, batch.getSightings());
+        BinaryReportDecoder.Report report = BinaryReportDecoder.decode(
+                Arrays.copyOf(binary.getBuffer(), binary.size()), 0, binary.size());
+        assertEquals(-40, report.getDecodings().get(0).getRssi());
+        assertEquals(-60, report.getDecodings().get(1).getRssi());
+        assertEquals(-80, report.getDecodings().get(2).getRssi());
+
+        TiraidEncoder json = new TiraidEncoder();
+        json.setIdentity("00:1A:2B:3C:4D:5E", "public", "7265656c-7941-6374-6976-652121212121");
+        json.encode(TIMESTAMP_MILLIS, batch.getSightings());
+        String text = new String(json.getBuffer(), 0, json.size());
+        int nearest = text.indexOf(systemId(2));
+        int middle = text.indexOf(systemId(3));
+        int farthest = text.indexOf(systemId(1));
+        assertTrue(text, nearest >= 0 && nearest < middle && middle < farthest);
+    }
+
+    // A beacon advertising a system ID starting with id, from a device of the same number.
+    private static ScanResult result(int id, int rssi) {
+        BluetoothDevice device = Shadow.newInstanceOf(BluetoothDevice.class);
+        ReflectionHelpers.setField(device, "mAddress", String.format("00:11:22:33:44:%02X", id));
+        byte[] record = {
+                0x02, 0x01, 0x06,
+                0x0B, 0x16, 0x23, 0x2A, (byte) id, 1, 2, 3, 4, 5, 6, 7};
+        return new ScanResult(device, ScanRecord.parseFromBytes(record), rssi, 0);
+    }
+
+    // The system ID of result(id), as written in the JSON reports.
+    private static String systemId(int id) {
+        return String.format("07060504030201%02x", id);
+    }
+}
@@ -0,0 +1,131 @@
+package com.reelyactive.blesdk.advertise;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysUploadsInOrder() throws IOException {
+        UploadQueue queue = new UploadQueue(folder.newFolder());
+        append(queue, "a", "b", "c");
+        RecordingSender sender = new RecordingSender(Integer.MAX_VALUE);
+
+        assertEquals(3, queue.replay(sender, 10));
+        assertEquals(Arrays.asList("a", "b", "c"), sender.sent);
+        assertEquals(0, queue.replay(sender, 10));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void replayStopsAtMaxUploads() throws IOException {
+        UploadQueue queue = new UploadQueue(folder.newFolder());
+        append(queue, "a", "b", "c");
+        RecordingSender sender = new RecordingSender(Integer.MAX_VALUE);
+
+        assertEquals(2, queue.replay(sender, 2));
+        assertEquals(1, queue.replay(sender, 2));
+        assertEquals(Arrays.asList("a", "b", "c"), sender.sent);
+    }
+
+    @Test
+    public void failedUploadStaysAtTheHead() throws IOException {
+        UploadQueue queue = new UploadQueue(folder.newFolder());
+        append(queue, "a", "b", "c");
+
+        RecordingSender failing = new RecordingSender(1);
+        assertEquals(1, queue.replay(failing, 10));
+        assertEquals(Arrays.asList("a"), failing.sent);
+
+        RecordingSender sender = new RecordingSender(Integer.MAX_VALUE);
+        assertEquals(2, queue.replay(sender, 10));
+        assertEquals(Arrays.asList("b", "c"), sender.sent);
+    }
+
+    @Test
+    public void newProcessReplaysPreviousUploads() throws IOException {
+        File directory = folder.newFolder();
+        append(new UploadQueue(directory), "a", "b");
+
+        UploadQueue queue = new UploadQueue(directory);
+        append(queue, "c");
+        RecordingSender sender = new RecordingSender(Integer.MAX_VALUE);
+        assertFalse(queue.isEmpty());
+        assertEquals(3, queue.replay(sender, 10));
+        assertEquals(Arrays.asList("a", "b", "c"), sender.sent);
+    }
+
+    @Test
+    public void tornFrameIsIgnored() throws IOException {
+        File directory = folder.newFolder();
+        append(new UploadQueue(directory), "first", "second");
+        File[] segments = directory.listFiles();
+        assertEquals(1, segments.length);
+        RandomAccessFile file = new RandomAccessFile(segments[0], "rw");
+        try {
+            file.setLength(file.length() - 2);
+        } finally {
+            file.close();
+        }
+
+        UploadQueue queue = new UploadQueue(directory);
+        RecordingSender sender = new RecordingSender(Integer.MAX_VALUE);
+        assertEquals(1, queue.replay(sender, 10));
+        assertEquals(Arrays.asList("first"), sender.sent);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void oldestUploadsAreDroppedWhenFull() throws IOException {
+        // Segments of two 15 byte frames, at most three segments.
+        UploadQueue queue = new UploadQueue(folder.newFolder(), 32, 96);
+        for (int i = 0; i < 10; i++) {
+            append(queue, "upload" + i);
+        }
+        RecordingSender sender = new RecordingSender(Integer.MAX_VALUE);
+        queue.replay(sender, 100);
+        assertEquals(Arrays.asList("upload4", "upload5", "upload6", "upload7", "upload8",
+                "upload9"), sender.sent);
+    }
+
+    static void append(UploadQueue queue, String... uploads) {
+        for (String upload : uploads) {
+            byte[] bytes = upload.getBytes();
+            queue.append(bytes, bytes.length);
+        }
+    }
+
+    static final class RecordingSender implements UploadQueue.Sender {
+        final List<String> sent = new ArrayList<String>();
+        private int remaining;
+
+        // Sends up to maxUploads uploads, then fails.
+        RecordingSender(int maxUploads) {
+            this.remaining = maxUploads;
+        }
+
+        @Override
+        public boolean send(byte[] data, int length) {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            sent.add(new String(data, 0, length));
+            return true;
+        }
+    }
+}
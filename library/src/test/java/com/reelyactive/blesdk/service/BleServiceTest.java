@@ -0,0 +1,145 @@
+package com.reelyactive.blesdk.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
+import android.content.Context;
+import android.content.Intent;
+import android.os.ParcelUuid;
+
+import com.reelyactive.blesdk.support.ble.BluetoothLeScannerCompat;
+import com.reelyactive.blesdk.support.ble.ScanFilter;
+import com.reelyactive.blesdk.support.ble.ScanResult;
+import com.reelyactive.blesdk.support.ble.util.Clock;
+import com.reelyactive.blesdk.support.ble.util.SystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.Shadow;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs sessions over the scanner used before Android 5.0, fed with sightings of a single device.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class BleServiceTest {
+    private static final String ADDRESS = "C0:FF:EE:00:00:01";
+    private static final ParcelUuid EDDYSTONE =
+            ParcelUuid.fromString("0000FEAA-0000-1000-8000-00805F9B34FB");
+    private static final byte FRAME_UID = 0x00;
+    private static final byte FRAME_TLM = 0x20;
+
+    private BleService service;
+    private BluetoothAdapter.LeScanCallback leScanCallback;
+
+    @Before
+    public void setUp() throws ClassNotFoundException {
+        BluetoothManager manager = Shadow.newInstanceOf(BluetoothManager.class);
+        ReflectionHelpers.setField(manager, "mAdapter", BluetoothAdapter.getDefaultAdapter());
+        Context context = RuntimeEnvironment.application;
+        BluetoothLeScannerCompat scanner = ReflectionHelpers.callConstructor(
+                Class.forName("com.reelyactive.blesdk.support.ble.JbBluetoothLeScannerCompat")
+                        .asSubclass(BluetoothLeScannerCompat.class),
+                ClassParameter.from(BluetoothManager.class, manager),
+                ClassParameter.from(AlarmManager.class,
+                        context.getSystemService(Context.ALARM_SERVICE)),
+                ClassParameter.from(Clock.class, new SystemClock()),
+                ClassParameter.from(PendingIntent.class,
+                        PendingIntent.getBroadcast(context, 0, new Intent(), 0)));
+        leScanCallback = ReflectionHelpers.getField(scanner, "leScanCallback");
+        service = new BleService();
+        ReflectionHelpers.setField(service, "scanner", scanner);
+    }
+
+    @Test
+    public void sessionsAreNotifiedOfTheFramesMatchingTheirFilters() throws InterruptedException {
+        RecordingCallback uid = new RecordingCallback();
+        RecordingCallback tlm = new RecordingCallback();
+        service.openSession(Collections.singletonList(frameFilter(FRAME_UID)),
+                BleService.ScanType.LOW_POWER, uid);
+        service.openSession(Collections.singletonList(frameFilter(FRAME_TLM)),
+                BleService.ScanType.LOW_POWER, tlm);
+
+        // The device first matches the UID session only.
+        leScanCallback.onLeScan(device(), -60, frame(FRAME_UID));
+        assertEquals(FRAME_UID, frameType(uid.nextInRegion()));
+
+        // Its next frame matches the TLM session, which is now notified.
+        leScanCallback.onLeScan(device(), -60, frame(FRAME_TLM));
+        assertEquals(FRAME_TLM, frameType(tlm.nextInRegion()));
+
+        // Each session is notified once.
+        leScanCallback.onLeScan(device(), -60, frame(FRAME_UID));
+        leScanCallback.onLeScan(device(), -60, frame(FRAME_TLM));
+        assertNull(uid.pollInRegion());
+        assertNull(tlm.pollInRegion());
+    }
+
+    private static ScanFilter frameFilter(byte frameType) {
+        return new ScanFilter.Builder()
+                .setServiceData(EDDYSTONE, new byte[]{frameType}, new byte[]{(byte) 0xFF})
+                .build();
+    }
+
+    // An advertisement carrying Eddystone service data of the given frame type.
+    private static byte[] frame(byte frameType) {
+        return new byte[]{
+                0x02, 0x01, 0x06,
+                0x03, 0x03, (byte) 0xAA, (byte) 0xFE,
+                0x06, 0x16, (byte) 0xAA, (byte) 0xFE, frameType, 0x01, 0x02};
+    }
+
+    private static byte frameType(ScanResult result) {
+        return result.getScanRecord().getServiceData(EDDYSTONE)[0];
+    }
+
+    private static BluetoothDevice device() {
+        // The constructor of BluetoothDevice needs the Bluetooth service, which Robolectric does
+        // not provide.
+        BluetoothDevice device = Shadow.newInstanceOf(BluetoothDevice.class);
+        ReflectionHelpers.setField(device, "mAddress", ADDRESS);
+        return device;
+    }
+
+    private static final class RecordingCallback implements BleServiceCallback {
+        private static final long TIMEOUT_MILLIS = 5000;
+        private static final long QUIET_MILLIS = 200;
+        private final BlockingQueue<ScanResult> inRegion = new LinkedBlockingQueue<ScanResult>();
+
+        @Override
+        public boolean onBleEvent(BleService.Event event, Object data) {
+            if (event == BleService.Event.IN_REGION) {
+                inRegion.add((ScanResult) data);
+            }
+            return true;
+        }
+
+        // Waits for the next device in region, the events being delivered on a background thread.
+        ScanResult nextInRegion() throws InterruptedException {
+            ScanResult result = inRegion.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertNotNull("no device in region", result);
+            return result;
+        }
+
+        ScanResult pollInRegion() throws InterruptedException {
+            return inRegion.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
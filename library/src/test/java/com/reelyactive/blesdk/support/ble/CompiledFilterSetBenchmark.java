@@ -0,0 +1,122 @@
+package com.reelyactive.blesdk.support.ble;
+
+import android.util.Log;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the cost of matching a result against a growing number of filters, with a
+ * {@link CompiledFilterSet} and with each filter evaluated in turn.
+ * <p>
+ * Each filter selects a single device by address, manufacturer id or service data, as when an
+ * app looks for the beacons it knows of. The compiled set only evaluates the filters indexed under
+ * the keys of the result, so its cost stays about the same as the filters grow, while the linear
+ * loop grows with them.
+ * <p>
+ * Timings depend on the machine, so the benchmark is not part of the unit tests. Run it by hand,
+ * without its {@link Ignore} annotation and with {@code -Drobolectric.logging=stdout} to see the
+ * timings it logs.
+ */
+@Ignore("benchmark, run by hand")
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class CompiledFilterSetBenchmark {
+    private static final String TAG = "CompiledFilterSetBenchmark";
+    private static final int[] FILTER_COUNTS = {10, 100, 1000};
+    private static final int RESULT_COUNT = 500;
+    private static final long MEASURE_NANOS = 200 * 1000 * 1000;
+
+    private static volatile int matchCount;
+
+    @Test
+    public void compareCompiledAndLinearMatching() {
+        Random random = new Random(7);
+        List<ScanResult> results = new ArrayList<ScanResult>();
+        for (int i = 0; i < RESULT_COUNT; i++) {
+            results.add(CompiledFilterSetTest.randomResult(random));
+        }
+        for (int filterCount : FILTER_COUNTS) {
+            final List<ScanFilter> filters = selectiveFilters(filterCount);
+            final CompiledFilterSet compiled = CompiledFilterSet.compile(filters);
+            for (ScanResult result : results) {
+                assertEquals(CompiledFilterSetTest.matchesAny(filters, result),
+                        compiled.matches(result));
+            }
+            double compiledNanos = time(new Matcher() {
+                @Override
+                public boolean matches(ScanResult result) {
+                    return compiled.matches(result);
+                }
+            }, results);
+            double linearNanos = time(new Matcher() {
+                @Override
+                public boolean matches(ScanResult result) {
+                    return CompiledFilterSetTest.matchesAny(filters, result);
+                }
+            }, results);
+            Log.i(TAG, String.format(Locale.US,
+                    "%5d filters: compiled %8.1f ns/result, linear %10.1f ns/result",
+                    filterCount, compiledNanos, linearNanos));
+        }
+    }
+
+    // Filters on distinct keys, a few of which are carried by the results.
+    private static List<ScanFilter> selectiveFilters(int count) {
+        List<ScanFilter> filters = new ArrayList<ScanFilter>(count);
+        for (int i = 0; i < count; i++) {
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+            switch (i % 3) {
+                case 0:
+                    builder.setDeviceAddress(String.format(Locale.US, "00:11:22:33:%02X:%02X",
+                            (i >> 8) & 0xFF, i & 0xFF));
+                    break;
+                case 1:
+                    builder.setManufacturerData(i, new byte[]{0x01});
+                    break;
+                default:
+                    builder.setServiceData(CompiledFilterSetTest.uuid16(0xF000 + i), new byte[0]);
+                    break;
+            }
+            filters.add(builder.build());
+        }
+        return filters;
+    }
+
+    // Returns the time taken to match a result, in nanoseconds, once warmed up.
+    private static double time(Matcher matcher, List<ScanResult> results) {
+        int matches = 0;
+        int rounds = 0;
+        long elapsed = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            rounds = 0;
+            long start = System.nanoTime();
+            do {
+                for (ScanResult result : results) {
+                    if (matcher.matches(result)) {
+                        matches++;
+                    }
+                }
+                rounds++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < MEASURE_NANOS);
+        }
+        // Keep the matches alive.
+        matchCount = matches;
+        return (double) elapsed / rounds / results.size();
+    }
+
+    private interface Matcher {
+        boolean matches(ScanResult result);
+    }
+}
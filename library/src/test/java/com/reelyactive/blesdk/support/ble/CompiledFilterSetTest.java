@@ -0,0 +1,201 @@
+package com.reelyactive.blesdk.support.ble;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.ParcelUuid;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.Shadow;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link CompiledFilterSet} matches exactly the results matched by evaluating each
+ * of its filters in turn.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class CompiledFilterSetTest {
+    private static final String[] ADDRESSES = {
+            "00:11:22:33:44:55", "00:11:22:33:44:56", "C0:FF:EE:00:00:01", "DE:AD:BE:EF:00:01"};
+    private static final int[] SERVICE_IDS = {0xFEAA, 0x180F, 0xFEED, 0x2A23};
+    private static final int[] MANUFACTURER_IDS = {0x004C, 0x0059, 0x00E0};
+    private static final String[] NAMES = {"beacon", "tag"};
+    private static final ParcelUuid SERVICE_128 =
+            ParcelUuid.fromString("7265656C-7941-6374-6976-652121212121");
+
+    @Test
+    public void emptyListMatchesEverything() {
+        CompiledFilterSet filters = CompiledFilterSet.compile(Collections.<ScanFilter>emptyList());
+        assertTrue(filters.matches(new ScanResult(null, null, -60, 0)));
+        assertTrue(CompiledFilterSet.compile(null).matches(new ScanResult(null, null, -60, 0)));
+    }
+
+    @Test
+    public void filterWithoutCriteriaMatchesEverything() {
+        List<ScanFilter> filters = new ArrayList<ScanFilter>();
+        filters.add(new ScanFilter.Builder().setManufacturerData(0x004C, new byte[0]).build());
+        filters.add(new ScanFilter.Builder().build());
+        assertTrue(CompiledFilterSet.compile(filters).matches(new ScanResult(null, null, -60, 0)));
+    }
+
+    @Test
+    public void addressFilterDoesNotMatchResultWithoutDevice() {
+        List<ScanFilter> filters = Collections.singletonList(
+                new ScanFilter.Builder().setDeviceAddress(ADDRESSES[0]).build());
+        assertFalse(CompiledFilterSet.compile(filters).matches(new ScanResult(null, null, -60, 0)));
+    }
+
+    @Test
+    public void matchesLikeEachFilterInTurn() {
+        Random random = new Random(42);
+        List<ScanResult> results = new ArrayList<ScanResult>();
+        for (int i = 0; i < 500; i++) {
+            results.add(randomResult(random));
+        }
+        int matched = 0;
+        int total = 0;
+        for (int round = 0; round < 200; round++) {
+            List<ScanFilter> filters = new ArrayList<ScanFilter>();
+            int count = 1 + random.nextInt(12);
+            for (int i = 0; i < count; i++) {
+                filters.add(randomFilter(random));
+            }
+            CompiledFilterSet compiled = CompiledFilterSet.compile(filters);
+            for (ScanResult result : results) {
+                boolean matches = matchesAny(filters, result);
+                assertEquals("filters " + filters + ", result " + result,
+                        matches, compiled.matches(result));
+                matched += matches ? 1 : 0;
+                total++;
+            }
+        }
+        // The filters and results are random, but both outcomes must be well represented.
+        assertTrue(matched > total / 20 && matched < total - total / 20);
+    }
+
+    // The reference: the filters evaluated one after the other.
+    static boolean matchesAny(List<ScanFilter> filters, ScanResult result) {
+        for (ScanFilter filter : filters) {
+            if (filter.matches(result)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static ScanFilter randomFilter(Random random) {
+        ScanFilter.Builder builder = new ScanFilter.Builder();
+        // Each criterion is set at random, at least one of them.
+        boolean any = false;
+        while (!any) {
+            if (random.nextInt(5) == 0) {
+                builder.setDeviceAddress(ADDRESSES[random.nextInt(ADDRESSES.length)]);
+                any = true;
+            }
+            if (random.nextInt(3) == 0) {
+                byte[] data = random.nextBoolean() ? new byte[0] : new byte[]{(byte) random.nextInt(4)};
+                int id = MANUFACTURER_IDS[random.nextInt(MANUFACTURER_IDS.length)];
+                if (random.nextBoolean()) {
+                    builder.setManufacturerData(id, data);
+                } else {
+                    builder.setManufacturerData(id, data, new byte[data.length]);
+                }
+                any = true;
+            }
+            if (random.nextInt(3) == 0) {
+                byte[] data = random.nextBoolean() ? new byte[0] : new byte[]{(byte) random.nextInt(4)};
+                builder.setServiceData(uuid16(SERVICE_IDS[random.nextInt(SERVICE_IDS.length)]), data);
+                any = true;
+            }
+            if (random.nextInt(3) == 0) {
+                ParcelUuid uuid = random.nextInt(4) == 0
+                        ? SERVICE_128 : uuid16(SERVICE_IDS[random.nextInt(SERVICE_IDS.length)]);
+                if (random.nextInt(4) == 0) {
+                    builder.setServiceUuid(uuid,
+                            ParcelUuid.fromString("0000FF00-0000-0000-0000-000000000000"));
+                } else {
+                    builder.setServiceUuid(uuid);
+                }
+                any = true;
+            }
+            if (random.nextInt(6) == 0) {
+                builder.setDeviceName(NAMES[random.nextInt(NAMES.length)]);
+                any = true;
+            }
+        }
+        return builder.build();
+    }
+
+    static ScanResult randomResult(Random random) {
+        BluetoothDevice device = random.nextInt(10) == 0
+                ? null : device(ADDRESSES[random.nextInt(ADDRESSES.length)]);
+        if (random.nextInt(10) == 0) {
+            return new ScanResult(device, null, -60, 0);
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        writeField(record, 0x01, new byte[]{0x06});
+        if (random.nextBoolean()) {
+            // Complete list of 16-bit service UUIDs.
+            int first = SERVICE_IDS[random.nextInt(SERVICE_IDS.length)];
+            int second = SERVICE_IDS[random.nextInt(SERVICE_IDS.length)];
+            writeField(record, 0x03, new byte[]{(byte) first, (byte) (first >> 8), (byte) second,
+                    (byte) (second >> 8)});
+        }
+        if (random.nextInt(4) == 0) {
+            // Complete list of 128-bit service UUIDs, least significant byte first.
+            byte[] uuid = new byte[16];
+            long msb = SERVICE_128.getUuid().getMostSignificantBits();
+            long lsb = SERVICE_128.getUuid().getLeastSignificantBits();
+            for (int i = 0; i < 8; i++) {
+                uuid[i] = (byte) (lsb >>> (8 * i));
+                uuid[8 + i] = (byte) (msb >>> (8 * i));
+            }
+            writeField(record, 0x07, uuid);
+        }
+        if (random.nextBoolean()) {
+            int id = MANUFACTURER_IDS[random.nextInt(MANUFACTURER_IDS.length)];
+            writeField(record, 0xFF, new byte[]{(byte) id, (byte) (id >> 8),
+                    (byte) random.nextInt(4), 0x42});
+        }
+        if (random.nextBoolean()) {
+            int id = SERVICE_IDS[random.nextInt(SERVICE_IDS.length)];
+            writeField(record, 0x16, new byte[]{(byte) id, (byte) (id >> 8),
+                    (byte) random.nextInt(4)});
+        }
+        if (random.nextInt(3) == 0) {
+            writeField(record, 0x09, NAMES[random.nextInt(NAMES.length)].getBytes());
+        }
+        return new ScanResult(device, ScanRecord.parseFromBytes(record.toByteArray()),
+                -40 - random.nextInt(60), 0);
+    }
+
+    static BluetoothDevice device(String address) {
+        // The constructor of BluetoothDevice needs the Bluetooth service, which Robolectric does
+        // not provide.
+        BluetoothDevice device = Shadow.newInstanceOf(BluetoothDevice.class);
+        ReflectionHelpers.setField(device, "mAddress", address);
+        return device;
+    }
+
+    static ParcelUuid uuid16(int id) {
+        return ParcelUuid.fromString(String.format("0000%04X-0000-1000-8000-00805F9B34FB", id));
+    }
+
+    private static void writeField(ByteArrayOutputStream record, int type, byte[] data) {
+        record.write(data.length + 1);
+        record.write(type);
+        record.write(data, 0, data.length);
+    }
+}
@@ -0,0 +1,309 @@
+package com.reelyactive.blesdk.support.ble;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.ParcelUuid;
+
+import com.reelyactive.blesdk.support.ble.util.MacAddresses;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the orders and indexes of a {@link DeviceTable} against a full sort or scan of its
+ * devices, through random sightings, lost devices and evictions.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class DeviceTableTest {
+    private static final int DEVICE_COUNT = 64;
+    private static final int MANUFACTURER_ID = 0x004C;
+
+    private final Random random = new Random(19);
+    private final BluetoothDevice[] devices = new BluetoothDevice[DEVICE_COUNT];
+    private DeviceTable table;
+    private CompiledFilterSet all;
+    private ParcelUuid eddystone;
+    // The last seen time of the devices expected in the table, by packed address.
+    private final Map<Long, Long> expected = new HashMap<Long, Long>();
+    private long nowMillis = 1000000;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < DEVICE_COUNT; i++) {
+            devices[i] = CompiledFilterSetTest.device(String.format(Locale.US,
+                    "00:11:22:33:44:%02X", i));
+        }
+        table = new DeviceTable();
+        all = CompiledFilterSet.compile(null);
+        eddystone = CompiledFilterSetTest.uuid16(0xFEAA);
+    }
+
+    @Test
+    public void nearestAreStrongestFirst() {
+        table.put(address(0), result(0, -70, nowMillis, null));
+        table.put(address(1), result(1, -40, nowMillis, null));
+        table.put(address(2), result(2, -90, nowMillis, null));
+
+        assertEquals(ranks(-40, -70, -90), ranksOf(table.getNearest(10, all)));
+        assertEquals(ranks(-40, -70), ranksOf(table.getNearest(2, all)));
+    }
+
+    @Test
+    public void deviceMovesWhenItsSmoothedRssiCrossesOthers() {
+        table.put(address(0), result(0, -70, nowMillis, null));
+        table.put(address(1), result(1, -60, nowMillis, null));
+        // The moving average of device 0 climbs past device 1 in a few sightings.
+        for (int i = 0; i < 10; i++) {
+            nowMillis += 100;
+            table.put(address(0), result(0, -30, nowMillis, null));
+        }
+        List<DeviceState> nearest = table.getNearest(2, all);
+        assertEquals(address(0), addressOf(nearest.get(0)));
+        assertEquals(address(1), addressOf(nearest.get(1)));
+    }
+
+    @Test
+    public void rssiQueryStopsAtMinimum() {
+        table.put(address(0), result(0, -70, nowMillis, null));
+        table.put(address(1), result(1, -40, nowMillis, null));
+        table.put(address(2), result(2, -90, nowMillis, null));
+        table.put(address(3), result(3, -55, nowMillis, null));
+
+        DeviceQuery query = new DeviceQuery.Builder().setRssiRange(-70, -50).build();
+        assertEquals(ranks(-55, -70), ranksOf(table.query(query)));
+    }
+
+    @Test
+    public void staysOrderedThroughRandomOperations() {
+        for (int step = 0; step < 20000; step++) {
+            int operation = random.nextInt(100);
+            if (operation < 80) {
+                sight();
+            } else if (operation < 83) {
+                // Lost devices.
+                long before = nowMillis - random.nextInt(3000);
+                List<DeviceTable.Entry> lost = table.removeSeenBefore(before);
+                Set<Long> expectedLost = new HashSet<Long>();
+                for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+                    if (entry.getValue() < before) {
+                        expectedLost.add(entry.getKey());
+                    }
+                }
+                assertEquals(expectedLost, addressesOfEntries(lost));
+                expected.keySet().removeAll(expectedLost);
+            } else if (operation < 85) {
+                table.setBudget(1 + random.nextInt(DEVICE_COUNT), DeviceTable.DEFAULT_MAX_BYTES);
+                takeEvicted(-1);
+            } else {
+                checkQuery();
+            }
+            checkOrders();
+        }
+        assertTrue(table.getEvictedCount() > 0);
+    }
+
+    // A sighting of a random device, now or a little earlier as for batched results.
+    private void sight() {
+        int device = random.nextInt(DEVICE_COUNT);
+        nowMillis += random.nextInt(50);
+        long lastSeenMillis = random.nextInt(10) == 0 ? nowMillis - random.nextInt(500) : nowMillis;
+        int rssi = random.nextInt(20) == 0 ? -128 + random.nextInt(150) : -100 + random.nextInt(70);
+        byte[] payload = randomPayload();
+        boolean stored = table.put(address(device), result(device, rssi, lastSeenMillis, payload));
+        Long previous = expected.get(address(device));
+        assertEquals(previous == null || previous <= lastSeenMillis, stored);
+        if (stored) {
+            expected.put(address(device), lastSeenMillis);
+        }
+        takeEvicted(address(device));
+    }
+
+    // The evicted devices are the least recently seen ones, but for the device just stored.
+    private void takeEvicted(long spared) {
+        List<DeviceTable.Entry> evicted = table.takeEvicted();
+        for (DeviceTable.Entry entry : evicted) {
+            long lastSeenMillis = expected.remove(entry.getAddress());
+            for (Map.Entry<Long, Long> remaining : expected.entrySet()) {
+                assertTrue(remaining.getKey() == spared || remaining.getValue() >= lastSeenMillis);
+            }
+        }
+        assertTrue(table.size() <= table.getMaxDevices());
+    }
+
+    private void checkOrders() {
+        List<DeviceState> states = table.getStates(all);
+        assertEquals(expected.keySet(), addressesOf(states));
+        assertEquals(expected.size(), table.size());
+
+        // Oldest first.
+        for (int i = 1; i < states.size(); i++) {
+            assertTrue(lastSeenMillis(states.get(i - 1)) <= lastSeenMillis(states.get(i)));
+        }
+
+        // The chain by smoothed RSSI holds every device, as a full sort would order them.
+        List<DeviceState> nearest = table.getNearest(Integer.MAX_VALUE, all);
+        assertEquals(expected.keySet(), addressesOf(nearest));
+        assertEquals(ranksOf(sortedByRank(states)), ranksOf(nearest));
+    }
+
+    private void checkQuery() {
+        DeviceQuery.Builder builder = new DeviceQuery.Builder();
+        int kind = random.nextInt(4);
+        if (kind == 0 || random.nextBoolean()) {
+            int min = -110 + random.nextInt(80);
+            builder.setRssiRange(min, min + random.nextInt(40));
+        }
+        if (kind == 1) {
+            long until = nowMillis - random.nextInt(1000);
+            builder.setLastSeenRange(until - random.nextInt(2000), until);
+        }
+        if (kind == 2) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    builder.setManufacturerId(MANUFACTURER_ID);
+                    break;
+                case 1:
+                    builder.setServiceUuid(eddystone);
+                    break;
+                default:
+                    builder.setSystemId(String.format(Locale.US, "07060504030201%02x",
+                            random.nextInt(4)));
+                    break;
+            }
+        }
+        boolean limited = random.nextBoolean();
+        if (limited) {
+            builder.setLimit(1 + random.nextInt(8));
+        }
+        DeviceQuery query = builder.build();
+
+        List<DeviceState> selected = new ArrayList<DeviceState>();
+        for (DeviceState state : table.getStates(all)) {
+            if (query.matches(state.getLastResult(), lastSeenMillis(state), state.getAverageRssi())) {
+                selected.add(state);
+            }
+        }
+        List<DeviceState> actual = table.query(query);
+        for (DeviceState state : actual) {
+            assertTrue(query.matches(state.getLastResult(), lastSeenMillis(state),
+                    state.getAverageRssi()));
+        }
+        assertEquals(addressesOf(actual).size(), actual.size());
+        assertEquals(Math.min(selected.size(), query.getLimit()), actual.size());
+        if (query.hasIndexedCriteria()) {
+            if (!limited) {
+                assertEquals(addressesOf(selected), addressesOf(actual));
+            }
+        } else if (query.hasLastSeenRange() || !query.hasRssiRange()) {
+            // Newest first.
+            Collections.reverse(selected);
+            for (int i = 0; i < actual.size(); i++) {
+                assertEquals(lastSeenMillis(selected.get(i)), lastSeenMillis(actual.get(i)));
+            }
+        } else {
+            List<Integer> expectedRanks = ranksOf(sortedByRank(selected));
+            assertEquals(expectedRanks.subList(0, actual.size()), ranksOf(actual));
+        }
+    }
+
+    private static List<DeviceState> sortedByRank(List<DeviceState> states) {
+        List<DeviceState> sorted = new ArrayList<DeviceState>(states);
+        Collections.sort(sorted, new Comparator<DeviceState>() {
+            @Override
+            public int compare(DeviceState lhs, DeviceState rhs) {
+                return rankOf(rhs) - rankOf(lhs);
+            }
+        });
+        return sorted;
+    }
+
+    // The smoothed RSSI rounded down to the dBm, as the table ranks it.
+    private static int rankOf(DeviceState state) {
+        return (int) Math.floor(state.getAverageRssi());
+    }
+
+    private static List<Integer> ranksOf(List<DeviceState> states) {
+        List<Integer> ranks = new ArrayList<Integer>(states.size());
+        for (DeviceState state : states) {
+            ranks.add(rankOf(state));
+        }
+        return ranks;
+    }
+
+    private static List<Integer> ranks(int... ranks) {
+        List<Integer> list = new ArrayList<Integer>(ranks.length);
+        for (int rank : ranks) {
+            list.add(rank);
+        }
+        return list;
+    }
+
+    private static long lastSeenMillis(DeviceState state) {
+        return TimeUnit.NANOSECONDS.toMillis(state.getLastResult().getTimestampNanos());
+    }
+
+    private static long addressOf(DeviceState state) {
+        return MacAddresses.pack(state.getLastResult().getDevice().getAddress());
+    }
+
+    private static Set<Long> addressesOf(List<DeviceState> states) {
+        Set<Long> addresses = new HashSet<Long>();
+        for (DeviceState state : states) {
+            assertFalse(addresses.contains(addressOf(state)));
+            addresses.add(addressOf(state));
+        }
+        return addresses;
+    }
+
+    private static Set<Long> addressesOfEntries(List<DeviceTable.Entry> entries) {
+        Set<Long> addresses = new HashSet<Long>();
+        for (DeviceTable.Entry entry : entries) {
+            addresses.add(entry.getAddress());
+        }
+        return addresses;
+    }
+
+    private long address(int device) {
+        return MacAddresses.pack(devices[device].getAddress());
+    }
+
+    private ScanResult result(int device, int rssi, long lastSeenMillis, byte[] payload) {
+        return new ScanResult(devices[device], payload == null ? null : ScanRecord.wrap(payload),
+                rssi, TimeUnit.MILLISECONDS.toNanos(lastSeenMillis));
+    }
+
+    // An advertisement with manufacturer data, Eddystone service UUIDs or a system id, or none.
+    private byte[] randomPayload() {
+        switch (random.nextInt(4)) {
+            case 0:
+                return new byte[]{0x04, (byte) 0xFF, (byte) MANUFACTURER_ID, 0x00,
+                        (byte) random.nextInt(4)};
+            case 1:
+                return new byte[]{0x03, 0x03, (byte) 0xAA, (byte) 0xFE};
+            case 2:
+                return new byte[]{0x0B, 0x16, 0x23, 0x2A,
+                        (byte) random.nextInt(4), 1, 2, 3, 4, 5, 6, 7};
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.reelyactive.blesdk.support.ble;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
+import android.content.Context;
+import android.content.Intent;
+
+import com.reelyactive.blesdk.support.ble.util.Clock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.Shadow;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowBluetoothAdapter;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class JbBluetoothLeScannerCompatTest {
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final FakeClock clock = new FakeClock();
+    private BluetoothAdapter adapter;
+    private JbBluetoothLeScannerCompat scanner;
+
+    @Before
+    public void setUp() {
+        adapter = BluetoothAdapter.getDefaultAdapter();
+        BluetoothManager manager = Shadow.newInstanceOf(BluetoothManager.class);
+        ReflectionHelpers.setField(manager, "mAdapter", adapter);
+        Context context = RuntimeEnvironment.application;
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent alarmIntent = PendingIntent.getBroadcast(context, 0, new Intent(), 0);
+        // The OS throttles scan starts from Android 7.0, on which this backend still runs.
+        final ScanStartGovernor governor = new ScanStartGovernor(clock, true);
+        scanner = new JbBluetoothLeScannerCompat(manager, alarmManager, clock, alarmIntent) {
+            @Override
+            ScanStartGovernor getStartGovernor() {
+                return governor;
+            }
+        };
+    }
+
+    @Test
+    public void scanKeptRunningThroughIdleTimeStopsWithLastClient() {
+        ScanCallback callback = new ScanCallback() {
+        };
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
+        scanner.startScan(new ArrayList<ScanFilter>(), settings, callback, DIRECT_EXECUTOR);
+
+        // Low latency windows until a restart would be throttled: the scan then runs on.
+        for (int i = 0; i < ScanStartGovernor.MAX_STARTS; i++) {
+            runScanWindow();
+        }
+        assertTrue(isScanning());
+
+        // The last client stops during the idle time, when no window will close the scan.
+        scanner.stopScan(callback);
+        runScanCycleTasks();
+        assertFalse(isScanning());
+    }
+
+    @Test
+    public void scanStopsAtEndOfWindowWhenNotThrottled() {
+        ScanCallback callback = new ScanCallback() {
+        };
+        scanner.startScan(new ArrayList<ScanFilter>(), new ScanSettings.Builder().build(), callback,
+                DIRECT_EXECUTOR);
+
+        runScanWindow();
+        assertFalse(isScanning());
+        scanner.stopScan(callback);
+        runScanCycleTasks();
+        assertFalse(isScanning());
+    }
+
+    private void runScanWindow() {
+        scanner.onScanWindowStart();
+        clock.millis += scanner.getScanActiveMillis();
+        scanner.onScanWindowEnd();
+        clock.millis += scanner.getScanIdleMillis();
+    }
+
+    private void runScanCycleTasks() {
+        ((ShadowLooper) ShadowExtractor.extract(scanner.getScanCycleHandler().getLooper())).idle();
+    }
+
+    private boolean isScanning() {
+        ShadowBluetoothAdapter shadowAdapter = (ShadowBluetoothAdapter) ShadowExtractor.extract(adapter);
+        return !shadowAdapter.getLeScanCallbacks().isEmpty();
+    }
+
+    private static final class FakeClock implements Clock {
+        long millis = 1000000;
+
+        @Override
+        public long currentTimeMillis() {
+            return millis;
+        }
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return millis * 1000000;
+        }
+    }
+}
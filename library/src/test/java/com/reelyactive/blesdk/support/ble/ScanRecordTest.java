@@ -0,0 +1,348 @@
+package com.reelyactive.blesdk.support.ble;
+
+import android.os.ParcelUuid;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a record read lazily, field by field from its raw bytes, agrees with the same record
+ * parsed eagerly into collections, including when the record is malformed or truncated.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class ScanRecordTest {
+    private static final int[] SERVICE_IDS = {0xFEAA, 0x2A23, 0x0001};
+    private static final int[] MANUFACTURER_IDS = {0x004C, 0x0059, 0x0000};
+    private static final int UNKNOWN_FIELD_TYPE = 0x30;
+
+    @Test
+    public void readsFieldsOfWellFormedRecord() {
+        byte[] bytes = {
+                0x02, 0x01, 0x06,
+                0x03, 0x03, (byte) 0xAA, (byte) 0xFE,
+                0x06, 0x16, (byte) 0xAA, (byte) 0xFE, 0x10, 0x20, 0x30,
+                0x05, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15,
+                0x02, 0x0A, (byte) 0xF4,
+                0x04, 0x09, 'a', 'b', 'c'};
+        ScanRecord lazy = ScanRecord.wrap(bytes);
+        ParcelUuid eddystone = CompiledFilterSetTest.uuid16(0xFEAA);
+
+        assertEquals(0x06, lazy.getAdvertiseFlags());
+        assertEquals(-12, lazy.getTxPowerLevel());
+        assertEquals("abc", lazy.getDeviceName());
+        assertArrayEquals(new byte[]{0x10, 0x20, 0x30}, lazy.getServiceData(eddystone));
+        assertArrayEquals(new byte[]{0x02, 0x15}, lazy.getManufacturerSpecificData(0x004C));
+        assertTrue(lazy.matchesServiceUuid(eddystone.getUuid(), null));
+        assertTrue(lazy.matchesServiceData(eddystone, new byte[]{0x10, 0x00},
+                new byte[]{(byte) 0xFF, 0x00}));
+        assertFalse(lazy.matchesServiceData(eddystone, new byte[]{0x10, 0x20, 0x30, 0x40}, null));
+        assertTrue(lazy.matchesManufacturerData(0x004C, new byte[]{0x02}, null));
+        assertFalse(lazy.matchesManufacturerData(0x0059, null, null));
+        assertEquals(eddystone.getUuid().getMostSignificantBits(), lazy.readUuidMsb(5, 2));
+        assertAgree(bytes);
+    }
+
+    @Test
+    public void expandsUuidsOfEachLength() {
+        UUID uuid128 = UUID.fromString("7265656c-7941-6374-6976-652121212121");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x05);
+        out.write(0x05);
+        out.write(new byte[]{0x78, 0x56, 0x34, 0x12}, 0, 4);
+        out.write(0x11);
+        out.write(0x07);
+        out.write(reverse(uuidBytes(uuid128)), 0, 16);
+        byte[] bytes = out.toByteArray();
+        ScanRecord lazy = ScanRecord.wrap(bytes);
+
+        UUID uuid32 = UUID.fromString("12345678-0000-1000-8000-00805F9B34FB");
+        assertEquals(uuid32.getMostSignificantBits(), lazy.readUuidMsb(2, 4));
+        assertEquals(uuid128.getMostSignificantBits(), lazy.readUuidMsb(8, 16));
+        assertTrue(lazy.matchesServiceUuid(uuid32, null));
+        assertTrue(lazy.matchesServiceUuid(uuid128, null));
+        assertEquals(Arrays.asList(new ParcelUuid(uuid32), new ParcelUuid(uuid128)),
+                ScanRecord.parseFromBytes(bytes).getServiceUuids());
+        assertAgree(bytes);
+    }
+
+    @Test
+    public void truncatedKnownFieldEmptiesTheRecord() {
+        // The manufacturer data claims more bytes than the record holds.
+        byte[] bytes = {
+                0x02, 0x01, 0x06,
+                0x03, 0x03, (byte) 0xAA, (byte) 0xFE,
+                0x09, (byte) 0xFF, 0x4C, 0x00, 0x02};
+        ScanRecord lazy = ScanRecord.wrap(bytes);
+        assertEquals(-1, lazy.getAdvertiseFlags());
+        assertFalse(lazy.matchesServiceUuid(CompiledFilterSetTest.uuid16(0xFEAA).getUuid(), null));
+        assertFalse(lazy.matchesManufacturerData(0x004C, null, null));
+        assertNull(ScanRecord.parseFromBytes(bytes).getServiceUuids());
+        assertAgree(bytes);
+    }
+
+    @Test
+    public void knownFieldTooShortEmptiesTheRecord() {
+        // Manufacturer data without a whole manufacturer id, then service data without its UUID.
+        byte[][] records = {
+                {0x02, 0x01, 0x06, 0x02, (byte) 0xFF, 0x4C},
+                {0x02, 0x01, 0x06, 0x02, 0x16, (byte) 0xAA},
+                {0x02, 0x01, 0x06, 0x01, 0x0A}};
+        for (byte[] bytes : records) {
+            assertEquals(-1, ScanRecord.wrap(bytes).getAdvertiseFlags());
+            assertAgree(bytes);
+        }
+    }
+
+    @Test
+    public void truncatedUnknownFieldEndsTheRecord() {
+        byte[] bytes = {
+                0x02, 0x01, 0x06,
+                0x09, UNKNOWN_FIELD_TYPE, 0x01};
+        assertEquals(0x06, ScanRecord.wrap(bytes).getAdvertiseFlags());
+        assertAgree(bytes);
+    }
+
+    @Test
+    public void zeroLengthEndsTheRecord() {
+        byte[] bytes = {
+                0x02, 0x01, 0x06,
+                0x00,
+                0x05, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15};
+        ScanRecord lazy = ScanRecord.wrap(bytes);
+        assertEquals(0x06, lazy.getAdvertiseFlags());
+        assertNull(lazy.getManufacturerSpecificData(0x004C));
+        assertAgree(bytes);
+        assertAgree(new byte[0]);
+    }
+
+    @Test
+    public void laterFieldsOverrideEarlierOnes() {
+        byte[] bytes = {
+                0x04, (byte) 0xFF, 0x4C, 0x00, 0x01,
+                0x04, 0x16, (byte) 0xAA, (byte) 0xFE, 0x01,
+                0x04, (byte) 0xFF, 0x4C, 0x00, 0x02,
+                0x04, 0x16, (byte) 0xAA, (byte) 0xFE, 0x02};
+        ScanRecord lazy = ScanRecord.wrap(bytes);
+        assertArrayEquals(new byte[]{0x02}, lazy.getManufacturerSpecificData(0x004C));
+        assertArrayEquals(new byte[]{0x02},
+                lazy.getServiceData(CompiledFilterSetTest.uuid16(0xFEAA)));
+        assertAgree(bytes);
+    }
+
+    @Test
+    public void lazyAgreesWithEagerOnRandomRecords() {
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            byte[] bytes = randomRecord(random);
+            switch (random.nextInt(4)) {
+                case 0:
+                    // Truncated.
+                    bytes = Arrays.copyOf(bytes, random.nextInt(bytes.length + 1));
+                    break;
+                case 1:
+                    // Corrupted, possibly a length byte.
+                    if (bytes.length > 0) {
+                        bytes[random.nextInt(bytes.length)] = (byte) random.nextInt(256);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            assertAgree(bytes, random);
+        }
+    }
+
+    private static void assertAgree(byte[] bytes) {
+        assertAgree(bytes, new Random(bytes.length));
+    }
+
+    // The fields read one at a time from a wrapped record equal those of the parsed collections.
+    private static void assertAgree(byte[] bytes, Random random) {
+        String message = Arrays.toString(bytes);
+        ScanRecord eager = ScanRecord.parseFromBytes(bytes);
+        List<ParcelUuid> serviceUuids = eager.getServiceUuids();
+
+        ScanRecord lazy = ScanRecord.wrap(bytes);
+        assertEquals(message, eager.getAdvertiseFlags(), lazy.getAdvertiseFlags());
+        assertEquals(message, eager.getTxPowerLevel(), lazy.getTxPowerLevel());
+        assertEquals(message, eager.getDeviceName(), lazy.getDeviceName());
+
+        for (int manufacturerId : MANUFACTURER_IDS) {
+            byte[] expected = eager.getManufacturerSpecificData().get(manufacturerId);
+            assertArrayEquals(message, expected, lazy.getManufacturerSpecificData(manufacturerId));
+            byte[][] pattern = randomPattern(random, expected);
+            assertEquals(message, matchesPartialData(pattern[0], pattern[1], expected),
+                    lazy.matchesManufacturerData(manufacturerId, pattern[0], pattern[1]));
+        }
+
+        for (int serviceId : SERVICE_IDS) {
+            ParcelUuid uuid = CompiledFilterSetTest.uuid16(serviceId);
+            byte[] expected = eager.getServiceData().get(uuid);
+            assertArrayEquals(message, expected, lazy.getServiceData(uuid));
+            byte[][] pattern = randomPattern(random, expected);
+            assertEquals(message, matchesPartialData(pattern[0], pattern[1], expected),
+                    lazy.matchesServiceData(uuid, pattern[0], pattern[1]));
+
+            UUID mask = random.nextBoolean() ? null : new UUID(random.nextLong(), random.nextLong());
+            assertEquals(message, matchesServiceUuid(serviceUuids, uuid.getUuid(), mask),
+                    lazy.matchesServiceUuid(uuid.getUuid(), mask));
+        }
+        if (serviceUuids != null) {
+            for (ParcelUuid uuid : serviceUuids) {
+                assertTrue(message, lazy.matchesServiceUuid(uuid.getUuid(), null));
+            }
+        }
+    }
+
+    // ScanFilter's matching of a data pattern against the parsed bytes of a field.
+    private static boolean matchesPartialData(byte[] data, byte[] dataMask, byte[] parsedData) {
+        if (parsedData == null) {
+            return false;
+        }
+        if (data == null) {
+            return true;
+        }
+        if (parsedData.length < data.length) {
+            return false;
+        }
+        for (int i = 0; i < data.length; ++i) {
+            int mask = dataMask == null ? 0xFF : dataMask[i];
+            if ((mask & parsedData[i]) != (mask & data[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesServiceUuid(List<ParcelUuid> uuids, UUID uuid, UUID mask) {
+        if (uuids == null) {
+            return false;
+        }
+        long msbMask = mask == null ? -1L : mask.getMostSignificantBits();
+        long lsbMask = mask == null ? -1L : mask.getLeastSignificantBits();
+        for (ParcelUuid parcelUuid : uuids) {
+            UUID candidate = parcelUuid.getUuid();
+            if (((candidate.getMostSignificantBits() ^ uuid.getMostSignificantBits()) & msbMask) == 0
+                    && ((candidate.getLeastSignificantBits() ^ uuid.getLeastSignificantBits())
+                    & lsbMask) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A data pattern and mask, or null, often taken from the start of the field so that it matches.
+    private static byte[][] randomPattern(Random random, byte[] field) {
+        if (random.nextInt(4) == 0) {
+            return new byte[2][];
+        }
+        int length = random.nextInt(4);
+        byte[] data = new byte[length];
+        if (field != null && random.nextBoolean()) {
+            System.arraycopy(field, 0, data, 0, Math.min(length, field.length));
+        } else {
+            random.nextBytes(data);
+        }
+        byte[] mask = null;
+        if (random.nextBoolean()) {
+            mask = new byte[length];
+            random.nextBytes(mask);
+        }
+        return new byte[][]{data, mask};
+    }
+
+    // A sequence of AD structures of the types the record parses, with a few unknown ones.
+    private static byte[] randomRecord(Random random) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = random.nextInt(6);
+        for (int i = 0; i < count; i++) {
+            byte[] data;
+            int type;
+            switch (random.nextInt(8)) {
+                case 0:
+                    type = 0x01;
+                    data = randomBytes(random, 1);
+                    break;
+                case 1:
+                    type = 0x02 + random.nextInt(6);
+                    data = randomBytes(random, random.nextInt(20));
+                    if (random.nextBoolean() && data.length >= 2) {
+                        writeShort(data, 0, SERVICE_IDS[random.nextInt(SERVICE_IDS.length)]);
+                    }
+                    break;
+                case 2:
+                    type = ScanRecord.DATA_TYPE_SERVICE_DATA;
+                    data = randomBytes(random, 2 + random.nextInt(5));
+                    writeShort(data, 0, SERVICE_IDS[random.nextInt(SERVICE_IDS.length)]);
+                    break;
+                case 3:
+                    type = ScanRecord.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA;
+                    data = randomBytes(random, 2 + random.nextInt(5));
+                    writeShort(data, 0, MANUFACTURER_IDS[random.nextInt(MANUFACTURER_IDS.length)]);
+                    break;
+                case 4:
+                    type = 0x08 + random.nextInt(2);
+                    data = new byte[random.nextInt(8)];
+                    for (int j = 0; j < data.length; j++) {
+                        data[j] = (byte) ('a' + random.nextInt(26));
+                    }
+                    break;
+                case 5:
+                    type = 0x0A;
+                    data = randomBytes(random, 1);
+                    break;
+                default:
+                    type = UNKNOWN_FIELD_TYPE;
+                    data = randomBytes(random, random.nextInt(4));
+                    break;
+            }
+            out.write(data.length + 1);
+            out.write(type);
+            out.write(data, 0, data.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void writeShort(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+    }
+
+    private static byte[] uuidBytes(UUID uuid) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (uuid.getMostSignificantBits() >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (uuid.getLeastSignificantBits() >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    private static byte[] reverse(byte[] bytes) {
+        byte[] reversed = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            reversed[i] = bytes[bytes.length - 1 - i];
+        }
+        return reversed;
+    }
+}
@@ -0,0 +1,135 @@
+package com.reelyactive.blesdk.support.ble.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashSetTest {
+
+    @Test
+    public void addContainsAndRemove() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertEquals(1, set.size());
+
+        assertTrue(set.remove(42));
+        assertFalse(set.remove(42));
+        assertFalse(set.contains(42));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void freeKeyIsAnOrdinaryValue() {
+        LongHashSet set = new LongHashSet();
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        set.add(-1);
+        assertTrue(set.contains(0));
+        assertEquals(2, set.size());
+        assertValues(set, -1, 0);
+
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertFalse(set.contains(0));
+        assertValues(set, -1);
+    }
+
+    @Test
+    public void removeKeepsProbeSequencesWrappingAround() {
+        long[] last = LongObjectHashMapTest.keysForSlot(15, 2, 15);
+        long first = LongObjectHashMapTest.keysForSlot(0, 1, 15)[0];
+        LongHashSet set = new LongHashSet();
+        set.add(last[0]);
+        set.add(last[1]);
+        set.add(first);
+
+        assertTrue(set.remove(last[0]));
+        assertTrue(set.contains(last[1]));
+        assertTrue(set.contains(first));
+        assertTrue(set.remove(last[1]));
+        assertTrue(set.contains(first));
+
+        set.add(last[0]);
+        assertTrue(set.remove(first));
+        assertTrue(set.contains(last[0]));
+    }
+
+    @Test
+    public void removeLeavesKeysAtTheirIdealSlotAfterAWrap() {
+        long last = LongObjectHashMapTest.keysForSlot(15, 1, 15)[0];
+        long first = LongObjectHashMapTest.keysForSlot(0, 1, 15)[0];
+        LongHashSet set = new LongHashSet();
+        set.add(last);
+        set.add(first);
+
+        assertTrue(set.remove(last));
+        assertTrue(set.contains(first));
+    }
+
+    @Test
+    public void growsAndClears() {
+        LongHashSet set = new LongHashSet();
+        for (long value = 0; value < 1000; value++) {
+            set.add(value << 40);
+        }
+        assertEquals(1000, set.size());
+        for (long value = 0; value < 1000; value++) {
+            assertTrue(set.contains(value << 40));
+        }
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+        assertEquals(0, set.toArray().length);
+    }
+
+    @Test
+    public void matchesHashSetThroughRandomOperations() {
+        Random random = new Random(6);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<Long>();
+        for (int step = 0; step < 200000; step++) {
+            long value = LongObjectHashMapTest.randomKey(random);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.add(value), set.add(value));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(value), set.remove(value));
+                    break;
+                default:
+                    assertEquals(expected.contains(value), set.contains(value));
+                    break;
+            }
+            assertEquals(expected.size(), set.size());
+            if (step % 1000 == 0) {
+                for (long expectedValue : expected) {
+                    assertTrue(set.contains(expectedValue));
+                }
+                long[] values = new long[expected.size()];
+                int i = 0;
+                for (long expectedValue : expected) {
+                    values[i++] = expectedValue;
+                }
+                assertValues(set, values);
+            }
+        }
+    }
+
+    private static void assertValues(LongHashSet set, long... expected) {
+        long[] values = set.toArray();
+        Arrays.sort(values);
+        long[] sorted = expected.clone();
+        Arrays.sort(sorted);
+        assertTrue(Arrays.equals(sorted, values));
+    }
+}
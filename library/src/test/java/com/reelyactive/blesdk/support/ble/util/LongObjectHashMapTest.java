@@ -0,0 +1,182 @@
+package com.reelyactive.blesdk.support.ble.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongObjectHashMapTest {
+
+    @Test
+    public void putGetAndRemove() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        assertNull(map.put(42, "a"));
+        assertEquals("a", map.put(42, "b"));
+        assertEquals("b", map.get(42));
+        assertTrue(map.containsKey(42));
+        assertEquals(1, map.size());
+
+        assertEquals("b", map.remove(42));
+        assertNull(map.remove(42));
+        assertNull(map.get(42));
+        assertFalse(map.containsKey(42));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void freeKeyIsAnOrdinaryKey() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        assertFalse(map.containsKey(0));
+        assertNull(map.put(0, "zero"));
+        assertEquals("zero", map.put(0, "nought"));
+        map.put(1, "one");
+        assertEquals("nought", map.get(0));
+        assertTrue(map.containsKey(0));
+        assertEquals(2, map.size());
+        assertKeys(map, 0, 1);
+
+        assertEquals("nought", map.remove(0));
+        assertNull(map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(1, map.size());
+        assertKeys(map, 1);
+    }
+
+    @Test
+    public void removeKeepsProbeSequencesWrappingAround() {
+        // Two keys for the last slot of the table, the second stored in the first slot, then a
+        // key for the first slot, pushed to the second.
+        long[] last = keysForSlot(15, 2, 15);
+        long first = keysForSlot(0, 1, 15)[0];
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>(8);
+        map.put(last[0], "a");
+        map.put(last[1], "b");
+        map.put(first, "c");
+
+        assertEquals("a", map.remove(last[0]));
+        assertEquals("b", map.get(last[1]));
+        assertEquals("c", map.get(first));
+        assertEquals("b", map.remove(last[1]));
+        assertEquals("c", map.get(first));
+    }
+
+    @Test
+    public void removeLeavesKeysAtTheirIdealSlotAfterAWrap() {
+        long last = keysForSlot(15, 1, 15)[0];
+        long first = keysForSlot(0, 1, 15)[0];
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>(8);
+        map.put(last, "a");
+        map.put(first, "b");
+
+        assertEquals("a", map.remove(last));
+        assertEquals("b", map.get(first));
+    }
+
+    @Test
+    public void nullValueIsKept() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        map.put(7, null);
+        assertTrue(map.containsKey(7));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void growsPastItsExpectedSize() {
+        LongObjectHashMap<Long> map = new LongObjectHashMap<Long>(4);
+        for (long key = -500; key <= 500; key++) {
+            map.put(key, key);
+        }
+        assertEquals(1001, map.size());
+        for (long key = -500; key <= 500; key++) {
+            assertEquals(Long.valueOf(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void clearEmptiesTheMap() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        map.put(0, "zero");
+        map.put(1, "one");
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0));
+        assertNull(map.get(1));
+        assertEquals(0, map.keys().length);
+    }
+
+    @Test
+    public void matchesHashMapThroughRandomOperations() {
+        Random random = new Random(6);
+        LongObjectHashMap<Integer> map = new LongObjectHashMap<Integer>();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for (int step = 0; step < 200000; step++) {
+            // Few distinct keys, so that removals hit long probe sequences, including 0, the
+            // extremes and keys spread over the 48 bits of device addresses.
+            long key = randomKey(random);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.put(key, step), map.put(key, step));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+                    assertEquals(expected.containsKey(key), map.containsKey(key));
+                    break;
+            }
+            assertEquals(expected.size(), map.size());
+            if (step % 1000 == 0) {
+                for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+                    assertEquals(entry.getValue(), map.get(entry.getKey()));
+                }
+                long[] keys = new long[expected.size()];
+                int i = 0;
+                for (long expectedKey : expected.keySet()) {
+                    keys[i++] = expectedKey;
+                }
+                assertKeys(map, keys);
+            }
+        }
+    }
+
+    // Returns count keys whose ideal slot is slot, in a table of mask + 1 slots.
+    static long[] keysForSlot(int slot, int count, int mask) {
+        long[] keys = new long[count];
+        int found = 0;
+        for (long key = 1; found < count; key++) {
+            if (LongHashing.slot(key, mask) == slot) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+
+    static long randomKey(Random random) {
+        switch (random.nextInt(8)) {
+            case 0:
+                return 0;
+            case 1:
+                return random.nextBoolean() ? Long.MIN_VALUE : Long.MAX_VALUE;
+            case 2:
+                return (random.nextInt(256) + 1L) << 40;
+            default:
+                return random.nextInt(512) - 128;
+        }
+    }
+
+    private static void assertKeys(LongObjectHashMap<?> map, long... expected) {
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        long[] sorted = expected.clone();
+        Arrays.sort(sorted);
+        assertTrue(Arrays.equals(sorted, keys));
+    }
+}
@@ -0,0 +1,62 @@
+package com.reelyactive.blesdk.support.ble.util;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MacAddressesTest {
+
+    @Test
+    public void packsMostSignificantByteFirst() {
+        assertEquals(0x010203ABCDEFL, MacAddresses.pack("01:02:03:AB:CD:EF"));
+        assertEquals(0x010203ABCDEFL, MacAddresses.pack("01:02:03:ab:cd:ef"));
+        assertEquals(0L, MacAddresses.pack("00:00:00:00:00:00"));
+        assertEquals(0xFFFFFFFFFFFFL, MacAddresses.pack("FF:FF:FF:FF:FF:FF"));
+    }
+
+    @Test
+    public void unpacksAsBluetoothDeviceAddress() {
+        assertEquals("01:02:03:AB:CD:EF", MacAddresses.unpack(0x010203ABCDEFL));
+        assertEquals("00:00:00:00:00:00", MacAddresses.unpack(0));
+        assertEquals("FF:FF:FF:FF:FF:FF", MacAddresses.unpack(0xFFFFFFFFFFFFL));
+    }
+
+    @Test
+    public void roundTrips() {
+        Random random = new Random(6);
+        for (int i = 0; i < 10000; i++) {
+            long address = random.nextLong() & 0xFFFFFFFFFFFFL;
+            String text = MacAddresses.unpack(address);
+            assertEquals(address, MacAddresses.pack(text));
+            assertEquals(text, MacAddresses.unpack(MacAddresses.pack(text.toLowerCase(Locale.US))));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidAddresses() {
+        String[] invalid = {
+                null,
+                "",
+                "01:02:03:AB:CD",
+                "01:02:03:AB:CD:EF:",
+                "01:02:03:AB:CD:EF:00",
+                "01-02-03-AB-CD-EF",
+                "01:02:03:AB:CD:EG",
+                "0102:03:AB:CD:EF0",
+                " 1:02:03:AB:CD:EF",
+                "+1:02:03:AB:CD:EF",
+        };
+        for (String address : invalid) {
+            try {
+                MacAddresses.pack(address);
+                fail("accepted " + address);
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+}